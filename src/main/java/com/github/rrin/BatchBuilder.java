@@ -0,0 +1,83 @@
+package com.github.rrin;
+
+import com.github.rrin.dto.AddProductToGroup;
+import com.github.rrin.dto.Batch;
+import com.github.rrin.dto.BatchEntry;
+import com.github.rrin.dto.CommandResponse;
+import com.github.rrin.dto.group.RemoveProductFromGroup;
+import com.github.rrin.dto.group.UpdateGroup;
+import com.github.rrin.dto.product.CreateProduct;
+import com.github.rrin.dto.product.DeleteProduct;
+import com.github.rrin.dto.product.UpdateProduct;
+import com.github.rrin.util.CommandType;
+import com.github.rrin.util.data.DataPacket;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Collects commands and sends them as one BATCH packet, the response holds one result per command
+public class BatchBuilder {
+    private static final int DEFAULT_TIMEOUT_SECONDS = 10;
+
+    private final BatchSender sender;
+    private final List<BatchEntry> entries = new ArrayList<>();
+    private boolean atomic;
+
+    interface BatchSender {
+        DataPacket<CommandResponse> send(Batch batch, int timeoutSeconds) throws Exception;
+    }
+
+    BatchBuilder(BatchSender sender) {
+        this.sender = sender;
+    }
+
+    // Run all commands in one transaction, nothing is applied if any of them fails
+    public BatchBuilder atomic() {
+        this.atomic = true;
+        return this;
+    }
+
+    public BatchBuilder add(CommandType command, Object data) {
+        if (command == CommandType.BATCH || command == CommandType.RESPONSE) {
+            throw new IllegalArgumentException(command + " cannot be part of a batch");
+        }
+        entries.add(new BatchEntry(command, data));
+        return this;
+    }
+
+    public BatchBuilder createProduct(String name, double price, int quantity) {
+        return add(CommandType.CREATE_PRODUCT, new CreateProduct(name, price, quantity));
+    }
+
+    public BatchBuilder updateProduct(int id, String name, Double price, Integer quantity) {
+        return add(CommandType.UPDATE_PRODUCT, new UpdateProduct(id, name, price, quantity));
+    }
+
+    public BatchBuilder deleteProduct(int id) {
+        return add(CommandType.DELETE_PRODUCT, new DeleteProduct(id));
+    }
+
+    public BatchBuilder updateGroup(int id, String name) {
+        return add(CommandType.UPDATE_GROUP, new UpdateGroup(id, name));
+    }
+
+    public BatchBuilder addProductToGroup(int productId, int groupId) {
+        return add(CommandType.ADD_PRODUCT_TO_GROUP, new AddProductToGroup(productId, groupId));
+    }
+
+    public BatchBuilder removeProductFromGroup(int productId, int groupId) {
+        return add(CommandType.REMOVE_PRODUCT_FROM_GROUP, new RemoveProductFromGroup(productId, groupId));
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public DataPacket<CommandResponse> send() throws Exception {
+        return send(DEFAULT_TIMEOUT_SECONDS);
+    }
+
+    public DataPacket<CommandResponse> send(int timeoutSeconds) throws Exception {
+        return sender.send(new Batch(atomic, List.copyOf(entries)), timeoutSeconds);
+    }
+}
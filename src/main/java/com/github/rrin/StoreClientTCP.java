@@ -4,10 +4,13 @@ import com.github.rrin.dto.*;
 import com.github.rrin.dto.AddProductToGroup;
 import com.github.rrin.dto.group.*;
 import com.github.rrin.dto.product.*;
+import com.github.rrin.util.CipherMode;
 import com.github.rrin.util.CommandType;
 import com.github.rrin.util.Converter;
+import com.github.rrin.util.PayloadEncoding;
 import com.github.rrin.util.DelayedRequest;
 import com.github.rrin.util.data.DataPacket;
+import com.github.rrin.util.data.FrameDecoder;
 
 import java.io.*;
 import java.net.InetSocketAddress;
@@ -20,6 +23,10 @@ import java.util.concurrent.atomic.AtomicLong;
 public class StoreClientTCP {
     private final String serverHost;
     private final int serverPort;
+    private final CipherMode cipherMode;
+    private final PayloadEncoding payloadEncoding;
+    // Tells the server how long each request will be waited for, so it can drop the ones nobody waits for anymore
+    private final boolean sendDeadlines;
     private final AtomicBoolean running = new AtomicBoolean(false);
     private final AtomicBoolean serverAvailable = new AtomicBoolean(false);
     private final AtomicLong packetIdCounter = new AtomicLong(1);
@@ -40,8 +47,24 @@ public class StoreClientTCP {
     private static final int SOCKET_TIMEOUT_MS = 1000;
 
     public StoreClientTCP(String serverHost, int serverPort) {
+        this(serverHost, serverPort, CipherMode.CBC);
+    }
+
+    public StoreClientTCP(String serverHost, int serverPort, CipherMode cipherMode) {
+        this(serverHost, serverPort, cipherMode, PayloadEncoding.JSON);
+    }
+
+    public StoreClientTCP(String serverHost, int serverPort, CipherMode cipherMode, PayloadEncoding payloadEncoding) {
+        this(serverHost, serverPort, cipherMode, payloadEncoding, false);
+    }
+
+    public StoreClientTCP(String serverHost, int serverPort, CipherMode cipherMode, PayloadEncoding payloadEncoding,
+                          boolean sendDeadlines) {
         this.serverHost = serverHost;
         this.serverPort = serverPort;
+        this.cipherMode = cipherMode;
+        this.payloadEncoding = payloadEncoding;
+        this.sendDeadlines = sendDeadlines;
     }
 
     public void start() {
@@ -256,8 +279,14 @@ public class StoreClientTCP {
         return sendRequestAndWait(CommandType.CLEAR_DB, null, timeoutSeconds);
     }
 
+    // Batch operations
+    public BatchBuilder batch() {
+        return new BatchBuilder((batch, timeoutSeconds) -> sendRequestAndWait(CommandType.BATCH, batch, timeoutSeconds));
+    }
+
     private DataPacket<CommandResponse> sendRequestAndWait(CommandType command, Object data, int timeoutSeconds) throws Exception {
-        CompletableFuture<DataPacket<CommandResponse>> future = sendRequestAsync(command, data);
+        CompletableFuture<DataPacket<CommandResponse>> future = sendRequestAsync(command, data,
+                sendDeadlines ? (int) TimeUnit.SECONDS.toMillis(timeoutSeconds) : 0);
 
         try {
             return future.get(timeoutSeconds, TimeUnit.SECONDS);
@@ -267,7 +296,7 @@ public class StoreClientTCP {
         }
     }
 
-    private CompletableFuture<DataPacket<CommandResponse>> sendRequestAsync(CommandType command, Object data) {
+    private CompletableFuture<DataPacket<CommandResponse>> sendRequestAsync(CommandType command, Object data, int timeoutMillis) {
         if (!running.get()) {
             CompletableFuture<DataPacket<CommandResponse>> failedFuture = new CompletableFuture<>();
             failedFuture.completeExceptionally(new IllegalStateException("Client is not running"));
@@ -279,7 +308,7 @@ public class StoreClientTCP {
 
         pendingRequests.put(packetId, future);
 
-        DelayedRequest request = new DelayedRequest(command, data, future, packetId);
+        DelayedRequest request = new DelayedRequest(command, data, future, packetId, System.nanoTime(), timeoutMillis);
 
         if (!requestQueue.offer(request)) {
             pendingRequests.remove(packetId);
@@ -388,6 +417,18 @@ public class StoreClientTCP {
     }
 
     private void sendPacketNow(DelayedRequest request) throws Exception {
+        int deadlineMillis = 0;
+        if (request.timeoutMillis() > 0) {
+            long remaining = request.remainingMillis();
+            if (remaining <= 0) {
+                // The caller gave up while the request waited for a connection, the server need not see it
+                pendingRequests.remove(request.packetId());
+                System.out.println("[STORE-CLIENT] Dropped expired " + request.command() + " request (ID: " + request.packetId() + ")");
+                return;
+            }
+            deadlineMillis = (int) remaining;
+        }
+
         DataPacket<Object> requestPacket = new DataPacket<>(
                 (byte) 0x13,
                 (byte) 1,
@@ -395,7 +436,9 @@ public class StoreClientTCP {
                 request.command(),
                 1,
                 request.data(),
-                0
+                0,
+                cipherMode.getFlag() | payloadEncoding.getFlag(),
+                deadlineMillis
         );
 
         byte[] packetBytes = requestPacket.toByteArray();
@@ -408,11 +451,22 @@ public class StoreClientTCP {
     }
 
     private void runReceiver() {
+        FrameDecoder decoder = new FrameDecoder();
+        byte[] buffer = new byte[2048];
+
         while (running.get() && serverAvailable.get()) {
             try {
-                byte[] buffer = new byte[2048];
-                inputStream.read(buffer);
-                handleReceivedPacket(buffer);
+                int bytesRead = inputStream.read(buffer);
+                if (bytesRead == -1) {
+                    throw new EOFException("Server closed the connection");
+                }
+
+                decoder.append(buffer, 0, bytesRead);
+
+                byte[] frame;
+                while ((frame = decoder.nextFrame()) != null) {
+                    handleReceivedPacket(frame);
+                }
             } catch (SocketTimeoutException e) {
                 continue;
             } catch (Exception e) {
@@ -4,8 +4,10 @@ import com.github.rrin.dto.*;
 import com.github.rrin.dto.AddProductToGroup;
 import com.github.rrin.dto.group.*;
 import com.github.rrin.dto.product.*;
+import com.github.rrin.util.CipherMode;
 import com.github.rrin.util.CommandType;
 import com.github.rrin.util.Converter;
+import com.github.rrin.util.PayloadEncoding;
 import com.github.rrin.util.data.DataPacket;
 
 import java.net.*;
@@ -19,6 +21,8 @@ import java.util.concurrent.atomic.AtomicLong;
 public class StoreClientUDP {
     private final String serverHost;
     private final int serverPort;
+    private final CipherMode cipherMode;
+    private final PayloadEncoding payloadEncoding;
     private final AtomicBoolean running = new AtomicBoolean(false);
     private final AtomicLong packetIdCounter = new AtomicLong(1);
 
@@ -29,10 +33,22 @@ public class StoreClientUDP {
 
     private static final int DEFAULT_TIMEOUT_SECONDS = 10;
     private static final int SOCKET_TIMEOUT_MS = 1000;
+    // Largest UDP payload over IPv4, anything smaller silently truncates big responses
+    private static final int MAX_DATAGRAM_SIZE = 65507;
 
     public StoreClientUDP(String serverHost, int serverPort) {
+        this(serverHost, serverPort, CipherMode.CBC);
+    }
+
+    public StoreClientUDP(String serverHost, int serverPort, CipherMode cipherMode) {
+        this(serverHost, serverPort, cipherMode, PayloadEncoding.JSON);
+    }
+
+    public StoreClientUDP(String serverHost, int serverPort, CipherMode cipherMode, PayloadEncoding payloadEncoding) {
         this.serverHost = serverHost;
         this.serverPort = serverPort;
+        this.cipherMode = cipherMode;
+        this.payloadEncoding = payloadEncoding;
     }
 
     public void start() {
@@ -236,6 +252,11 @@ public class StoreClientUDP {
         return sendRequestAndWait(CommandType.CLEAR_DB, null, timeoutSeconds);
     }
 
+    // Batch operations
+    public BatchBuilder batch() {
+        return new BatchBuilder((batch, timeoutSeconds) -> sendRequestAndWait(CommandType.BATCH, batch, timeoutSeconds));
+    }
+
     private DataPacket<CommandResponse> sendRequestAndWait(CommandType command, Object data, int timeoutSeconds) throws Exception {
         CompletableFuture<DataPacket<CommandResponse>> future = sendRequestAsync(command, data);
 
@@ -262,7 +283,8 @@ public class StoreClientUDP {
                 command,
                 1,
                 data,
-                0
+                0,
+                cipherMode.getFlag() | payloadEncoding.getFlag()
         );
 
         CompletableFuture<DataPacket<CommandResponse>> future = new CompletableFuture<>();
@@ -297,7 +319,7 @@ public class StoreClientUDP {
     }
 
     private void runReceiver() {
-        byte[] buffer = new byte[4096];
+        byte[] buffer = new byte[MAX_DATAGRAM_SIZE];
 
         while (running.get()) {
             printStatistics();
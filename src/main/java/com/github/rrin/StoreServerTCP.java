@@ -1,22 +1,35 @@
 package com.github.rrin;
 
 import com.github.rrin.implementation.*;
-import com.github.rrin.implementation.tcp.TcpReceiver;
-import com.github.rrin.implementation.tcp.TcpSender;
-import com.github.rrin.implementation.tcp.TcpSocketManager;
+import com.github.rrin.implementation.tcp.*;
 import com.github.rrin.interfaces.*;
+import com.github.rrin.util.CommandLanes;
+import com.github.rrin.util.PipelineMode;
+import com.github.rrin.util.ReceiverMode;
+import com.github.rrin.util.ServerOptions;
 import com.github.rrin.util.data.*;
+import com.github.rrin.util.metrics.PipelineMetrics;
+import com.github.rrin.util.metrics.ServerMetrics;
 
-import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 public class StoreServerTCP {
+    // Only in STAGED mode
     private final BlockingQueue<RawData> rawPacketsQueue;
+    // Only in FUSED mode, the receivers feed the workers' shards directly
+    private final ShardedQueue<RawData> shardedPacketsQueue;
     private final BlockingQueue<DataPacket<Object>> parsedPacketsQueue;
     private final BlockingQueue<RequestData> responseQueue;
     private final BlockingQueue<RawData> encryptedResponseQueue;
-    private final IConnectionManager<Socket> socketManager = new TcpSocketManager();
+    private final BufferPool bufferPool;
+    private final AdmissionController admissionController;
+    private final PipelineMetrics metrics;
 
     IReceiver receiver;
     IDecrypter decrypter;
@@ -25,26 +38,83 @@ public class StoreServerTCP {
     ISender sender;
 
     public StoreServerTCP(int receiverPort) {
-        this.rawPacketsQueue = new ArrayBlockingQueue<>(1024);
-        this.parsedPacketsQueue = new ArrayBlockingQueue<>(1024);
-        this.responseQueue = new ArrayBlockingQueue<>(1024);
-        this.encryptedResponseQueue = new ArrayBlockingQueue<>(1024);
+        this(receiverPort, new ServerOptions());
+    }
+
+    public StoreServerTCP(int receiverPort, ServerOptions options) {
+        this.bufferPool = new BufferPool(options.getBufferPoolCapacity(), options.getBufferSize());
+        boolean fused = options.getPipelineMode() == PipelineMode.FUSED;
+        // Raw packets come from one reader thread per connection or event loop, later queues from one thread per worker
+        this.shardedPacketsQueue = fused ? newShardedQueue(options, false) : null;
+        this.rawPacketsQueue = fused ? null : newStageQueue(options, false);
+        QueueSink<RawData> receiverQueue = fused ? shardedPacketsQueue : QueueSink.of(rawPacketsQueue);
+        CommandLanes lanes = options.isPriorityLanes() ? options.getCommandLanes() : null;
+        this.parsedPacketsQueue = fused ? null : newStageQueue(options, options.getDecrypterWorkers() == 1);
+        // The processor's workers and its dispatcher, which answers probes and runs barriers, all produce responses
+        this.responseQueue = fused ? null : newStageQueue(options, false);
+        // Rejected requests skip the pipeline and join the encrypted responses straight from the receivers
+        this.encryptedResponseQueue = newStageQueue(options, options.getEncrypterWorkers() == 1 && !options.isAdmissionControl());
+        this.metrics = options.isMetricsEnabled() ? new PipelineMetrics(options.getMetricsSampleIntervalMillis()) : null;
+        DeadlineGuard deadlineGuard = options.isDeadlinesEnabled() ? new DeadlineGuard(metrics) : null;
+
+        // Every queue a request can wait in, by stage. Staged workers each have a queue behind the stage queue.
+        Map<String, List<BlockingQueue<?>>> stageQueues = new LinkedHashMap<>();
+        if (fused) {
+            for (int i = 0; i < shardedPacketsQueue.shardCount(); i++) {
+                stageQueues.put("worker-" + i, List.of(shardedPacketsQueue.shard(i)));
+            }
+        } else {
+            Decrypter stagedDecrypter = new Decrypter(rawPacketsQueue, parsedPacketsQueue, options.getDecrypterWorkers(), deadlineGuard);
+            MySQLProductProcessor productProcessor = new MySQLProductProcessor(parsedPacketsQueue, responseQueue, options.getProcessorWorkers(),
+                    lanes, deadlineGuard);
+            Encrypter stagedEncrypter = new Encrypter(responseQueue, encryptedResponseQueue, bufferPool, options.isCompressResponses(),
+                    options.getEncrypterWorkers(), deadlineGuard);
+            stageQueues.put("decrypter", queuesOf(rawPacketsQueue, stagedDecrypter.getWorkerQueues()));
+            stageQueues.put("processor", queuesOf(parsedPacketsQueue, productProcessor.getWorkerQueues()));
+            stageQueues.put("encrypter", queuesOf(responseQueue, stagedEncrypter.getWorkerQueues()));
+            this.decrypter = stagedDecrypter;
+            this.processor = productProcessor;
+            this.encrypter = stagedEncrypter;
+        }
+        this.admissionController = newAdmissionController(options, stageQueues);
+        if (metrics != null) {
+            watchQueues(metrics, stageQueues);
+        }
 
-        this.receiver = new TcpReceiver(rawPacketsQueue, receiverPort, socketManager);
-        this.decrypter = new Decrypter(rawPacketsQueue, parsedPacketsQueue);
-        this.processor = new MySQLProductProcessor(parsedPacketsQueue, responseQueue);
-        this.encrypter = new Encrypter(responseQueue, encryptedResponseQueue);
-        this.sender = new TcpSender(encryptedResponseQueue, socketManager);
+        if (options.getReceiverMode() == ReceiverMode.SELECTOR) {
+            NioConnectionManager connectionManager = new NioConnectionManager();
+            this.receiver = new NioTcpReceiver(receiverQueue, receiverPort, connectionManager, options.getEventLoops(),
+                    options.getMaxFrameSize(), bufferPool, options.getOutboundQueueCapacity(), options.getOverflowPolicy(),
+                    options.getWriteBatchBytes(), admissionController);
+            this.sender = new NioTcpSender(encryptedResponseQueue, connectionManager, metrics);
+        } else {
+            TcpSocketManager socketManager = new TcpSocketManager(options.getOutboundQueueCapacity(), options.getOverflowPolicy(),
+                    options.getWriteBatchBytes(), TimeUnit.MICROSECONDS.toNanos(options.getWriteMaxDelayMicros()));
+            this.receiver = new TcpReceiver(receiverQueue, receiverPort, socketManager, options.getMaxFrameSize(), bufferPool,
+                    options.getReceiverMode(), admissionController);
+            this.sender = new TcpSender(encryptedResponseQueue, socketManager, metrics);
+        }
+        if (fused) {
+            // Workers hand responses straight to the transport, the sender thread only carries 503 rejections
+            this.processor = new FusedPipeline(shardedPacketsQueue, sender, bufferPool, options.isCompressResponses(), deadlineGuard);
+        }
     }
 
     public void start() {
         System.out.println("Store TCP server is starting...");
 
         receiver.start();
-        decrypter.start();
+        if (decrypter != null) {
+            decrypter.start();
+        }
         processor.start();
-        encrypter.start();
+        if (encrypter != null) {
+            encrypter.start();
+        }
         sender.start();
+        if (metrics != null) {
+            metrics.start();
+        }
 
         System.out.println("Store TCP server has started successfully");
     }
@@ -53,11 +123,71 @@ public class StoreServerTCP {
         System.out.println("Stopping store TCP server...");
 
         receiver.stop();
-        decrypter.stop();
+        if (decrypter != null) {
+            decrypter.stop();
+        }
         processor.stop();
-        encrypter.stop();
+        if (encrypter != null) {
+            encrypter.stop();
+        }
         sender.stop();
+        if (metrics != null) {
+            metrics.stop();
+        }
 
         System.out.println("Store TCP server has stopped successfully");
     }
+
+    private static <E> BlockingQueue<E> newStageQueue(ServerOptions options, boolean singleProducer) {
+        if (!options.isRingBufferQueues()) {
+            return new ArrayBlockingQueue<>(options.getStageQueueCapacity());
+        }
+        return new StageQueue<>(options.getStageQueueCapacity(), singleProducer, options.getStageWaitStrategy());
+    }
+
+    // Shards by connection, so one worker sees all of a connection's requests in order
+    private static ShardedQueue<RawData> newShardedQueue(ServerOptions options, boolean singleProducer) {
+        return new ShardedQueue<>(options.getFusedWorkers(), raw -> raw.connectionId,
+                shard -> newStageQueue(options, singleProducer));
+    }
+
+    private static List<BlockingQueue<?>> queuesOf(BlockingQueue<?> stageQueue, List<? extends BlockingQueue<?>> workerQueues) {
+        List<BlockingQueue<?>> queues = new ArrayList<>();
+        queues.add(stageQueue);
+        queues.addAll(workerQueues);
+        return queues;
+    }
+
+    private AdmissionController newAdmissionController(ServerOptions options, Map<String, List<BlockingQueue<?>>> stageQueues) {
+        if (!options.isAdmissionControl()) {
+            return null;
+        }
+        AdmissionController controller = new AdmissionController(encryptedResponseQueue, bufferPool);
+        // In FUSED mode one backed-up worker is enough to reject, its connections would otherwise wait behind it
+        for (Map.Entry<String, List<BlockingQueue<?>>> stage : stageQueues.entrySet()) {
+            controller.watch(stage.getKey(), stage.getValue(), options.getAdmissionHighWatermark(), options.getAdmissionLowWatermark());
+        }
+        return controller;
+    }
+
+    // Worker queues are sampled on their own as <stage>-worker-<i>, a single slow worker shows up by itself
+    private void watchQueues(PipelineMetrics pipelineMetrics, Map<String, List<BlockingQueue<?>>> stageQueues) {
+        for (Map.Entry<String, List<BlockingQueue<?>>> stage : stageQueues.entrySet()) {
+            List<BlockingQueue<?>> queues = stage.getValue();
+            pipelineMetrics.watchQueue(stage.getKey(), queues.get(0));
+            for (int i = 1; i < queues.size(); i++) {
+                pipelineMetrics.watchQueue(stage.getKey() + "-worker-" + (i - 1), queues.get(i));
+            }
+        }
+        pipelineMetrics.watchQueue("sender", encryptedResponseQueue);
+    }
+
+    public AdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
+    // Null when metrics are disabled
+    public ServerMetrics getMetrics() {
+        return metrics == null ? null : metrics.snapshot();
+    }
 }
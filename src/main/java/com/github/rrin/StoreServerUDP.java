@@ -1,28 +1,50 @@
 package com.github.rrin;
 
+import com.github.rrin.implementation.AdmissionController;
+import com.github.rrin.implementation.DeadlineGuard;
 import com.github.rrin.implementation.Decrypter;
 import com.github.rrin.implementation.Encrypter;
+import com.github.rrin.implementation.FusedPipeline;
 import com.github.rrin.implementation.MySQLProductProcessor;
 import com.github.rrin.implementation.udp.UdpReceiver;
 import com.github.rrin.implementation.udp.UdpSender;
 import com.github.rrin.implementation.udp.UdpSocketManager;
 import com.github.rrin.interfaces.*;
+import com.github.rrin.util.CommandLanes;
+import com.github.rrin.util.PipelineMode;
+import com.github.rrin.util.ServerOptions;
+import com.github.rrin.util.data.BufferPool;
 import com.github.rrin.util.data.DataPacket;
+import com.github.rrin.util.data.QueueSink;
 import com.github.rrin.util.data.RawData;
 import com.github.rrin.util.data.RequestData;
-
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.SocketException;
+import com.github.rrin.util.data.ShardedQueue;
+import com.github.rrin.util.data.StageQueue;
+import com.github.rrin.util.metrics.PipelineMetrics;
+import com.github.rrin.util.metrics.ServerMetrics;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 
 public class StoreServerUDP {
+    // Only in STAGED mode
     private final BlockingQueue<RawData> rawPacketsQueue;
+    // Only in FUSED mode, the receivers feed the workers' shards directly
+    private final ShardedQueue<RawData> shardedPacketsQueue;
     private final BlockingQueue<DataPacket<Object>> parsedPacketsQueue;
     private final BlockingQueue<RequestData> responseQueue;
     private final BlockingQueue<RawData> encryptedResponseQueue;
-    private final IConnectionManager<DatagramPacket> socketManager = new UdpSocketManager();
+    private final UdpSocketManager socketManager;
+    private final BufferPool bufferPool;
+    private final AdmissionController admissionController;
+    private final PipelineMetrics metrics;
 
     IReceiver receiver;
     IDecrypter decrypter;
@@ -30,37 +52,87 @@ public class StoreServerUDP {
     IEncrypter encrypter;
     ISender sender;
 
-    DatagramSocket socket;
+    // All bound to the server port, responses go out through the first
+    List<DatagramChannel> channels;
 
     public StoreServerUDP(int receiverPort) {
+        this(receiverPort, new ServerOptions());
+    }
+
+    public StoreServerUDP(int receiverPort, ServerOptions options) {
 
         try {
-            socket = new DatagramSocket(receiverPort);
-        } catch (SocketException e) {
+            channels = UdpReceiver.openChannels(new InetSocketAddress(receiverPort), options.getUdpChannels());
+        } catch (IOException e) {
             System.out.println("Could not open UDP socket in StoreServerUDP");
             throw new RuntimeException(e);
         }
 
-        this.rawPacketsQueue = new ArrayBlockingQueue<>(1024);
-        this.parsedPacketsQueue = new ArrayBlockingQueue<>(1024);
-        this.responseQueue = new ArrayBlockingQueue<>(1024);
-        this.encryptedResponseQueue = new ArrayBlockingQueue<>(1024);
+        this.bufferPool = new BufferPool(options.getBufferPoolCapacity(), options.getBufferSize());
+        this.socketManager = new UdpSocketManager(options.getUdpSessionTtlMillis(), options.getMaxUdpSessions());
+
+        boolean fused = options.getPipelineMode() == PipelineMode.FUSED;
+        // Raw packets come from one receiver thread per channel, later queues from one thread per worker
+        boolean singleReceiver = channels.size() == 1;
+        this.shardedPacketsQueue = fused ? newShardedQueue(options, singleReceiver) : null;
+        this.rawPacketsQueue = fused ? null : newStageQueue(options, singleReceiver);
+        QueueSink<RawData> receiverQueue = fused ? shardedPacketsQueue : QueueSink.of(rawPacketsQueue);
+        CommandLanes lanes = options.isPriorityLanes() ? options.getCommandLanes() : null;
+        this.parsedPacketsQueue = fused ? null : newStageQueue(options, options.getDecrypterWorkers() == 1);
+        // The processor's workers and its dispatcher, which answers probes and runs barriers, all produce responses
+        this.responseQueue = fused ? null : newStageQueue(options, false);
+        // Rejected requests skip the pipeline and join the encrypted responses straight from the receivers
+        this.encryptedResponseQueue = newStageQueue(options, options.getEncrypterWorkers() == 1 && !options.isAdmissionControl());
+        this.metrics = options.isMetricsEnabled() ? new PipelineMetrics(options.getMetricsSampleIntervalMillis()) : null;
+        DeadlineGuard deadlineGuard = options.isDeadlinesEnabled() ? new DeadlineGuard(metrics) : null;
+
+        // Every queue a request can wait in, by stage. Staged workers each have a queue behind the stage queue.
+        Map<String, List<BlockingQueue<?>>> stageQueues = new LinkedHashMap<>();
+        if (fused) {
+            for (int i = 0; i < shardedPacketsQueue.shardCount(); i++) {
+                stageQueues.put("worker-" + i, List.of(shardedPacketsQueue.shard(i)));
+            }
+        } else {
+            Decrypter stagedDecrypter = new Decrypter(rawPacketsQueue, parsedPacketsQueue, options.getDecrypterWorkers(), deadlineGuard);
+            MySQLProductProcessor productProcessor = new MySQLProductProcessor(parsedPacketsQueue, responseQueue, options.getProcessorWorkers(),
+                    lanes, deadlineGuard);
+            Encrypter stagedEncrypter = new Encrypter(responseQueue, encryptedResponseQueue, bufferPool, options.isCompressResponses(),
+                    options.getEncrypterWorkers(), deadlineGuard);
+            stageQueues.put("decrypter", queuesOf(rawPacketsQueue, stagedDecrypter.getWorkerQueues()));
+            stageQueues.put("processor", queuesOf(parsedPacketsQueue, productProcessor.getWorkerQueues()));
+            stageQueues.put("encrypter", queuesOf(responseQueue, stagedEncrypter.getWorkerQueues()));
+            this.decrypter = stagedDecrypter;
+            this.processor = productProcessor;
+            this.encrypter = stagedEncrypter;
+        }
+        this.admissionController = newAdmissionController(options, stageQueues);
+        if (metrics != null) {
+            watchQueues(metrics, stageQueues);
+        }
 
-        this.receiver = new UdpReceiver(rawPacketsQueue, socketManager, socket);
-        this.decrypter = new Decrypter(rawPacketsQueue, parsedPacketsQueue);
-        this.processor = new MySQLProductProcessor(parsedPacketsQueue, responseQueue);
-        this.encrypter = new Encrypter(responseQueue, encryptedResponseQueue);
-        this.sender = new UdpSender(encryptedResponseQueue, socketManager, socket);
+        this.receiver = new UdpReceiver(receiverQueue, socketManager, channels, bufferPool, admissionController);
+        this.sender = new UdpSender(encryptedResponseQueue, socketManager, channels.get(0), metrics);
+        if (fused) {
+            // Workers hand responses straight to the transport, the sender thread only carries 503 rejections
+            this.processor = new FusedPipeline(shardedPacketsQueue, sender, bufferPool, options.isCompressResponses(), deadlineGuard);
+        }
     }
 
     public void start() {
         System.out.println("Store UDP server is starting...");
 
         receiver.start();
-        decrypter.start();
+        if (decrypter != null) {
+            decrypter.start();
+        }
         processor.start();
-        encrypter.start();
+        if (encrypter != null) {
+            encrypter.start();
+        }
         sender.start();
+        if (metrics != null) {
+            metrics.start();
+        }
 
         System.out.println("Store UDP server has started successfully");
     }
@@ -69,13 +141,84 @@ public class StoreServerUDP {
         System.out.println("Stopping store UDP server...");
 
         receiver.stop();
-        decrypter.stop();
+        if (decrypter != null) {
+            decrypter.stop();
+        }
         processor.stop();
-        encrypter.stop();
+        if (encrypter != null) {
+            encrypter.stop();
+        }
         sender.stop();
+        if (metrics != null) {
+            metrics.stop();
+        }
 
-        socket.close();
+        for (DatagramChannel channel : channels) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close UDP channel: " + e.getMessage());
+            }
+        }
 
         System.out.println("Store UDP server has stopped successfully");
     }
+
+    private static <E> BlockingQueue<E> newStageQueue(ServerOptions options, boolean singleProducer) {
+        if (!options.isRingBufferQueues()) {
+            return new ArrayBlockingQueue<>(options.getStageQueueCapacity());
+        }
+        return new StageQueue<>(options.getStageQueueCapacity(), singleProducer, options.getStageWaitStrategy());
+    }
+
+    // Shards by connection, so one worker sees all of a connection's requests in order
+    private static ShardedQueue<RawData> newShardedQueue(ServerOptions options, boolean singleProducer) {
+        return new ShardedQueue<>(options.getFusedWorkers(), raw -> raw.connectionId,
+                shard -> newStageQueue(options, singleProducer));
+    }
+
+    private static List<BlockingQueue<?>> queuesOf(BlockingQueue<?> stageQueue, List<? extends BlockingQueue<?>> workerQueues) {
+        List<BlockingQueue<?>> queues = new ArrayList<>();
+        queues.add(stageQueue);
+        queues.addAll(workerQueues);
+        return queues;
+    }
+
+    private AdmissionController newAdmissionController(ServerOptions options, Map<String, List<BlockingQueue<?>>> stageQueues) {
+        if (!options.isAdmissionControl()) {
+            return null;
+        }
+        AdmissionController controller = new AdmissionController(encryptedResponseQueue, bufferPool);
+        // In FUSED mode one backed-up worker is enough to reject, its connections would otherwise wait behind it
+        for (Map.Entry<String, List<BlockingQueue<?>>> stage : stageQueues.entrySet()) {
+            controller.watch(stage.getKey(), stage.getValue(), options.getAdmissionHighWatermark(), options.getAdmissionLowWatermark());
+        }
+        return controller;
+    }
+
+    // Worker queues are sampled on their own as <stage>-worker-<i>, a single slow worker shows up by itself
+    private void watchQueues(PipelineMetrics pipelineMetrics, Map<String, List<BlockingQueue<?>>> stageQueues) {
+        for (Map.Entry<String, List<BlockingQueue<?>>> stage : stageQueues.entrySet()) {
+            List<BlockingQueue<?>> queues = stage.getValue();
+            pipelineMetrics.watchQueue(stage.getKey(), queues.get(0));
+            for (int i = 1; i < queues.size(); i++) {
+                pipelineMetrics.watchQueue(stage.getKey() + "-worker-" + (i - 1), queues.get(i));
+            }
+        }
+        pipelineMetrics.watchQueue("sender", encryptedResponseQueue);
+    }
+
+    // Session counts and hit, miss and eviction counters of the client address table
+    public UdpSocketManager getSessions() {
+        return socketManager;
+    }
+
+    public AdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
+    // Null when metrics are disabled
+    public ServerMetrics getMetrics() {
+        return metrics == null ? null : metrics.snapshot();
+    }
 }
@@ -0,0 +1,6 @@
+package com.github.rrin.dto;
+
+import java.util.List;
+
+// atomic - run all entries in one transaction and roll back on the first failed one
+public record Batch(boolean atomic, List<BatchEntry> entries) {}
@@ -0,0 +1,5 @@
+package com.github.rrin.dto;
+
+import com.github.rrin.util.CommandType;
+
+public record BatchEntry(CommandType command, Object data) {}
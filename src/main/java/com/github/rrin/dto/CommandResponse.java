@@ -1,4 +1,14 @@
 package com.github.rrin.dto;
 
-public record CommandResponse(int statusCode, String title, String message) {
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+// results - one response per entry of a BATCH request, absent for every other command
+public record CommandResponse(int statusCode, String title, String message,
+                              @JsonInclude(JsonInclude.Include.NON_NULL) List<CommandResponse> results) {
+
+    public CommandResponse(int statusCode, String title, String message) {
+        this(statusCode, title, message, null);
+    }
 }
@@ -0,0 +1,124 @@
+package com.github.rrin.implementation;
+
+import com.github.rrin.util.data.BufferPool;
+import com.github.rrin.util.data.OverloadResponse;
+import com.github.rrin.util.data.RawData;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+// Decides at the receiver whether a request may enter the pipeline. While any watched stage queue is above
+// its high watermark, and until it drains to its low one, requests are answered with a 503 straight away
+// through the sender queue, so overload shows up as fast rejections instead of client timeouts.
+public class AdmissionController {
+
+    private static class Stage {
+        final String name;
+        final List<Collection<?>> queues;
+        final int highWatermark;
+        final int lowWatermark;
+        volatile boolean shedding;
+
+        Stage(String name, List<Collection<?>> queues, int highWatermark, int lowWatermark) {
+            this.name = name;
+            this.queues = queues;
+            this.highWatermark = highWatermark;
+            this.lowWatermark = lowWatermark;
+        }
+
+        int depth() {
+            int depth = 0;
+            for (Collection<?> queue : queues) {
+                depth += queue.size();
+            }
+            return depth;
+        }
+    }
+
+    private final List<Stage> stages = new CopyOnWriteArrayList<>();
+    private final BlockingQueue<RawData> rejectionQueue;
+    private final BufferPool bufferPool;
+    private final OverloadResponse overloadResponse = new OverloadResponse();
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    // Rejections that could not even be answered because the sender queue was full too
+    private final LongAdder dropped = new LongAdder();
+
+    // Rejections are put on rejectionQueue, the queue the sender reads encrypted responses from
+    public AdmissionController(BlockingQueue<RawData> rejectionQueue, BufferPool bufferPool) {
+        this.rejectionQueue = rejectionQueue;
+        this.bufferPool = bufferPool;
+    }
+
+    public void watch(String name, BlockingQueue<?> queue, int highWatermark, int lowWatermark) {
+        watch(name, List.of(queue), highWatermark, lowWatermark);
+    }
+
+    // A stage whose items wait in several queues, like a dispatcher queue in front of per-worker ones.
+    // The watermarks apply to all of them together.
+    public void watch(String name, List<? extends Collection<?>> queues, int highWatermark, int lowWatermark) {
+        if (lowWatermark < 0 || lowWatermark >= highWatermark) {
+            throw new IllegalArgumentException("Watermarks of " + name + " must satisfy 0 <= low < high: " + lowWatermark + ", " + highWatermark);
+        }
+        stages.add(new Stage(name, List.copyOf(queues), highWatermark, lowWatermark));
+    }
+
+    // Returns true when the request may be queued for decryption. Otherwise its frame has been released
+    // and a 503 queued for the sender, unless the frame was unreadable or the sender queue full.
+    public boolean admit(RawData request) {
+        if (!isOverloaded()) {
+            admitted.increment();
+            return true;
+        }
+
+        rejected.increment();
+        ByteBuffer response = overloadResponse.encodeFor(request.buffer, bufferPool);
+        request.release();
+        if (response != null) {
+            RawData rejection = new RawData(response, request.connectionId, bufferPool);
+            if (rejectionQueue.offer(rejection)) {
+                return false;
+            }
+            rejection.release();
+        }
+        dropped.increment();
+        return false;
+    }
+
+    public boolean isOverloaded() {
+        boolean overloaded = false;
+        for (Stage stage : stages) {
+            int depth = stage.depth();
+            if (stage.shedding) {
+                if (depth <= stage.lowWatermark) {
+                    stage.shedding = false;
+                    System.out.println("Stage " + stage.name + " drained to " + depth + ", admitting requests again");
+                } else {
+                    overloaded = true;
+                }
+            } else if (depth >= stage.highWatermark) {
+                stage.shedding = true;
+                System.err.println("Stage " + stage.name + " reached " + depth + " queued items, rejecting new requests");
+                overloaded = true;
+            }
+        }
+        return overloaded;
+    }
+
+    public long getAdmitted() {
+        return admitted.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+}
@@ -0,0 +1,39 @@
+package com.github.rrin.implementation;
+
+import com.github.rrin.util.data.DataPacket;
+import com.github.rrin.util.metrics.PipelineMetrics;
+import com.github.rrin.util.metrics.PipelineStage;
+import com.github.rrin.util.metrics.StageTimestamps;
+
+// Drops requests whose client has already given up. The decrypter turns the budget a request carries into
+// a deadline counted from the frame's arrival, and every stage checks it before spending the cipher or
+// the database on the request. Requests without a deadline are never dropped.
+public class DeadlineGuard {
+    // Null when metrics are disabled, drops then go uncounted
+    private final PipelineMetrics metrics;
+
+    public DeadlineGuard() {
+        this(null);
+    }
+
+    public DeadlineGuard(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    void arm(DataPacket<?> packet, StageTimestamps timestamps) {
+        if (timestamps != null && packet.getDeadlineMillis() > 0) {
+            timestamps.expireAfter(packet.getDeadlineMillis());
+        }
+    }
+
+    // True when the request should be dropped instead of entering the stage
+    boolean expired(StageTimestamps timestamps, PipelineStage stage) {
+        if (timestamps == null || !timestamps.isExpired(System.nanoTime())) {
+            return false;
+        }
+        if (metrics != null) {
+            metrics.recordExpired(stage);
+        }
+        return true;
+    }
+}
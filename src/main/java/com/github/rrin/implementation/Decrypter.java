@@ -2,25 +2,47 @@ package com.github.rrin.implementation;
 
 import com.github.rrin.util.data.DataPacket;
 import com.github.rrin.interfaces.IDecrypter;
+import com.github.rrin.util.CommandType;
 import com.github.rrin.util.data.RawData;
+import com.github.rrin.util.metrics.PipelineStage;
+import com.github.rrin.util.metrics.StageTimestamps;
 
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class Decrypter implements IDecrypter, Runnable {
     private final BlockingQueue<RawData> inputQueue;
     private final BlockingQueue<DataPacket<Object>> outputQueue;
+    private final PartitionedWorkers<RawData> workers;
+    // Null ignores request deadlines
+    private final DeadlineGuard deadlineGuard;
     private final AtomicBoolean running = new AtomicBoolean(false);
     private Thread decrypterThread;
 
     public Decrypter(BlockingQueue<RawData> inputQueue, BlockingQueue<DataPacket<Object>> outputQueue) {
+        this(inputQueue, outputQueue, 1);
+    }
+
+    public Decrypter(BlockingQueue<RawData> inputQueue, BlockingQueue<DataPacket<Object>> outputQueue, int workerCount) {
+        this(inputQueue, outputQueue, workerCount, null);
+    }
+
+    public Decrypter(BlockingQueue<RawData> inputQueue, BlockingQueue<DataPacket<Object>> outputQueue, int workerCount,
+                     DeadlineGuard deadlineGuard) {
         this.inputQueue = inputQueue;
         this.outputQueue = outputQueue;
+        this.deadlineGuard = deadlineGuard;
+        // A single worker decrypts on the dispatching thread itself, without the extra queue hop
+        this.workers = workerCount > 1 ? new PartitionedWorkers<>("Decrypter", workerCount, this::decryptMessage) : null;
     }
 
     @Override
     public void start() {
         if (running.compareAndSet(false, true)) {
+            if (workers != null) {
+                workers.start();
+            }
             decrypterThread = new Thread(this, "Decrypter");
             decrypterThread.start();
             System.out.println("Decrypter started");
@@ -33,6 +55,9 @@ public class Decrypter implements IDecrypter, Runnable {
         if (decrypterThread != null) {
             decrypterThread.interrupt();
         }
+        if (workers != null) {
+            workers.stop();
+        }
         System.out.println("Decrypter stopped");
     }
 
@@ -41,19 +66,80 @@ public class Decrypter implements IDecrypter, Runnable {
         return running.get();
     }
 
+    // Empty with a single worker
+    public List<BlockingQueue<RawData>> getWorkerQueues() {
+        return workers == null ? List.of() : workers.queues();
+    }
+
     @Override
     public void run() {
         while (running.get()) {
             try {
                 RawData rawMessage = inputQueue.take();
-                DataPacket<Object> packet = DataPacket.fromByteArray(rawMessage.data, Object.class, rawMessage.connectionId);
-                outputQueue.put(packet);
+                if (workers == null) {
+                    decryptMessage(rawMessage);
+                } else {
+                    workers.dispatch(rawMessage, rawMessage.connectionId);
+                }
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 break;
-            } catch (Exception e) {
-                System.err.println("Error parsing message: " + e.getMessage());
             }
         }
     }
+
+    private void decryptMessage(RawData rawMessage) throws InterruptedException {
+        try {
+            DataPacket<Object> packet = decode(rawMessage, deadlineGuard);
+            if (packet != null) {
+                outputQueue.put(packet);
+            }
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            System.err.println("Error parsing message: " + e.getMessage());
+        }
+    }
+
+    // Parses and decrypts one frame and releases its buffer, null when the packet is dropped
+    static DataPacket<Object> decode(RawData rawMessage, DeadlineGuard deadlineGuard) {
+        StageTimestamps timestamps = rawMessage.timestamps;
+        if (timestamps != null) {
+            timestamps.decryptStarted();
+        }
+        DataPacket<Object> packet;
+        // The body is read straight from the frame buffer, which can only go back to the pool once it is decrypted
+        try {
+            packet = DataPacket.decodeLazy(rawMessage.buffer, Object.class, rawMessage.connectionId);
+
+            // Only the header is parsed so far, packets we would drop never reach AES or Jackson
+            if (!accept(packet)) {
+                return null;
+            }
+            if (deadlineGuard != null) {
+                deadlineGuard.arm(packet, timestamps);
+                if (deadlineGuard.expired(timestamps, PipelineStage.DECRYPT)) {
+                    return null;
+                }
+            }
+
+            // Decrypted here, not in the processor, so the cipher work stays in this stage
+            packet.getBody().getData();
+        } finally {
+            rawMessage.release();
+        }
+        if (timestamps != null) {
+            timestamps.decrypted(packet.getBody().getCommand());
+            packet.setTimestamps(timestamps);
+        }
+        return packet;
+    }
+
+    private static boolean accept(DataPacket<Object> packet) {
+        if (packet.getBody().getCommand() == CommandType.RESPONSE) {
+            System.err.println("Dropped RESPONSE packet from connection " + packet.getConnectionId());
+            return false;
+        }
+        return true;
+    }
 }
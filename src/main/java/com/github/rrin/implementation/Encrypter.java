@@ -3,26 +3,64 @@ package com.github.rrin.implementation;
 import com.github.rrin.util.data.DataPacket;
 import com.github.rrin.interfaces.IEncrypter;
 import com.github.rrin.util.CommandType;
+import com.github.rrin.util.data.BufferPool;
+import com.github.rrin.util.data.PacketFlags;
 import com.github.rrin.util.data.RawData;
 import com.github.rrin.util.data.RequestData;
+import com.github.rrin.util.metrics.PipelineStage;
+import com.github.rrin.util.metrics.StageTimestamps;
 
+import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class Encrypter implements IEncrypter, Runnable {
     private final BlockingQueue<RequestData> inputQueue;
     private final BlockingQueue<RawData> outputQueue;
+    private final BufferPool bufferPool;
+    private final boolean compressResponses;
+    private final PartitionedWorkers<RequestData> workers;
+    // Null ignores request deadlines
+    private final DeadlineGuard deadlineGuard;
     private final AtomicBoolean running = new AtomicBoolean(false);
     private Thread encrypterThread;
 
     public Encrypter(BlockingQueue<RequestData> inputQueue, BlockingQueue<RawData> outputQueue) {
+        this(inputQueue, outputQueue, new BufferPool());
+    }
+
+    public Encrypter(BlockingQueue<RequestData> inputQueue, BlockingQueue<RawData> outputQueue, BufferPool bufferPool) {
+        this(inputQueue, outputQueue, bufferPool, true);
+    }
+
+    public Encrypter(BlockingQueue<RequestData> inputQueue, BlockingQueue<RawData> outputQueue, BufferPool bufferPool,
+                     boolean compressResponses) {
+        this(inputQueue, outputQueue, bufferPool, compressResponses, 1);
+    }
+
+    public Encrypter(BlockingQueue<RequestData> inputQueue, BlockingQueue<RawData> outputQueue, BufferPool bufferPool,
+                     boolean compressResponses, int workerCount) {
+        this(inputQueue, outputQueue, bufferPool, compressResponses, workerCount, null);
+    }
+
+    public Encrypter(BlockingQueue<RequestData> inputQueue, BlockingQueue<RawData> outputQueue, BufferPool bufferPool,
+                     boolean compressResponses, int workerCount, DeadlineGuard deadlineGuard) {
         this.inputQueue = inputQueue;
+        this.deadlineGuard = deadlineGuard;
         this.outputQueue = outputQueue;
+        this.bufferPool = bufferPool;
+        this.compressResponses = compressResponses;
+        // A single worker encrypts on the dispatching thread itself, without the extra queue hop
+        this.workers = workerCount > 1 ? new PartitionedWorkers<>("Encrypter", workerCount, this::handleResponse) : null;
     }
 
     @Override
     public void start() {
         if (running.compareAndSet(false, true)) {
+            if (workers != null) {
+                workers.start();
+            }
             encrypterThread = new Thread(this, "Encrypter");
             encrypterThread.start();
             System.out.println("Encrypter started");
@@ -35,6 +73,9 @@ public class Encrypter implements IEncrypter, Runnable {
         if (encrypterThread != null) {
             encrypterThread.interrupt();
         }
+        if (workers != null) {
+            workers.stop();
+        }
         System.out.println("Encrypter stopped");
     }
 
@@ -43,23 +84,53 @@ public class Encrypter implements IEncrypter, Runnable {
         return running.get();
     }
 
+    // Empty with a single worker
+    public List<BlockingQueue<RequestData>> getWorkerQueues() {
+        return workers == null ? List.of() : workers.queues();
+    }
+
     @Override
     public void run() {
         while (running.get()) {
             try {
                 RequestData response = inputQueue.take();
-                byte[] encryptedResponse = encryptResponse(response);
-                outputQueue.put(new RawData(encryptedResponse, response.getConnectionId()));
+                if (workers == null) {
+                    handleResponse(response);
+                } else {
+                    workers.dispatch(response, response.getConnectionId());
+                }
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 break;
-            } catch (Exception e) {
-                System.err.println("Error encrypting response: " + e.getMessage());
             }
         }
     }
 
-    private byte[] encryptResponse(RequestData response) {
+    private void handleResponse(RequestData response) throws InterruptedException {
+        try {
+            ByteBuffer encryptedResponse = encode(response, bufferPool, compressResponses, deadlineGuard);
+            if (encryptedResponse == null) {
+                return;
+            }
+            outputQueue.put(new RawData(encryptedResponse, response.getConnectionId(), bufferPool, response.getTimestamps()));
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            System.err.println("Error encrypting response: " + e.getMessage());
+        }
+    }
+
+    // Null when the request expired, nothing is encrypted or sent then
+    static ByteBuffer encode(RequestData response, BufferPool bufferPool, boolean compressResponses, DeadlineGuard deadlineGuard) {
+        StageTimestamps timestamps = response.getTimestamps();
+        if (deadlineGuard != null && deadlineGuard.expired(timestamps, PipelineStage.ENCRYPT)) {
+            return null;
+        }
+        if (timestamps != null) {
+            timestamps.encryptStarted();
+        }
+        // Compressed only if the request was, and even then small or incompressible responses go out as they are
+        int flags = compressResponses ? response.getFlags() : response.getFlags() & ~PacketFlags.COMPRESSED;
 
         DataPacket<Object> packet = new DataPacket<>(
                 (byte) 0x13,
@@ -68,9 +139,15 @@ public class Encrypter implements IEncrypter, Runnable {
                 CommandType.RESPONSE,
                 response.getUserId(),
                 response.getResponse(),
-                0
+                0,
+                flags
         );
 
-        return packet.toByteArray();
+        ByteBuffer buffer = bufferPool.acquire(packet.getFrameSize());
+        packet.encodeInto(buffer);
+        if (timestamps != null) {
+            timestamps.encrypted();
+        }
+        return buffer.flip();
     }
 }
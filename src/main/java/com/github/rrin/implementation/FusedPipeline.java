@@ -0,0 +1,145 @@
+package com.github.rrin.implementation;
+
+import com.github.rrin.implementation.db.WarehouseService;
+import com.github.rrin.interfaces.ICommandHandler;
+import com.github.rrin.interfaces.IProcessor;
+import com.github.rrin.interfaces.ISender;
+import com.github.rrin.util.data.BufferPool;
+import com.github.rrin.util.data.DataPacket;
+import com.github.rrin.util.data.RawData;
+import com.github.rrin.util.data.RequestData;
+import com.github.rrin.util.data.ShardedQueue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Runs decrypt, process, encrypt and send for a packet on one thread, with no queue between the steps.
+// Every shard of the input queue gets its own worker and MySQL connection, and the receivers shard by connection,
+// so one connection's requests are handled in order. Requests from different connections run concurrently.
+public class FusedPipeline implements IProcessor {
+    private final ShardedQueue<RawData> inputQueue;
+    private final ISender sender;
+    private final BufferPool bufferPool;
+    private final boolean compressResponses;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final ICommandHandler.Factory handlerFactory;
+    // Null ignores request deadlines
+    private final DeadlineGuard deadlineGuard;
+    private final List<Thread> threads = new ArrayList<>();
+    private final List<ICommandHandler> handlers = new ArrayList<>();
+
+    public FusedPipeline(ShardedQueue<RawData> inputQueue, ISender sender, BufferPool bufferPool, boolean compressResponses) {
+        this(inputQueue, sender, bufferPool, compressResponses, (DeadlineGuard) null);
+    }
+
+    public FusedPipeline(ShardedQueue<RawData> inputQueue, ISender sender, BufferPool bufferPool, boolean compressResponses,
+                         DeadlineGuard deadlineGuard) {
+        this(inputQueue, sender, bufferPool, compressResponses, worker -> new WarehouseCommandHandler(new WarehouseService()), deadlineGuard);
+    }
+
+    public FusedPipeline(ShardedQueue<RawData> inputQueue, ISender sender, BufferPool bufferPool, boolean compressResponses,
+                         ICommandHandler.Factory handlerFactory) {
+        this(inputQueue, sender, bufferPool, compressResponses, handlerFactory, null);
+    }
+
+    public FusedPipeline(ShardedQueue<RawData> inputQueue, ISender sender, BufferPool bufferPool, boolean compressResponses,
+                         ICommandHandler.Factory handlerFactory, DeadlineGuard deadlineGuard) {
+        this.inputQueue = inputQueue;
+        this.sender = sender;
+        this.bufferPool = bufferPool;
+        this.compressResponses = compressResponses;
+        this.handlerFactory = handlerFactory;
+        this.deadlineGuard = deadlineGuard;
+    }
+
+    @Override
+    public void start() {
+        if (running.compareAndSet(false, true)) {
+            try {
+                for (int i = 0; i < inputQueue.shardCount(); i++) {
+                    handlers.add(handlerFactory.open(i));
+                }
+            } catch (SQLException e) {
+                System.err.println(e.getMessage());
+                stop();
+                return;
+            }
+
+            for (int i = 0; i < handlers.size(); i++) {
+                BlockingQueue<RawData> shard = inputQueue.shard(i);
+                ICommandHandler handler = handlers.get(i);
+                Thread thread = new Thread(() -> runWorker(shard, handler), "FusedWorker-" + i);
+                threads.add(thread);
+                thread.start();
+            }
+            System.out.println("FusedPipeline started with " + threads.size() + " workers");
+        }
+    }
+
+    @Override
+    public void stop() {
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        threads.clear();
+        for (ICommandHandler handler : handlers) {
+            try {
+                handler.close();
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+        handlers.clear();
+        System.out.println("FusedPipeline stopped");
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    private void runWorker(BlockingQueue<RawData> shard, ICommandHandler handler) {
+        while (running.get()) {
+            try {
+                handleMessage(handler, shard.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+
+    private void handleMessage(ICommandHandler handler, RawData rawMessage) throws InterruptedException {
+        RawData outgoing = null;
+        try {
+            DataPacket<Object> packet = Decrypter.decode(rawMessage, deadlineGuard);
+            if (packet == null) {
+                return;
+            }
+            RequestData response = MySQLProductProcessor.execute(handler, packet, deadlineGuard);
+            if (response == null) {
+                return;
+            }
+            ByteBuffer frame = Encrypter.encode(response, bufferPool, compressResponses, deadlineGuard);
+            if (frame == null) {
+                return;
+            }
+            outgoing = new RawData(frame, response.getConnectionId(), bufferPool, response.getTimestamps());
+            sender.send(outgoing);
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            // A sender that failed may or may not have released the frame, releasing twice is harmless
+            if (outgoing != null) {
+                outgoing.release();
+            }
+            System.err.println("Error handling message: " + e.getMessage());
+        }
+    }
+}
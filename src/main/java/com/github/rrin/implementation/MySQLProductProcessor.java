@@ -1,49 +1,132 @@
 package com.github.rrin.implementation;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.rrin.dto.*;
 import com.github.rrin.dto.AddProductToGroup;
 import com.github.rrin.dto.group.*;
 import com.github.rrin.dto.product.*;
 import com.github.rrin.implementation.db.WarehouseService;
+import com.github.rrin.interfaces.ICommandHandler;
 import com.github.rrin.interfaces.IProcessor;
+import com.github.rrin.util.CommandLanes;
 import com.github.rrin.util.CommandType;
-import com.github.rrin.util.ProductSearchFilters;
-import com.github.rrin.util.SearchResult;
 import com.github.rrin.util.data.DataPacket;
+import com.github.rrin.util.data.PacketFlags;
 import com.github.rrin.util.data.RequestData;
+import com.github.rrin.util.metrics.PipelineStage;
+import com.github.rrin.util.metrics.StageTimestamps;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class MySQLProductProcessor implements IProcessor, Runnable {
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    // Routing key of batches and CLEAR_DB, they run alone once every worker is idle
+    private static final long BARRIER = -1;
+    // Routing key of read-only scans. They wait for the writes dispatched before them, then queue on the least loaded worker.
+    private static final long SCAN = -2;
+    // Routing key of IS_RUNNING, answered by the dispatcher itself without waiting for any worker
+    private static final long PROBE = -3;
+
+    // Keyed commands that change nothing, a scan does not wait for them
+    private static final Set<CommandType> POINT_READS = EnumSet.of(CommandType.GET_PRODUCT, CommandType.GET_GROUP,
+            CommandType.GET_PRODUCT_GROUPS, CommandType.GET_GROUP_PRODUCTS);
+
+    private static final ICommandHandler HEALTH_PROBE = new ICommandHandler() {
+        @Override
+        public CommandResponse handle(CommandType command, Object data) {
+            return WarehouseCommandHandler.RUNNING;
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
     private final BlockingQueue<DataPacket<Object>> inputQueue;
     private final BlockingQueue<RequestData> outputQueue;
+    private final int workerCount;
     private final AtomicBoolean running = new AtomicBoolean(false);
     private Thread processorThread;
-
-    //MySQL database manager
-    WarehouseService warehouseService;
+    private final PartitionedWorkers<DataPacket<Object>> workers;
+    // Dispatched but not yet handled writes, a scan waits for this to drop to zero
+    private final AtomicInteger writesInFlight = new AtomicInteger();
+    private final Object writesLock = new Object();
+
+    //Command handlers, each with its own MySQL connection, one per worker
+    private final ICommandHandler.Factory handlerFactory;
+    private final List<ICommandHandler> handlers = new ArrayList<>();
+    // Null keeps every worker queue FIFO
+    private final CommandLanes lanes;
+    // Null ignores request deadlines
+    private final DeadlineGuard deadlineGuard;
 
     public MySQLProductProcessor(BlockingQueue<DataPacket<Object>> inputQueue, BlockingQueue<RequestData> outputQueue) {
+        this(inputQueue, outputQueue, 1);
+    }
+
+    public MySQLProductProcessor(BlockingQueue<DataPacket<Object>> inputQueue, BlockingQueue<RequestData> outputQueue, int workerCount) {
+        this(inputQueue, outputQueue, workerCount, (CommandLanes) null);
+    }
+
+    public MySQLProductProcessor(BlockingQueue<DataPacket<Object>> inputQueue, BlockingQueue<RequestData> outputQueue, int workerCount,
+                                 CommandLanes lanes) {
+        this(inputQueue, outputQueue, workerCount, lanes, null);
+    }
+
+    public MySQLProductProcessor(BlockingQueue<DataPacket<Object>> inputQueue, BlockingQueue<RequestData> outputQueue, int workerCount,
+                                 CommandLanes lanes, DeadlineGuard deadlineGuard) {
+        this(inputQueue, outputQueue, workerCount, worker -> new WarehouseCommandHandler(new WarehouseService()), lanes, deadlineGuard);
+    }
+
+    public MySQLProductProcessor(BlockingQueue<DataPacket<Object>> inputQueue, BlockingQueue<RequestData> outputQueue, int workerCount,
+                                 ICommandHandler.Factory handlerFactory) {
+        this(inputQueue, outputQueue, workerCount, handlerFactory, null);
+    }
+
+    public MySQLProductProcessor(BlockingQueue<DataPacket<Object>> inputQueue, BlockingQueue<RequestData> outputQueue, int workerCount,
+                                 ICommandHandler.Factory handlerFactory, CommandLanes lanes) {
+        this(inputQueue, outputQueue, workerCount, handlerFactory, lanes, null);
+    }
+
+    public MySQLProductProcessor(BlockingQueue<DataPacket<Object>> inputQueue, BlockingQueue<RequestData> outputQueue, int workerCount,
+                                 ICommandHandler.Factory handlerFactory, CommandLanes lanes, DeadlineGuard deadlineGuard) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("Worker count must be positive: " + workerCount);
+        }
         this.inputQueue = inputQueue;
         this.outputQueue = outputQueue;
+        this.workerCount = workerCount;
+        this.handlerFactory = handlerFactory;
+        this.lanes = lanes;
+        this.deadlineGuard = deadlineGuard;
+        // Even a single worker gets its own thread, so the dispatcher stays free to answer probes while it runs a scan.
+        // The handlers are opened by start().
+        this.workers = new PartitionedWorkers<>("ProductProcessor", workerCount, index -> message -> processWorkerMessage(handlers.get(index), message),
+                this::newWorkerQueue);
     }
 
     @Override
     public void start() {
         if (running.compareAndSet(false, true)) {
             try {
-                this.warehouseService = new WarehouseService();
+                for (int i = 0; i < workerCount; i++) {
+                    handlers.add(handlerFactory.open(i));
+                }
             } catch (SQLException e) {
                 System.err.println(e.getMessage());
                 stop();
                 return;
             }
+
+            workers.start();
             processorThread = new Thread(this, "ProductProcessor");
             processorThread.start();
             System.out.println("ProductProcessor started");
@@ -53,14 +136,18 @@ public class MySQLProductProcessor implements IProcessor, Runnable {
     @Override
     public void stop() {
         running.set(false);
-        try {
-            if (warehouseService != null) { warehouseService.close(); }
-        } catch (IOException e) {
-            System.err.println(e.getMessage());
-        }
         if (processorThread != null) {
             processorThread.interrupt();
         }
+        workers.stop();
+        for (ICommandHandler handler : handlers) {
+            try {
+                handler.close();
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+        handlers.clear();
         System.out.println("ProductProcessor stopped");
     }
 
@@ -69,14 +156,32 @@ public class MySQLProductProcessor implements IProcessor, Runnable {
         return running.get();
     }
 
+    public List<BlockingQueue<DataPacket<Object>>> getWorkerQueues() {
+        return workers.queues();
+    }
+
     @Override
     public void run() {
         while (running.get()) {
             try {
                 DataPacket<Object> message = inputQueue.take();
-                CommandResponse response = processMessage(message);
-                RequestData data = new RequestData(message.getSourceId(), message.getPacketId(), message.getBody().getUserId(), response, message.getConnectionId());
-                outputQueue.put(data);
+                long key = routingKey(message);
+                if (key == PROBE) {
+                    processMessage(HEALTH_PROBE, message);
+                } else if (key == BARRIER) {
+                    // Every worker is idle while this runs, so borrowing the first one's connection is safe
+                    workers.awaitIdle();
+                    processMessage(handlers.get(0), message);
+                } else if (key == SCAN) {
+                    // Sees every write dispatched before it, writes dispatched later may run alongside
+                    awaitWrites();
+                    workers.dispatch(message, workers.leastLoaded());
+                } else {
+                    if (isWrite(message)) {
+                        writesInFlight.incrementAndGet();
+                    }
+                    workers.dispatch(message, key);
+                }
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 break;
@@ -86,287 +191,116 @@ public class MySQLProductProcessor implements IProcessor, Runnable {
         }
     }
 
-    private CommandResponse processMessage(DataPacket<?> message) {
-        try {
-            Object data = message.getBody().getData();
-            CommandType command = message.getBody().getCommand();
-
-            return switch (command) {
-                // Product CRUD operations
-                case CREATE_PRODUCT -> {
-                    CreateProduct p = convertValue(data, CreateProduct.class);
-                    yield handleCreateProduct(p);
-                }
-                case GET_PRODUCT -> {
-                    GetProduct p = convertValue(data, GetProduct.class);
-                    yield handleGetProduct(p);
-                }
-                case UPDATE_PRODUCT -> {
-                    UpdateProduct p = convertValue(data, UpdateProduct.class);
-                    yield handleUpdateProduct(p);
-                }
-                case DELETE_PRODUCT -> {
-                    DeleteProduct p = convertValue(data, DeleteProduct.class);
-                    yield handleDeleteProduct(p);
-                }
-                case GET_ALL_PRODUCTS -> handleGetAllProducts();
-                case SEARCH_PRODUCTS -> {
-                    SearchProducts s = convertValue(data, SearchProducts.class);
-                    yield handleSearchProducts(s);
-                }
-
-                // Group CRUD operations
-                case CREATE_GROUP -> {
-                    CreateGroup g = convertValue(data, CreateGroup.class);
-                    yield handleCreateGroup(g);
-                }
-                case GET_GROUP -> {
-                    GetGroup g = convertValue(data, GetGroup.class);
-                    yield handleGetGroup(g);
-                }
-                case UPDATE_GROUP -> {
-                    UpdateGroup g = convertValue(data, UpdateGroup.class);
-                    yield handleUpdateGroup(g);
-                }
-                case DELETE_GROUP -> {
-                    DeleteGroup g = convertValue(data, DeleteGroup.class);
-                    yield handleDeleteGroup(g);
-                }
-                case GET_ALL_GROUPS -> handleGetAllGroups();
-
-                // Product-Group operations
-                case ADD_PRODUCT_TO_GROUP -> {
-                    AddProductToGroup a = convertValue(data, AddProductToGroup.class);
-                    yield handleAddProductToGroup(a);
-                }
-                case REMOVE_PRODUCT_FROM_GROUP -> {
-                    RemoveProductFromGroup r = convertValue(data, RemoveProductFromGroup.class);
-                    yield handleRemoveProductFromGroup(r);
-                }
-                case GET_PRODUCT_GROUPS -> {
-                    GetProductGroups g = convertValue(data, GetProductGroups.class);
-                    yield handleGetProductGroups(g);
-                }
-                case GET_GROUP_PRODUCTS -> {
-                    GetGroupProducts g = convertValue(data, GetGroupProducts.class);
-                    yield handleGetGroupProducts(g);
-                }
-
-                case IS_RUNNING -> {
-                    IsRunning r = convertValue(data, IsRunning.class);
-                    yield handleIsRunning(r);
-                }
-
-                case CLEAR_DB -> handleClearDatabase();
-
-                default -> throw new IllegalStateException("Unexpected command type: " + command);
-            };
-
-        } catch (Exception e) {
-            System.err.println("Error processing message: " + e.getMessage());
-            e.printStackTrace();
-            return new CommandResponse(500, "Error", "An error occurred while processing data: " + e.getMessage());
+    private void processMessage(ICommandHandler handler, DataPacket<Object> message) throws InterruptedException {
+        RequestData response = execute(handler, message, deadlineGuard);
+        if (response != null) {
+            outputQueue.put(response);
         }
     }
 
-    private CommandResponse handleClearDatabase() {
-        warehouseService.clearDB();
-        return new CommandResponse(200, "Success", "DB was cleared.");
-    }
-
-    private CommandResponse handleIsRunning(IsRunning r) {
-        return new CommandResponse(200, "Success", "The server is running.");
-    }
-
-    private CommandResponse handleCreateProduct(CreateProduct data) {
-        int id = warehouseService.createProduct(data.name(), data.price(), data.quantity());
-        if (id > 0) {
-            Product product = new Product(id, data.name(), data.price(), data.quantity());
-            String message = String.format("Created product: %s (ID: %d)", data.name(), id);
-            System.out.println(message);
-            return new CommandResponse(201, "Created", message);
-        } else {
-            return new CommandResponse(400, "Error", "Failed to create product");
+    private void processWorkerMessage(ICommandHandler handler, DataPacket<Object> message) throws InterruptedException {
+        try {
+            processMessage(handler, message);
+        } finally {
+            if (isWrite(message) && writesInFlight.decrementAndGet() == 0) {
+                synchronized (writesLock) {
+                    writesLock.notifyAll();
+                }
+            }
         }
     }
 
-    private CommandResponse handleGetProduct(GetProduct data) {
-        Product product = warehouseService.getProduct(data.id());
-        if (product != null) {
-            return new CommandResponse(200, "Success", "Product found\n" + product);
-        } else {
-            return new CommandResponse(404, "Not Found", "Product not found with ID: " + data.id());
+    // Blocks until every write dispatched so far has been handled
+    private void awaitWrites() throws InterruptedException {
+        synchronized (writesLock) {
+            while (writesInFlight.get() != 0) {
+                writesLock.wait();
+            }
         }
     }
 
-    private CommandResponse handleUpdateProduct(UpdateProduct data) {
-        if (!warehouseService.doProductExist(data.id())) {
-            return new CommandResponse(404, "Not Found", "Product not found with ID: " + data.id());
-        }
-
-        boolean success = true;
-        StringBuilder message = new StringBuilder("Updated product (ID: " + data.id() + "): ");
-
-        if (data.name() != null) {
-            boolean nameUpdated = warehouseService.setProductName(data.id(), data.name());
-            success = success && nameUpdated;
-            if (nameUpdated) message.append("name=").append(data.name()).append(" ");
-        }
-
-        if (data.price() != null) {
-            boolean priceUpdated = warehouseService.setProductPrice(data.id(), data.price());
-            success = success && priceUpdated;
-            if (priceUpdated) message.append("price=").append(data.price()).append(" ");
-        }
-
-        if (data.quantity() != null) {
-            boolean quantityUpdated = warehouseService.setProductQuantities(data.id(), data.quantity());
-            success = success && quantityUpdated;
-            if (quantityUpdated) message.append("quantity=").append(data.quantity()).append(" ");
-        }
-
-        if (success) {
-            Product updatedProduct = warehouseService.getProduct(data.id());
-            System.out.println(message);
-            return new CommandResponse(200, "Success", message.toString() +"\n"+ updatedProduct);
-        } else {
-            return new CommandResponse(400, "Error", "Failed to update product");
-        }
+    // Writes are the commands a worker runs that are neither point reads nor scans
+    private static boolean isWrite(DataPacket<Object> message) {
+        return !POINT_READS.contains(message.getBody().getCommand()) && routingKey(message) >= 0;
     }
 
-    private CommandResponse handleDeleteProduct(DeleteProduct data) {
-        Product deletedProduct = warehouseService.removeProduct(data.id());
-        if (deletedProduct != null) {
-            String message = String.format("Deleted product: %s (ID: %d)", deletedProduct.name(), data.id());
-            System.out.println(message);
-            return new CommandResponse(200, "Success", message);
-        } else {
-            return new CommandResponse(404, "Not Found", "Product not found with ID: " + data.id());
+    // Runs one command, failures become a 500 response instead of an exception. Null when the request expired.
+    static RequestData execute(ICommandHandler handler, DataPacket<Object> message, DeadlineGuard deadlineGuard) {
+        StageTimestamps timestamps = message.getTimestamps();
+        if (deadlineGuard != null && deadlineGuard.expired(timestamps, PipelineStage.PROCESS)) {
+            return null;
         }
-    }
-
-    private CommandResponse handleGetAllProducts() {
-        List<Product> products = warehouseService.getProducts();
-        return new CommandResponse(200, "Success", "Retrieved " + products.size() + " products" + "\n" + products);
-    }
-
-    private CommandResponse handleSearchProducts(SearchProducts data) {
-        ProductSearchFilters filters = new ProductSearchFilters(
-                data.name(),
-                data.groupId(),
-                data.minPrice(),
-                data.maxPrice(),
-                data.minQuantity(),
-                data.maxQuantity(),
-                data.page(),
-                data.pageSize()
-        );
-
-        SearchResult<Product> searchResult = warehouseService.searchProducts(filters);
-        SearchResult<Product> response = new SearchResult<>(
-                searchResult.getItems(),
-                searchResult.getTotalCount(),
-                searchResult.getCurrentPage(),
-                searchResult.getPageSize()
-        );
-
-        String message = String.format("Found %d products (page %d of %d)",
-                searchResult.getTotalCount(),
-                searchResult.getCurrentPage() + 1,
-                response.getTotalPages());
-
-        return new CommandResponse(200, "Success", message + "\n" + response);
-    }
-
-    // Group CRUD handlers
-    private CommandResponse handleCreateGroup(CreateGroup data) {
-        int id = warehouseService.createGroup(data.groupName());
-        if (id > 0) {
-            String message = String.format("Created group: %s (ID: %d)", data.groupName(), id);
-            System.out.println(message);
-            return new CommandResponse(201, "Created", message);
-        } else {
-            return new CommandResponse(400, "Error", "Failed to create group");
+        if (timestamps != null) {
+            timestamps.processStarted();
         }
-    }
-
-    private CommandResponse handleGetGroup(GetGroup data) {
-        Group group = warehouseService.getGroup(data.id());
-        if (group != null) {
-            return new CommandResponse(200, "Success", "Group found:\n " + group);
-        } else {
-            return new CommandResponse(404, "Not Found", "Group not found with ID: " + data.id());
+        CommandResponse response;
+        try {
+            response = handler.handle(message.getBody().getCommand(), message.getBody().getData());
+        } catch (Exception e) {
+            System.err.println("Error processing message: " + e.getMessage());
+            e.printStackTrace();
+            response = new CommandResponse(500, "Error", "An error occurred while processing data: " + e.getMessage());
         }
-    }
 
-    private CommandResponse handleUpdateGroup(UpdateGroup data) {
-        boolean success = warehouseService.setGroupName(data.id(), data.name());
-        if (success) {
-            Group updatedGroup = warehouseService.getGroup(data.id());
-            String message = String.format("Updated group (ID: %d): name=%s", data.id(), data.name());
-            System.out.println(message);
-            return new CommandResponse(200, "Success", message);
-        } else {
-            return new CommandResponse(404, "Not Found", "Group not found with ID: " + data.id());
+        RequestData data = new RequestData(message.getSourceId(), message.getPacketId(), message.getBody().getUserId(), response, message.getConnectionId(),
+                PacketFlags.forResponse(message.getFlags()));
+        if (timestamps != null) {
+            timestamps.processed();
+            data.setTimestamps(timestamps);
         }
+        return data;
     }
 
-    private CommandResponse handleDeleteGroup(DeleteGroup data) {
-        Group deletedGroup = warehouseService.removeGroup(data.id());
-        if (deletedGroup != null) {
-            String message = String.format("Deleted group: %s (ID: %d)", deletedGroup.name(), data.id());
-            System.out.println(message);
-            return new CommandResponse(200, "Success", message);
-        } else {
-            return new CommandResponse(404, "Not Found", "Group not found with ID: " + data.id());
+    private BlockingQueue<DataPacket<Object>> newWorkerQueue() {
+        if (lanes == null) {
+            return new ArrayBlockingQueue<>(PartitionedWorkers.QUEUE_CAPACITY);
         }
+        // Keyed by the routing key, a read queued behind a write on the same product cannot overtake it
+        return lanes.newQueue(PartitionedWorkers.QUEUE_CAPACITY, packet -> packet.getBody().getCommand(),
+                MySQLProductProcessor::routingKey);
     }
 
-    private CommandResponse handleGetAllGroups() {
-        List<Group> groups = warehouseService.getGroups();
-        return new CommandResponse(200, "Success", "Retrieved " + groups.size() + " groups" + "\n " + groups);
+    // Commands on one product or group share a key, so they run in order on one worker.
+    // Product-group links follow the product, batches and CLEAR_DB are barriers.
+    static long routingKey(DataPacket<Object> message) {
+        return switch (message.getBody().getCommand()) {
+            case IS_RUNNING -> PROBE;
+            case GET_ALL_PRODUCTS, SEARCH_PRODUCTS, GET_ALL_GROUPS -> SCAN;
+            case BATCH, CLEAR_DB -> BARRIER;
+            default -> entityKey(message.getBody().getData());
+        };
     }
 
-    // Product-Group relationship handlers
-    private CommandResponse handleAddProductToGroup(AddProductToGroup data) {
-        boolean success = warehouseService.addProductToGroup(data.groupId(), data.productId());
-        if (success) {
-            String message = String.format("Added product (ID: %d) to group (ID: %d)",
-                    data.productId(), data.groupId());
-            System.out.println(message);
-            return new CommandResponse(200, "Success", message);
-        } else {
-            return new CommandResponse(400, "Error",
-                    "Failed to add product to group. Check if both exist and product is not already in group.");
-        }
-    }
-
-    private CommandResponse handleRemoveProductFromGroup(RemoveProductFromGroup data) {
-        boolean success = warehouseService.removeProductFromGroup(data.groupId(), data.productId());
-        if (success) {
-            String message = String.format("Removed product (ID: %d) from group (ID: %d)",
-                    data.productId(), data.groupId());
-            System.out.println(message);
-            return new CommandResponse(200, "Success", message);
-        } else {
-            return new CommandResponse(400, "Error",
-                    "Failed to remove product from group. Check if both exist.");
-        }
+    private static long entityKey(Object data) {
+        return switch (data) {
+            case CreateProduct p -> productKey(Objects.hashCode(p.name()));
+            case GetProduct p -> productKey(p.id());
+            case UpdateProduct p -> productKey(p.id());
+            case DeleteProduct p -> productKey(p.id());
+            case GetProductGroups p -> productKey(p.productId());
+            case AddProductToGroup a -> productKey(a.productId());
+            case RemoveProductFromGroup r -> productKey(r.productId());
+
+            case CreateGroup g -> groupKey(Objects.hashCode(g.groupName()));
+            case GetGroup g -> groupKey(g.id());
+            case UpdateGroup g -> groupKey(g.id());
+            case DeleteGroup g -> groupKey(g.id());
+            case GetGroupProducts g -> groupKey(g.groupId());
+
+            case null, default -> BARRIER;
+        };
     }
 
-    private CommandResponse handleGetProductGroups(GetProductGroups data) {
-        List<Group> groups = warehouseService.getProductGroups(data.productId());
-        return new CommandResponse(200, "Success",
-                "Retrieved " + groups.size() + " groups for product ID: " + data.productId() + "\n " + groups);
+    private static long productKey(int id) {
+        return spread(id * 2L);
     }
 
-    private CommandResponse handleGetGroupProducts(GetGroupProducts data) {
-        List<Product> products = warehouseService.getGroupProducts(data.groupId());
-        return new CommandResponse(200, "Success",
-                "Retrieved " + products.size() + " products for group ID: " + data.groupId() + "\n " + products);
+    private static long groupKey(int id) {
+        return spread(id * 2L + 1);
     }
 
-    private <T> T convertValue(Object data, Class<T> clazz) {
-        return objectMapper.convertValue(data, clazz);
+    // Consecutive ids land on different workers, the result is never negative and so never one of the special keys
+    private static long spread(long key) {
+        return (key * 0x9E3779B97F4A7C15L) >>> 1;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,135 @@
+package com.github.rrin.implementation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+// Runs one pipeline stage on several threads. Items with the same key always land on the same worker,
+// so everything from one connection is handled in the order it was dispatched.
+public class PartitionedWorkers<T> {
+    static final int QUEUE_CAPACITY = 1024;
+
+    public interface Handler<T> {
+        void handle(T item) throws InterruptedException;
+    }
+
+    private final String name;
+    private final List<Handler<T>> handlers = new ArrayList<>();
+    private final List<BlockingQueue<T>> queues = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    // Dispatched but not yet handled items, awaitIdle() waits for this to drop to zero
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Object idleLock = new Object();
+
+    public PartitionedWorkers(String name, int workers, Handler<T> handler) {
+        this(name, workers, index -> handler);
+    }
+
+    // Every worker gets its own handler, for handlers that hold per-thread state like a DB connection
+    public PartitionedWorkers(String name, int workers, IntFunction<Handler<T>> handlerFactory) {
+        this(name, workers, handlerFactory, () -> new ArrayBlockingQueue<>(QUEUE_CAPACITY));
+    }
+
+    // Every worker also gets its own queue from the factory, for example a LaneQueue instead of a FIFO
+    public PartitionedWorkers(String name, int workers, IntFunction<Handler<T>> handlerFactory, Supplier<BlockingQueue<T>> queueFactory) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Worker count must be positive: " + workers);
+        }
+        this.name = name;
+        for (int i = 0; i < workers; i++) {
+            handlers.add(handlerFactory.apply(i));
+            queues.add(queueFactory.get());
+        }
+    }
+
+    public int size() {
+        return queues.size();
+    }
+
+    // Items wait here between dispatch and their handler, admission control and metrics watch them too
+    public List<BlockingQueue<T>> queues() {
+        return Collections.unmodifiableList(queues);
+    }
+
+    public void start() {
+        if (running.compareAndSet(false, true)) {
+            for (int i = 0; i < queues.size(); i++) {
+                BlockingQueue<T> queue = queues.get(i);
+                Handler<T> handler = handlers.get(i);
+                Thread thread = new Thread(() -> runWorker(queue, handler), name + "-" + i);
+                threads.add(thread);
+                thread.start();
+            }
+        }
+    }
+
+    public void stop() {
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        threads.clear();
+    }
+
+    public void dispatch(T item, long key) throws InterruptedException {
+        inFlight.incrementAndGet();
+        try {
+            queues.get(Math.floorMod(key, queues.size())).put(item);
+        } catch (InterruptedException e) {
+            finished();
+            throw e;
+        }
+    }
+
+    // A key that dispatches to the worker with the fewest queued items, for items that may run on any worker
+    public int leastLoaded() {
+        int index = 0;
+        for (int i = 1; i < queues.size(); i++) {
+            if (queues.get(i).size() < queues.get(index).size()) {
+                index = i;
+            }
+        }
+        return index;
+    }
+
+    // Blocks until every item dispatched so far has been handled
+    public void awaitIdle() throws InterruptedException {
+        synchronized (idleLock) {
+            while (inFlight.get() != 0) {
+                idleLock.wait();
+            }
+        }
+    }
+
+    private void runWorker(BlockingQueue<T> queue, Handler<T> handler) {
+        while (running.get()) {
+            try {
+                T item = queue.take();
+                try {
+                    handler.handle(item);
+                } finally {
+                    finished();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+
+    private void finished() {
+        if (inFlight.decrementAndGet() == 0) {
+            synchronized (idleLock) {
+                idleLock.notifyAll();
+            }
+        }
+    }
+}
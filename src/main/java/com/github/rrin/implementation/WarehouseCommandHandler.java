@@ -0,0 +1,382 @@
+package com.github.rrin.implementation;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.rrin.dto.*;
+import com.github.rrin.dto.AddProductToGroup;
+import com.github.rrin.dto.group.*;
+import com.github.rrin.dto.product.*;
+import com.github.rrin.implementation.db.WarehouseService;
+import com.github.rrin.interfaces.ICommandHandler;
+import com.github.rrin.util.CommandType;
+import com.github.rrin.util.ProductSearchFilters;
+import com.github.rrin.util.SearchResult;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+// Runs commands against one WarehouseService, so one instance must only be used by one thread at a time
+public class WarehouseCommandHandler implements ICommandHandler {
+    public static final CommandResponse RUNNING = new CommandResponse(200, "Success", "The server is running.");
+
+    // Run DDL, which MySQL commits implicitly, so a rollback could no longer undo the entries before them
+    private static final Set<CommandType> IMPLICIT_COMMIT = EnumSet.of(CommandType.CLEAR_DB);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final WarehouseService warehouseService;
+
+    public WarehouseCommandHandler(WarehouseService warehouseService) {
+        this.warehouseService = warehouseService;
+    }
+
+    @Override
+    public CommandResponse handle(CommandType command, Object data) {
+        return switch (command) {
+            // Product CRUD operations
+            case CREATE_PRODUCT -> {
+                CreateProduct p = convertValue(data, CreateProduct.class);
+                yield handleCreateProduct(p);
+            }
+            case GET_PRODUCT -> {
+                GetProduct p = convertValue(data, GetProduct.class);
+                yield handleGetProduct(p);
+            }
+            case UPDATE_PRODUCT -> {
+                UpdateProduct p = convertValue(data, UpdateProduct.class);
+                yield handleUpdateProduct(p);
+            }
+            case DELETE_PRODUCT -> {
+                DeleteProduct p = convertValue(data, DeleteProduct.class);
+                yield handleDeleteProduct(p);
+            }
+            case GET_ALL_PRODUCTS -> handleGetAllProducts();
+            case SEARCH_PRODUCTS -> {
+                SearchProducts s = convertValue(data, SearchProducts.class);
+                yield handleSearchProducts(s);
+            }
+
+            // Group CRUD operations
+            case CREATE_GROUP -> {
+                CreateGroup g = convertValue(data, CreateGroup.class);
+                yield handleCreateGroup(g);
+            }
+            case GET_GROUP -> {
+                GetGroup g = convertValue(data, GetGroup.class);
+                yield handleGetGroup(g);
+            }
+            case UPDATE_GROUP -> {
+                UpdateGroup g = convertValue(data, UpdateGroup.class);
+                yield handleUpdateGroup(g);
+            }
+            case DELETE_GROUP -> {
+                DeleteGroup g = convertValue(data, DeleteGroup.class);
+                yield handleDeleteGroup(g);
+            }
+            case GET_ALL_GROUPS -> handleGetAllGroups();
+
+            // Product-Group operations
+            case ADD_PRODUCT_TO_GROUP -> {
+                AddProductToGroup a = convertValue(data, AddProductToGroup.class);
+                yield handleAddProductToGroup(a);
+            }
+            case REMOVE_PRODUCT_FROM_GROUP -> {
+                RemoveProductFromGroup r = convertValue(data, RemoveProductFromGroup.class);
+                yield handleRemoveProductFromGroup(r);
+            }
+            case GET_PRODUCT_GROUPS -> {
+                GetProductGroups g = convertValue(data, GetProductGroups.class);
+                yield handleGetProductGroups(g);
+            }
+            case GET_GROUP_PRODUCTS -> {
+                GetGroupProducts g = convertValue(data, GetGroupProducts.class);
+                yield handleGetGroupProducts(g);
+            }
+
+            case IS_RUNNING -> {
+                IsRunning r = convertValue(data, IsRunning.class);
+                yield handleIsRunning(r);
+            }
+
+            case CLEAR_DB -> handleClearDatabase();
+
+            case BATCH -> {
+                Batch b = convertValue(data, Batch.class);
+                yield handleBatch(b);
+            }
+
+            default -> throw new IllegalStateException("Unexpected command type: " + command);
+        };
+    }
+
+    private CommandResponse handleBatch(Batch batch) {
+        List<BatchEntry> entries = batch.entries() == null ? List.of() : batch.entries();
+        List<CommandResponse> results = new ArrayList<>(entries.size());
+
+        if (batch.atomic()) {
+            try {
+                warehouseService.beginTransaction();
+            } catch (SQLException e) {
+                return new CommandResponse(500, "Error", "Could not start a transaction: " + e.getMessage());
+            }
+        }
+
+        int failed = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            CommandResponse result = processBatchEntry(entries.get(i), batch.atomic());
+            results.add(result);
+            if (result.statusCode() < 400) {
+                continue;
+            }
+
+            failed++;
+            if (batch.atomic()) {
+                warehouseService.rollbackTransaction();
+                return new CommandResponse(409, "Rolled Back",
+                        "Batch entry " + i + " failed, no changes were applied", results);
+            }
+        }
+
+        if (batch.atomic()) {
+            try {
+                warehouseService.commitTransaction();
+            } catch (SQLException e) {
+                warehouseService.rollbackTransaction();
+                return new CommandResponse(500, "Error", "Could not commit the batch: " + e.getMessage(), results);
+            }
+        }
+
+        String message = String.format("Executed %d commands, %d failed", entries.size(), failed);
+        return new CommandResponse(200, "Success", message, results);
+    }
+
+    private CommandResponse processBatchEntry(BatchEntry entry, boolean atomic) {
+        if (entry == null || entry.command() == null) {
+            return new CommandResponse(400, "Error", "Batch entry has no command");
+        }
+        if (entry.command() == CommandType.BATCH || entry.command() == CommandType.RESPONSE) {
+            return new CommandResponse(400, "Error", entry.command() + " is not allowed inside a batch");
+        }
+        if (atomic && IMPLICIT_COMMIT.contains(entry.command())) {
+            return new CommandResponse(400, "Error", entry.command() + " is not allowed inside an atomic batch");
+        }
+
+        try {
+            return handle(entry.command(), entry.data());
+        } catch (Exception e) {
+            return new CommandResponse(500, "Error", "An error occurred while processing data: " + e.getMessage());
+        }
+    }
+
+    private CommandResponse handleClearDatabase() {
+        warehouseService.clearDB();
+        return new CommandResponse(200, "Success", "DB was cleared.");
+    }
+
+    private CommandResponse handleIsRunning(IsRunning r) {
+        return RUNNING;
+    }
+
+    private CommandResponse handleCreateProduct(CreateProduct data) {
+        int id = warehouseService.createProduct(data.name(), data.price(), data.quantity());
+        if (id > 0) {
+            Product product = new Product(id, data.name(), data.price(), data.quantity());
+            String message = String.format("Created product: %s (ID: %d)", data.name(), id);
+            System.out.println(message);
+            return new CommandResponse(201, "Created", message);
+        } else {
+            return new CommandResponse(400, "Error", "Failed to create product");
+        }
+    }
+
+    private CommandResponse handleGetProduct(GetProduct data) {
+        Product product = warehouseService.getProduct(data.id());
+        if (product != null) {
+            return new CommandResponse(200, "Success", "Product found\n" + product);
+        } else {
+            return new CommandResponse(404, "Not Found", "Product not found with ID: " + data.id());
+        }
+    }
+
+    private CommandResponse handleUpdateProduct(UpdateProduct data) {
+        if (!warehouseService.doProductExist(data.id())) {
+            return new CommandResponse(404, "Not Found", "Product not found with ID: " + data.id());
+        }
+
+        boolean success = true;
+        StringBuilder message = new StringBuilder("Updated product (ID: " + data.id() + "): ");
+
+        if (data.name() != null) {
+            boolean nameUpdated = warehouseService.setProductName(data.id(), data.name());
+            success = success && nameUpdated;
+            if (nameUpdated) message.append("name=").append(data.name()).append(" ");
+        }
+
+        if (data.price() != null) {
+            boolean priceUpdated = warehouseService.setProductPrice(data.id(), data.price());
+            success = success && priceUpdated;
+            if (priceUpdated) message.append("price=").append(data.price()).append(" ");
+        }
+
+        if (data.quantity() != null) {
+            boolean quantityUpdated = warehouseService.setProductQuantities(data.id(), data.quantity());
+            success = success && quantityUpdated;
+            if (quantityUpdated) message.append("quantity=").append(data.quantity()).append(" ");
+        }
+
+        if (success) {
+            Product updatedProduct = warehouseService.getProduct(data.id());
+            System.out.println(message);
+            return new CommandResponse(200, "Success", message.toString() +"\n"+ updatedProduct);
+        } else {
+            return new CommandResponse(400, "Error", "Failed to update product");
+        }
+    }
+
+    private CommandResponse handleDeleteProduct(DeleteProduct data) {
+        Product deletedProduct = warehouseService.removeProduct(data.id());
+        if (deletedProduct != null) {
+            String message = String.format("Deleted product: %s (ID: %d)", deletedProduct.name(), data.id());
+            System.out.println(message);
+            return new CommandResponse(200, "Success", message);
+        } else {
+            return new CommandResponse(404, "Not Found", "Product not found with ID: " + data.id());
+        }
+    }
+
+    private CommandResponse handleGetAllProducts() {
+        List<Product> products = warehouseService.getProducts();
+        return new CommandResponse(200, "Success", "Retrieved " + products.size() + " products" + "\n" + products);
+    }
+
+    private CommandResponse handleSearchProducts(SearchProducts data) {
+        ProductSearchFilters filters = new ProductSearchFilters(
+                data.name(),
+                data.groupId(),
+                data.minPrice(),
+                data.maxPrice(),
+                data.minQuantity(),
+                data.maxQuantity(),
+                data.page(),
+                data.pageSize()
+        );
+
+        SearchResult<Product> searchResult = warehouseService.searchProducts(filters);
+        SearchResult<Product> response = new SearchResult<>(
+                searchResult.getItems(),
+                searchResult.getTotalCount(),
+                searchResult.getCurrentPage(),
+                searchResult.getPageSize()
+        );
+
+        String message = String.format("Found %d products (page %d of %d)",
+                searchResult.getTotalCount(),
+                searchResult.getCurrentPage() + 1,
+                response.getTotalPages());
+
+        return new CommandResponse(200, "Success", message + "\n" + response);
+    }
+
+    // Group CRUD handlers
+    private CommandResponse handleCreateGroup(CreateGroup data) {
+        int id = warehouseService.createGroup(data.groupName());
+        if (id > 0) {
+            String message = String.format("Created group: %s (ID: %d)", data.groupName(), id);
+            System.out.println(message);
+            return new CommandResponse(201, "Created", message);
+        } else {
+            return new CommandResponse(400, "Error", "Failed to create group");
+        }
+    }
+
+    private CommandResponse handleGetGroup(GetGroup data) {
+        Group group = warehouseService.getGroup(data.id());
+        if (group != null) {
+            return new CommandResponse(200, "Success", "Group found:\n " + group);
+        } else {
+            return new CommandResponse(404, "Not Found", "Group not found with ID: " + data.id());
+        }
+    }
+
+    private CommandResponse handleUpdateGroup(UpdateGroup data) {
+        boolean success = warehouseService.setGroupName(data.id(), data.name());
+        if (success) {
+            Group updatedGroup = warehouseService.getGroup(data.id());
+            String message = String.format("Updated group (ID: %d): name=%s", data.id(), data.name());
+            System.out.println(message);
+            return new CommandResponse(200, "Success", message);
+        } else {
+            return new CommandResponse(404, "Not Found", "Group not found with ID: " + data.id());
+        }
+    }
+
+    private CommandResponse handleDeleteGroup(DeleteGroup data) {
+        Group deletedGroup = warehouseService.removeGroup(data.id());
+        if (deletedGroup != null) {
+            String message = String.format("Deleted group: %s (ID: %d)", deletedGroup.name(), data.id());
+            System.out.println(message);
+            return new CommandResponse(200, "Success", message);
+        } else {
+            return new CommandResponse(404, "Not Found", "Group not found with ID: " + data.id());
+        }
+    }
+
+    private CommandResponse handleGetAllGroups() {
+        List<Group> groups = warehouseService.getGroups();
+        return new CommandResponse(200, "Success", "Retrieved " + groups.size() + " groups" + "\n " + groups);
+    }
+
+    // Product-Group relationship handlers
+    private CommandResponse handleAddProductToGroup(AddProductToGroup data) {
+        boolean success = warehouseService.addProductToGroup(data.groupId(), data.productId());
+        if (success) {
+            String message = String.format("Added product (ID: %d) to group (ID: %d)",
+                    data.productId(), data.groupId());
+            System.out.println(message);
+            return new CommandResponse(200, "Success", message);
+        } else {
+            return new CommandResponse(400, "Error",
+                    "Failed to add product to group. Check if both exist and product is not already in group.");
+        }
+    }
+
+    private CommandResponse handleRemoveProductFromGroup(RemoveProductFromGroup data) {
+        boolean success = warehouseService.removeProductFromGroup(data.groupId(), data.productId());
+        if (success) {
+            String message = String.format("Removed product (ID: %d) from group (ID: %d)",
+                    data.productId(), data.groupId());
+            System.out.println(message);
+            return new CommandResponse(200, "Success", message);
+        } else {
+            return new CommandResponse(400, "Error",
+                    "Failed to remove product from group. Check if both exist.");
+        }
+    }
+
+    private CommandResponse handleGetProductGroups(GetProductGroups data) {
+        List<Group> groups = warehouseService.getProductGroups(data.productId());
+        return new CommandResponse(200, "Success",
+                "Retrieved " + groups.size() + " groups for product ID: " + data.productId() + "\n " + groups);
+    }
+
+    private CommandResponse handleGetGroupProducts(GetGroupProducts data) {
+        List<Product> products = warehouseService.getGroupProducts(data.groupId());
+        return new CommandResponse(200, "Success",
+                "Retrieved " + products.size() + " products for group ID: " + data.groupId() + "\n " + products);
+    }
+
+    private <T> T convertValue(Object data, Class<T> clazz) {
+        // Payloads decoded through the registry are already the right record
+        if (clazz.isInstance(data)) {
+            return clazz.cast(data);
+        }
+        return objectMapper.convertValue(data, clazz);
+    }
+
+    @Override
+    public void close() throws IOException {
+        warehouseService.close();
+    }
+}
@@ -43,6 +43,11 @@ public class WarehouseService implements Closeable {
         }
     }
 
+    // For subclasses that bring their own storage, no schema is created
+    protected WarehouseService(IDatabaseManager databaseManager) {
+        this.databaseManager = databaseManager;
+    }
+
     private void init() throws SQLException {
         String createProductsTable = """
                 CREATE TABLE IF NOT EXISTS products (
@@ -553,6 +558,30 @@ public class WarehouseService implements Closeable {
         return false;
     }
 
+    // Everything run on this service until commit or rollback belongs to one transaction
+    public void beginTransaction() throws SQLException {
+        databaseManager.getConnection().setAutoCommit(false);
+    }
+
+    public void commitTransaction() throws SQLException {
+        Connection connection = databaseManager.getConnection();
+        try {
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    public void rollbackTransaction() {
+        Connection connection = databaseManager.getConnection();
+        try {
+            connection.rollback();
+            connection.setAutoCommit(true);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
     @Override
     public void close() throws IOException {
         databaseManager.close();
@@ -0,0 +1,80 @@
+package com.github.rrin.implementation.tcp;
+
+import com.github.rrin.util.OverflowPolicy;
+import com.github.rrin.util.data.FrameDecoder;
+import com.github.rrin.util.data.RawData;
+import com.github.rrin.util.data.StageQueue;
+import com.github.rrin.util.data.WaitStrategy;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// One accepted connection of the selector transport. Reads, decoding and socket writes happen only on
+// the owning event loop, other threads just add to the outbound queue and ask the loop to flush it.
+public class NioConnection {
+    final SocketChannel channel;
+    final NioEventLoop loop;
+    final FrameDecoder decoder;
+    // Filled by the NioTcpSender thread and, in FUSED mode, by a worker, drained by the loop
+    final BlockingQueue<RawData> outbound;
+    private final OverflowPolicy overflowPolicy;
+    // Set while the connection waits in its loop's flush queue, so a burst of responses wakes the loop once
+    final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+    SelectionKey key;
+    // Responses taken off the outbound queue but not fully written, the first one may be partly sent
+    final ArrayDeque<RawData> unsent = new ArrayDeque<>();
+    // A decoded request the pipeline queue had no room for. Reading is paused until the loop gets it in.
+    RawData stalledRequest;
+    // Set by DISCONNECT from a sending thread, the loop closes the connection on its next flush
+    volatile boolean closeRequested;
+    long id;
+
+    NioConnection(SocketChannel channel, NioEventLoop loop, int maxFrameSize, int outboundCapacity, OverflowPolicy overflowPolicy) {
+        this.channel = channel;
+        this.loop = loop;
+        this.decoder = new FrameDecoder(maxFrameSize);
+        this.outbound = new StageQueue<>(outboundCapacity, false, WaitStrategy.PARK);
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    // Queues a response for the event loop to write, the loop releases it once sent.
+    // Returns false when the outbound queue overflowed and the response was released unsent.
+    public boolean send(RawData data) throws InterruptedException {
+        if (!outbound.offer(data)) {
+            switch (overflowPolicy) {
+                case BLOCK -> outbound.put(data);
+                case DROP -> {
+                    System.err.println("Outbound queue of connection " + id + " is full, response dropped");
+                    data.release();
+                    return false;
+                }
+                case DISCONNECT -> {
+                    System.err.println("Outbound queue of connection " + id + " is full, disconnecting");
+                    data.release();
+                    closeRequested = true;
+                    loop.scheduleFlush(this);
+                    return false;
+                }
+            }
+        }
+        loop.scheduleFlush(this);
+        return true;
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,51 @@
+package com.github.rrin.implementation.tcp;
+
+import com.github.rrin.interfaces.IConnectionManager;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class NioConnectionManager implements IConnectionManager<NioConnection> {
+
+    private final ConcurrentHashMap<Long, NioConnection> activeConnections = new ConcurrentHashMap<>();
+    private final AtomicLong index = new AtomicLong(0);
+
+    public Long register(NioConnection connection) {
+        Long id = index.incrementAndGet();
+        connection.id = id;
+        activeConnections.put(id, connection);
+        return id;
+    }
+
+    public NioConnection get(Long id) {
+        return activeConnections.get(id);
+    }
+
+    public void remove(Long id) {
+        NioConnection connection = activeConnections.remove(id);
+        if (connection != null && connection.isOpen()) {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close connection: " + e.getMessage());
+            }
+        }
+    }
+
+    public void closeAll() {
+        for (NioConnection connection : activeConnections.values()) {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close connection: " + e.getMessage());
+            }
+        }
+        activeConnections.clear();
+    }
+
+    public boolean isConnected(Long id) {
+        NioConnection connection = activeConnections.get(id);
+        return connection != null && connection.isOpen();
+    }
+}
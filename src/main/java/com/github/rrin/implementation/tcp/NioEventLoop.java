@@ -0,0 +1,321 @@
+package com.github.rrin.implementation.tcp;
+
+import com.github.rrin.implementation.AdmissionController;
+import com.github.rrin.interfaces.IConnectionManager;
+import com.github.rrin.util.OverflowPolicy;
+import com.github.rrin.util.data.BufferPool;
+import com.github.rrin.util.data.QueueSink;
+import com.github.rrin.util.data.RawData;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Serves a share of the TCP connections on one thread: reads and decodes frames, and writes queued responses,
+// keeping OP_WRITE interest only while a connection has bytes the socket could not take yet
+public class NioEventLoop implements Runnable {
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_BATCH_RESPONSES = 64;
+    // How often a loop with stalled connections checks whether the pipeline queue has room again
+    private static final long STALL_RETRY_MILLIS = 1;
+
+    private final String name;
+    private final QueueSink<RawData> outputQueue;
+    private final IConnectionManager<NioConnection> connectionManager;
+    private final BufferPool bufferPool;
+    private final int maxFrameSize;
+    private final int outboundCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private final int writeBatchBytes;
+    private final WriteStats writeStats;
+    private final AdmissionController admissionController;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    // Only the loop thread touches the selector keys, other threads hand work over through these queues
+    private final Queue<SocketChannel> pendingRegistrations = new ConcurrentLinkedQueue<>();
+    private final Queue<NioConnection> pendingFlushes = new ConcurrentLinkedQueue<>();
+    // Every connection of this loop reads through it, the bytes are copied into the connection's decoder right away
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private final ByteBuffer[] writeBatch = new ByteBuffer[MAX_BATCH_RESPONSES];
+    // Connections whose reading is paused because the pipeline queue was full
+    private final ArrayDeque<NioConnection> stalled = new ArrayDeque<>();
+
+    private Selector selector;
+    private Thread loopThread;
+
+    public NioEventLoop(String name, QueueSink<RawData> outputQueue, IConnectionManager<NioConnection> connectionManager,
+                        BufferPool bufferPool, int maxFrameSize, int outboundCapacity, OverflowPolicy overflowPolicy,
+                        int writeBatchBytes, WriteStats writeStats, AdmissionController admissionController) {
+        this.name = name;
+        this.outputQueue = outputQueue;
+        this.connectionManager = connectionManager;
+        this.bufferPool = bufferPool;
+        this.maxFrameSize = maxFrameSize;
+        this.outboundCapacity = outboundCapacity;
+        this.overflowPolicy = overflowPolicy;
+        this.writeBatchBytes = writeBatchBytes;
+        this.writeStats = writeStats;
+        this.admissionController = admissionController;
+    }
+
+    public void start() throws IOException {
+        if (running.compareAndSet(false, true)) {
+            selector = Selector.open();
+            loopThread = new Thread(this, name);
+            loopThread.start();
+        }
+    }
+
+    public void stop() {
+        if (running.compareAndSet(true, false)) {
+            selector.wakeup();
+            loopThread.interrupt();
+            try {
+                loopThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Called from the accepting thread
+    public void register(SocketChannel channel) {
+        pendingRegistrations.offer(channel);
+        selector.wakeup();
+    }
+
+    void scheduleFlush(NioConnection connection) {
+        if (connection.flushScheduled.compareAndSet(false, true)) {
+            pendingFlushes.offer(connection);
+            selector.wakeup();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running.get()) {
+                if (stalled.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.select(STALL_RETRY_MILLIS);
+                }
+                registerPending();
+                flushPending();
+                resumeStalled();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    NioConnection connection = (NioConnection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            read(connection);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            flush(connection);
+                        }
+                    } catch (IOException e) {
+                        System.err.println("Error during connection: " + e.getMessage());
+                        close(connection);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running.get()) {
+                System.err.println(name + " failed: " + e.getMessage());
+            }
+        } finally {
+            closeAll();
+        }
+    }
+
+    private void registerPending() {
+        SocketChannel channel;
+        while ((channel = pendingRegistrations.poll()) != null) {
+            NioConnection connection = new NioConnection(channel, this, maxFrameSize, outboundCapacity, overflowPolicy);
+            try {
+                channel.configureBlocking(false);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                connectionManager.register(connection);
+            } catch (IOException e) {
+                System.err.println("Failed to register connection: " + e.getMessage());
+                close(connection);
+            }
+        }
+    }
+
+    private void flushPending() {
+        NioConnection connection;
+        while ((connection = pendingFlushes.poll()) != null) {
+            // Cleared before flushing, so a response queued meanwhile schedules another flush
+            connection.flushScheduled.set(false);
+            if (connection.closeRequested) {
+                close(connection);
+                continue;
+            }
+            if (connection.key == null || !connection.key.isValid()) {
+                discardOutbound(connection);
+                continue;
+            }
+            try {
+                flush(connection);
+            } catch (IOException e) {
+                System.err.println("Failed to send response to connection " + connection.id + ": " + e.getMessage());
+                close(connection);
+            }
+        }
+    }
+
+    private void read(NioConnection connection) throws IOException {
+        readBuffer.clear();
+        int bytesRead = connection.channel.read(readBuffer);
+        if (bytesRead == -1) {
+            // Client has disconnected
+            close(connection);
+            return;
+        }
+
+        connection.decoder.append(readBuffer.array(), 0, bytesRead);
+        queueFrames(connection);
+    }
+
+    // The loop never blocks on a full pipeline, it would stop writing responses too and the pipeline could
+    // not drain. The connection stops reading instead, its socket buffer fills and TCP pushes back on the client.
+    private void queueFrames(NioConnection connection) throws IOException {
+        ByteBuffer frame;
+        while ((frame = connection.decoder.nextFrame(bufferPool)) != null) {
+            RawData request = new RawData(frame, connection.id, bufferPool);
+            if ((admissionController == null || admissionController.admit(request)) && !outputQueue.offer(request)) {
+                connection.stalledRequest = request;
+                connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_READ);
+                stalled.addLast(connection);
+                return;
+            }
+        }
+    }
+
+    private void resumeStalled() {
+        for (int i = stalled.size(); i > 0; i--) {
+            NioConnection connection = stalled.pollFirst();
+            // Closed while it waited
+            if (connection.stalledRequest == null) {
+                continue;
+            }
+            if (!outputQueue.offer(connection.stalledRequest)) {
+                stalled.addLast(connection);
+                continue;
+            }
+            connection.stalledRequest = null;
+            connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_READ);
+            try {
+                queueFrames(connection);
+            } catch (IOException e) {
+                System.err.println("Error during connection: " + e.getMessage());
+                close(connection);
+            }
+        }
+    }
+
+    // Sends everything queued for the connection, each gathering write taking up to writeBatchBytes
+    private void flush(NioConnection connection) throws IOException {
+        while (true) {
+            int count = 0;
+            long bytes = 0;
+            for (RawData data : connection.unsent) {
+                if (count == MAX_BATCH_RESPONSES || bytes >= writeBatchBytes) {
+                    break;
+                }
+                writeBatch[count++] = data.buffer;
+                bytes += data.buffer.remaining();
+            }
+            while (count < MAX_BATCH_RESPONSES && bytes < writeBatchBytes) {
+                RawData data = connection.outbound.poll();
+                if (data == null) {
+                    break;
+                }
+                connection.unsent.addLast(data);
+                writeBatch[count++] = data.buffer;
+                bytes += data.buffer.remaining();
+            }
+            if (count == 0) {
+                connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_WRITE);
+                return;
+            }
+
+            long written = connection.channel.write(writeBatch, 0, count);
+            writeStats.recordWriteCall(written);
+            Arrays.fill(writeBatch, 0, count, null);
+
+            int sent = 0;
+            while (!connection.unsent.isEmpty() && !connection.unsent.peekFirst().buffer.hasRemaining()) {
+                connection.unsent.pollFirst().release();
+                sent++;
+            }
+            writeStats.recordResponses(sent);
+
+            if (written < bytes) {
+                // The socket buffer is full, finish once the selector reports the channel writable again
+                connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+    }
+
+    private void close(NioConnection connection) {
+        if (connection.key != null) {
+            connection.key.cancel();
+        }
+        if (connection.stalledRequest != null) {
+            connection.stalledRequest.release();
+            connection.stalledRequest = null;
+        }
+        try {
+            connection.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close connection: " + e.getMessage());
+        }
+        connectionManager.remove(connection.id);
+        discardOutbound(connection);
+    }
+
+    private void discardOutbound(NioConnection connection) {
+        RawData data;
+        while ((data = connection.unsent.poll()) != null) {
+            data.release();
+        }
+        while ((data = connection.outbound.poll()) != null) {
+            data.release();
+        }
+    }
+
+    private void closeAll() {
+        try {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof NioConnection connection) {
+                    close(connection);
+                }
+            }
+            selector.close();
+        } catch (IOException | ClosedSelectorException e) {
+            System.err.println("Failed to close selector: " + e.getMessage());
+        }
+        SocketChannel channel;
+        while ((channel = pendingRegistrations.poll()) != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.github.rrin.implementation.tcp;
+
+import com.github.rrin.implementation.AdmissionController;
+import com.github.rrin.interfaces.IConnectionManager;
+import com.github.rrin.interfaces.IReceiver;
+import com.github.rrin.util.OverflowPolicy;
+import com.github.rrin.util.data.BufferPool;
+import com.github.rrin.util.data.QueueSink;
+import com.github.rrin.util.data.RawData;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Accepts connections and deals them round-robin to a few selector event loops,
+// so the thread count stays fixed however many clients are connected
+public class NioTcpReceiver implements IReceiver, Runnable {
+
+    private final QueueSink<RawData> outputQueue;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final int port;
+    private final IConnectionManager<NioConnection> connectionManager;
+    private final List<NioEventLoop> eventLoops = new ArrayList<>();
+    private final WriteStats writeStats = new WriteStats();
+
+    private ServerSocketChannel socket;
+    private Thread acceptorThread;
+
+    public NioTcpReceiver(QueueSink<RawData> outputQueue, int port, IConnectionManager<NioConnection> connectionManager,
+                          int eventLoopCount, int maxFrameSize, BufferPool bufferPool) {
+        this(outputQueue, port, connectionManager, eventLoopCount, maxFrameSize, bufferPool,
+                TcpSocketManager.DEFAULT_OUTBOUND_CAPACITY, OverflowPolicy.DISCONNECT, TcpSocketManager.DEFAULT_WRITE_BATCH_BYTES, null);
+    }
+
+    public NioTcpReceiver(QueueSink<RawData> outputQueue, int port, IConnectionManager<NioConnection> connectionManager,
+                          int eventLoopCount, int maxFrameSize, BufferPool bufferPool, int outboundCapacity, OverflowPolicy overflowPolicy,
+                          int writeBatchBytes, AdmissionController admissionController) {
+        if (eventLoopCount < 1) {
+            throw new IllegalArgumentException("Event loop count must be positive: " + eventLoopCount);
+        }
+        this.outputQueue = outputQueue;
+        this.port = port;
+        this.connectionManager = connectionManager;
+        for (int i = 0; i < eventLoopCount; i++) {
+            eventLoops.add(new NioEventLoop("TcpEventLoop-" + i, outputQueue, connectionManager, bufferPool, maxFrameSize,
+                    outboundCapacity, overflowPolicy, writeBatchBytes, writeStats, admissionController));
+        }
+    }
+
+    @Override
+    public void start() {
+        if (running.compareAndSet(false, true)) {
+            try {
+                for (NioEventLoop eventLoop : eventLoops) {
+                    eventLoop.start();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            acceptorThread = new Thread(this, "TcpAcceptor");
+            acceptorThread.start();
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (running.compareAndSet(true, false)) {
+            try {
+                if (socket != null && socket.isOpen()) {
+                    socket.close();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+
+            for (NioEventLoop eventLoop : eventLoops) {
+                eventLoop.stop();
+            }
+            connectionManager.closeAll();
+
+            try {
+                if (acceptorThread != null) {
+                    acceptorThread.join();
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    public WriteStats getWriteStats() {
+        return writeStats;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    @Override
+    public void run() {
+        try {
+            this.socket = ServerSocketChannel.open();
+            socket.bind(new InetSocketAddress(port));
+
+            int next = 0;
+            while (running.get()) {
+                SocketChannel clientChannel = socket.accept();
+                clientChannel.socket().setTcpNoDelay(true);
+                eventLoops.get(next).register(clientChannel);
+                next = (next + 1) % eventLoops.size();
+            }
+        } catch (IOException e) {
+            if (running.get()) {
+                System.err.println("TcpAcceptor failed to listen on port " + port);
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.github.rrin.implementation.tcp;
+
+import com.github.rrin.interfaces.IConnectionManager;
+import com.github.rrin.interfaces.ISender;
+import com.github.rrin.util.data.RawData;
+import com.github.rrin.util.metrics.PipelineMetrics;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Routes encrypted responses to the outbound queue of their connection, the connection's event loop does the writing
+public class NioTcpSender implements ISender, Runnable {
+
+    private final BlockingQueue<RawData> inputQueue;
+    private final IConnectionManager<NioConnection> connectionManager;
+    private final PipelineMetrics metrics;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final AtomicLong droppedResponses = new AtomicLong();
+    private Thread senderThread;
+
+    public NioTcpSender(BlockingQueue<RawData> inputQueue, IConnectionManager<NioConnection> connectionManager) {
+        this(inputQueue, connectionManager, null);
+    }
+
+    public NioTcpSender(BlockingQueue<RawData> inputQueue, IConnectionManager<NioConnection> connectionManager, PipelineMetrics metrics) {
+        this.inputQueue = inputQueue;
+        this.connectionManager = connectionManager;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void start() {
+        if (running.compareAndSet(false, true)) {
+            senderThread = new Thread(this, "TcpSender");
+            senderThread.start();
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (running.compareAndSet(true, false)) {
+            if (senderThread != null) {
+                senderThread.interrupt();
+                try {
+                    senderThread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    public long getDroppedResponses() {
+        return droppedResponses.get();
+    }
+
+    @Override
+    public void run() {
+        while (running.get()) {
+            try {
+                send(inputQueue.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+
+    @Override
+    public void send(RawData response) throws InterruptedException {
+        NioConnection connection = connectionManager.get(response.connectionId);
+        if (connection == null || !connection.isOpen()) {
+            System.err.println("Connection " + response.connectionId + " is no longer available");
+            response.release();
+            return;
+        }
+        if (metrics != null) {
+            metrics.recordSent(response.timestamps);
+        }
+        if (!connection.send(response)) {
+            droppedResponses.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.github.rrin.implementation.tcp;
+
+import com.github.rrin.util.data.RawData;
+import com.github.rrin.util.data.StageQueue;
+import com.github.rrin.util.data.WaitStrategy;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// A blocking-socket connection with its own outbound queue and writer thread,
+// so a client that stops reading only delays its own responses
+class TcpConnection implements Runnable {
+    // Bounds the gathering write array, the byte budget usually ends a batch first
+    private static final int MAX_BATCH_RESPONSES = 64;
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    final long id;
+    final Socket socket;
+    // Filled by the TcpSender thread and, in FUSED mode, by a worker. Only the writer takes from it, StageQueue has a single consumer.
+    final BlockingQueue<RawData> outbound;
+    private final TcpSocketManager manager;
+    private final Thread writerThread;
+
+    TcpConnection(long id, Socket socket, int outboundCapacity, TcpSocketManager manager) {
+        this.id = id;
+        this.socket = socket;
+        this.outbound = new StageQueue<>(outboundCapacity, false, WaitStrategy.PARK);
+        this.manager = manager;
+        // Each writer spends its life blocked in take() or write(), which costs a virtual thread almost nothing
+        this.writerThread = Thread.ofVirtual().name("TcpWriter-" + id).unstarted(this);
+    }
+
+    void start() {
+        writerThread.start();
+    }
+
+    // Called from any thread. The writer releases whatever is still queued once it sees the socket closed.
+    void close() {
+        if (!socket.isClosed()) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close socket: " + e.getMessage());
+            }
+        }
+        writerThread.interrupt();
+    }
+
+    @Override
+    public void run() {
+        try {
+            writeLoop();
+        } finally {
+            // A response queued after this point is not returned to the pool, the garbage collector takes its buffer
+            RawData data;
+            while ((data = outbound.poll()) != null) {
+                data.release();
+            }
+        }
+    }
+
+    private void writeLoop() {
+        List<RawData> batch = new ArrayList<>();
+        ByteBuffer[] buffers = new ByteBuffer[MAX_BATCH_RESPONSES];
+        while (!socket.isClosed()) {
+            try {
+                collectBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                releaseAll(batch);
+                break;
+            }
+
+            try {
+                for (int i = 0; i < batch.size(); i++) {
+                    buffers[i] = batch.get(i).buffer;
+                }
+                write(buffers, batch.size());
+            } catch (IOException e) {
+                if (!socket.isClosed()) {
+                    System.err.println("Failed to send response to connection " + id + ": " + e.getMessage());
+                }
+                manager.remove(id);
+                break;
+            } finally {
+                Arrays.fill(buffers, null);
+                releaseAll(batch);
+            }
+        }
+    }
+
+    // Waits for one response, then adds whatever else is queued up to the byte budget,
+    // lingering up to the max delay for more when coalescing with a delay is enabled
+    private void collectBatch(List<RawData> batch) throws InterruptedException {
+        RawData first = outbound.take();
+        batch.add(first);
+        long bytes = first.buffer.remaining();
+
+        long maxDelayNanos = manager.getWriteMaxDelayNanos();
+        long deadline = System.nanoTime() + maxDelayNanos;
+        while (batch.size() < MAX_BATCH_RESPONSES && bytes < manager.getWriteBatchBytes()) {
+            RawData next = outbound.poll();
+            if (next == null && maxDelayNanos > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining > 0) {
+                    next = outbound.poll(remaining, TimeUnit.NANOSECONDS);
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+            bytes += next.buffer.remaining();
+        }
+    }
+
+    private static void releaseAll(List<RawData> batch) {
+        for (RawData data : batch) {
+            data.release();
+        }
+        batch.clear();
+    }
+
+    // One gathering write for the whole batch, repeated only while the socket takes part of it
+    private void write(ByteBuffer[] buffers, int count) throws IOException {
+        WriteStats stats = manager.getWriteStats();
+        SocketChannel channel = socket.getChannel();
+        if (channel != null) {
+            int first = 0;
+            while (first < count) {
+                stats.recordWriteCall(channel.write(buffers, first, count - first));
+                while (first < count && !buffers[first].hasRemaining()) {
+                    first++;
+                }
+            }
+            stats.recordResponses(count);
+            return;
+        }
+
+        BufferedOutputStream outputStream = new BufferedOutputStream(socket.getOutputStream(), STREAM_BUFFER_SIZE);
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            byte[] data = new byte[buffers[i].remaining()];
+            buffers[i].get(data);
+            outputStream.write(data);
+            total += data.length;
+        }
+        outputStream.flush();
+        stats.recordWriteCall(total);
+        stats.recordResponses(count);
+    }
+}
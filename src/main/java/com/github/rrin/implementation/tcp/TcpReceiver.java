@@ -1,39 +1,75 @@
 package com.github.rrin.implementation.tcp;
 
+import com.github.rrin.implementation.AdmissionController;
 import com.github.rrin.interfaces.IConnectionManager;
 import com.github.rrin.interfaces.IReceiver;
+import com.github.rrin.util.ReceiverMode;
+import com.github.rrin.util.data.BufferPool;
+import com.github.rrin.util.data.FrameDecoder;
+import com.github.rrin.util.data.QueueSink;
 import com.github.rrin.util.data.RawData;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.util.concurrent.BlockingQueue;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class TcpReceiver implements IReceiver, Runnable {
 
-    private final BlockingQueue<RawData> outputQueue;
+    private static final int READ_BUFFER_SIZE = 2048;
+
+    private final QueueSink<RawData> outputQueue;
     private final AtomicBoolean running = new AtomicBoolean(false);
     private final int port;
+    private final int maxFrameSize;
     private final IConnectionManager<Socket> socketManager;
+    private final BufferPool bufferPool;
+    private final ReceiverMode mode;
+    // Null admits every request
+    private final AdmissionController admissionController;
 
-    private ServerSocket socket;
+    private ServerSocketChannel socket;
     private Thread receiverThread;
     private ExecutorService clientHandlersPool;
 
-    public TcpReceiver(BlockingQueue<RawData> outputQueue, int port, IConnectionManager<Socket> socketManager) {
+    public TcpReceiver(QueueSink<RawData> outputQueue, int port, IConnectionManager<Socket> socketManager) {
+        this(outputQueue, port, socketManager, FrameDecoder.DEFAULT_MAX_FRAME_SIZE, new BufferPool());
+    }
+
+    public TcpReceiver(QueueSink<RawData> outputQueue, int port, IConnectionManager<Socket> socketManager, int maxFrameSize, BufferPool bufferPool) {
+        this(outputQueue, port, socketManager, maxFrameSize, bufferPool, ReceiverMode.PLATFORM_THREADS);
+    }
+
+    public TcpReceiver(QueueSink<RawData> outputQueue, int port, IConnectionManager<Socket> socketManager, int maxFrameSize, BufferPool bufferPool,
+                       ReceiverMode mode) {
+        this(outputQueue, port, socketManager, maxFrameSize, bufferPool, mode, null);
+    }
+
+    public TcpReceiver(QueueSink<RawData> outputQueue, int port, IConnectionManager<Socket> socketManager, int maxFrameSize, BufferPool bufferPool,
+                       ReceiverMode mode, AdmissionController admissionController) {
         this.outputQueue = outputQueue;
         this.port = port;
         this.socketManager = socketManager;
+        this.maxFrameSize = maxFrameSize;
+        this.bufferPool = bufferPool;
+        this.mode = mode;
+        this.admissionController = admissionController;
     }
 
     @Override
     public void start() {
         if (running.compareAndSet(false, true)) {
-            clientHandlersPool = Executors.newCachedThreadPool();
+            clientHandlersPool = switch (mode) {
+                case PLATFORM_THREADS -> Executors.newCachedThreadPool();
+                case VIRTUAL_THREADS -> Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("TcpConnection-", 0).factory());
+                case SELECTOR -> throw new IllegalStateException("Selector mode is served by NioTcpReceiver");
+            };
             receiverThread = new Thread(this, "TcpReceiver");
             receiverThread.start();
         }
@@ -43,7 +79,7 @@ public class TcpReceiver implements IReceiver, Runnable {
     public void stop() {
         if (running.compareAndSet(true, false)) {
             try {
-                if (socket != null && !socket.isClosed()) {
+                if (socket != null && socket.isOpen()) {
                     socket.close();
                 }
             } catch (IOException e) {
@@ -71,10 +107,15 @@ public class TcpReceiver implements IReceiver, Runnable {
     @Override
     public void run() {
         try {
-            this.socket = new ServerSocket(port);
+            // Sockets accepted through a channel can later be written from pooled direct buffers
+            this.socket = ServerSocketChannel.open();
+            socket.bind(new InetSocketAddress(port));
 
             while (running.get()) {
-                Socket clientSocket = socket.accept();
+                SocketChannel clientChannel = socket.accept();
+                Socket clientSocket = clientChannel.socket();
+                // Writers coalesce responses themselves, Nagle would only hold the last one of a batch back
+                clientSocket.setTcpNoDelay(true);
                 long connId = socketManager.register(clientSocket);
                 clientHandlersPool.submit(() -> createClientConnection(clientSocket, connId));
             }
@@ -85,30 +126,39 @@ public class TcpReceiver implements IReceiver, Runnable {
         }
     }
 
+    // Runs on a virtual thread in VIRTUAL_THREADS mode: blocking here must stay on NIO and j.u.c. locks,
+    // a synchronized block around a read or put would pin the carrier thread
     private void createClientConnection(Socket clientSocket, long connId) {
+        FrameDecoder decoder = new FrameDecoder(maxFrameSize);
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+
         try {
+            InputStream inputStream = clientSocket.getInputStream();
             while (running.get() && !clientSocket.isClosed()) {
-                InputStream inputStream = clientSocket.getInputStream();
-                byte[] buffer = new byte[2048];
                 int bytesRead = inputStream.read(buffer);
 
-                if (bytesRead > 0) {
-                    byte[] data = new byte[bytesRead];
-                    System.arraycopy(buffer, 0, data, 0, bytesRead);
-
-                    try {
-                        outputQueue.put(new RawData(data, connId));
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        break;
-                    }
-                } else if (bytesRead == -1) {
+                if (bytesRead == -1) {
                     // Client has disconnected
                     break;
                 }
+
+                decoder.append(buffer, 0, bytesRead);
+
+                ByteBuffer frame;
+                while ((frame = decoder.nextFrame(bufferPool)) != null) {
+                    RawData request = new RawData(frame, connId, bufferPool);
+                    if (admissionController == null || admissionController.admit(request)) {
+                        outputQueue.put(request);
+                    }
+                }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (IOException e) {
-            System.err.println("Error during connection: " + e.getMessage());
+            // stop() closes every socket, the reads failing on that are expected
+            if (running.get()) {
+                System.err.println("Error during connection: " + e.getMessage());
+            }
         } finally {
             socketManager.remove(connId);
         }
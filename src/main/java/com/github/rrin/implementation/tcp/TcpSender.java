@@ -1,26 +1,28 @@
 package com.github.rrin.implementation.tcp;
 
-import com.github.rrin.interfaces.IConnectionManager;
 import com.github.rrin.interfaces.ISender;
-import com.github.rrin.util.Converter;
 import com.github.rrin.util.data.RawData;
+import com.github.rrin.util.metrics.PipelineMetrics;
 
-import java.io.IOException;
-import java.io.OutputStream;
-import java.net.Socket;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class TcpSender implements ISender, Runnable {
 
     private final BlockingQueue<RawData> inputQueue;
-    private final IConnectionManager<Socket> socketManager;
+    private final TcpSocketManager socketManager;
+    private final PipelineMetrics metrics;
     private final AtomicBoolean running = new AtomicBoolean(false);
     private Thread senderThread;
 
-    public TcpSender(BlockingQueue<RawData> inputQueue, IConnectionManager<Socket> socketManager) {
+    public TcpSender(BlockingQueue<RawData> inputQueue, TcpSocketManager socketManager) {
+        this(inputQueue, socketManager, null);
+    }
+
+    public TcpSender(BlockingQueue<RawData> inputQueue, TcpSocketManager socketManager, PipelineMetrics metrics) {
         this.inputQueue = inputQueue;
         this.socketManager = socketManager;
+        this.metrics = metrics;
     }
 
     @Override
@@ -54,8 +56,7 @@ public class TcpSender implements ISender, Runnable {
     public void run() {
         while (running.get()) {
             try {
-                RawData responseData = inputQueue.take();
-                sendResponse(responseData);
+                send(inputQueue.take());
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 break;
@@ -63,22 +64,12 @@ public class TcpSender implements ISender, Runnable {
         }
     }
 
-    private void sendResponse(RawData responseData) {
-        Socket socket = socketManager.get(responseData.connectionId);
-
-        if (socket == null || socket.isClosed()) {
-            System.err.println("Connection " + responseData.connectionId + " is no longer available");
-            return;
-        }
-
-        try {
-            OutputStream outputStream = socket.getOutputStream();
-            outputStream.write(responseData.data);
-            outputStream.flush();
-            System.out.println("Sent response to: " + socket.getInetAddress() + ":" + socket.getPort() +" with data: " + Converter.bytesToHex(responseData.data));
-        } catch (IOException e) {
-            System.err.println("Failed to send response to connection " + responseData.connectionId + ": " + e.getMessage());
-            socketManager.remove(responseData.connectionId);
+    @Override
+    public void send(RawData response) throws InterruptedException {
+        if (metrics != null) {
+            metrics.recordSent(response.timestamps);
         }
+        // Only queues the response, the connection's own writer does the blocking write
+        socketManager.send(response.connectionId, response);
     }
 }
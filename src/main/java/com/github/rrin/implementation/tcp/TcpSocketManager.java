@@ -1,53 +1,125 @@
 package com.github.rrin.implementation.tcp;
 
 import com.github.rrin.interfaces.IConnectionManager;
+import com.github.rrin.util.OverflowPolicy;
+import com.github.rrin.util.data.RawData;
 
-import java.io.IOException;
 import java.net.Socket;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class TcpSocketManager implements IConnectionManager<Socket> {
+    public static final int DEFAULT_OUTBOUND_CAPACITY = 256;
+    public static final int DEFAULT_WRITE_BATCH_BYTES = 64 * 1024;
+    private static final long BLOCK_RECHECK_MILLIS = 100;
 
-    private final ConcurrentHashMap<Long, Socket> activeConnections = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, TcpConnection> activeConnections = new ConcurrentHashMap<>();
     private final AtomicLong index = new AtomicLong(0);
+    private final AtomicLong droppedResponses = new AtomicLong();
+    private final int outboundCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private final int writeBatchBytes;
+    private final long writeMaxDelayNanos;
+    private final WriteStats writeStats = new WriteStats();
+
+    public TcpSocketManager() {
+        this(DEFAULT_OUTBOUND_CAPACITY, OverflowPolicy.DISCONNECT);
+    }
+
+    public TcpSocketManager(int outboundCapacity, OverflowPolicy overflowPolicy) {
+        this(outboundCapacity, overflowPolicy, DEFAULT_WRITE_BATCH_BYTES, 0);
+    }
+
+    // Responses already queued for a connection go out in one write of up to writeBatchBytes,
+    // a positive max delay also lets the writer wait that long for more before writing
+    public TcpSocketManager(int outboundCapacity, OverflowPolicy overflowPolicy, int writeBatchBytes, long writeMaxDelayNanos) {
+        this.outboundCapacity = outboundCapacity;
+        this.overflowPolicy = overflowPolicy;
+        this.writeBatchBytes = writeBatchBytes;
+        this.writeMaxDelayNanos = writeMaxDelayNanos;
+    }
 
     public Long register(Socket socket) {
         Long id = index.incrementAndGet();
-        activeConnections.put(id, socket);
+        TcpConnection connection = new TcpConnection(id, socket, outboundCapacity, this);
+        activeConnections.put(id, connection);
+        connection.start();
         return id;
     }
 
     public Socket get(Long id) {
-        return activeConnections.get(id);
+        TcpConnection connection = activeConnections.get(id);
+        return connection != null ? connection.socket : null;
     }
 
-    public void remove(Long id) {
-        Socket socket = activeConnections.remove(id);
-        if (socket != null && !socket.isClosed()) {
-            try {
-                socket.close();
-            } catch (IOException e) {
-                System.err.println("Failed to close socket: " + e.getMessage());
+    // Hands a response to the connection's writer, returns false if it was dropped or the connection is gone.
+    // The data is released either way.
+    public boolean send(Long id, RawData data) throws InterruptedException {
+        TcpConnection connection = activeConnections.get(id);
+        if (connection == null || connection.socket.isClosed()) {
+            System.err.println("Connection " + id + " is no longer available");
+            data.release();
+            return false;
+        }
+        if (connection.outbound.offer(data)) {
+            return true;
+        }
+
+        switch (overflowPolicy) {
+            case BLOCK -> {
+                // Nobody drains the queue of a closed connection, so the wait gives up once the socket is gone
+                while (!connection.outbound.offer(data, BLOCK_RECHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                    if (connection.socket.isClosed()) {
+                        data.release();
+                        return false;
+                    }
+                }
+                return true;
+            }
+            case DROP -> System.err.println("Outbound queue of connection " + id + " is full, response dropped");
+            case DISCONNECT -> {
+                System.err.println("Outbound queue of connection " + id + " is full, disconnecting");
+                remove(id);
             }
         }
+        droppedResponses.incrementAndGet();
+        data.release();
+        return false;
+    }
+
+    public WriteStats getWriteStats() {
+        return writeStats;
+    }
+
+    int getWriteBatchBytes() {
+        return writeBatchBytes;
+    }
+
+    long getWriteMaxDelayNanos() {
+        return writeMaxDelayNanos;
+    }
+
+    public long getDroppedResponses() {
+        return droppedResponses.get();
+    }
+
+    public void remove(Long id) {
+        TcpConnection connection = activeConnections.remove(id);
+        if (connection != null) {
+            connection.close();
+        }
     }
 
     public void closeAll() {
-        for (Socket socket : activeConnections.values()) {
-            try {
-                if (!socket.isClosed()) {
-                    socket.close();
-                }
-            } catch (IOException e) {
-                System.err.println("Failed to close socket: " + e.getMessage());
-            }
+        for (TcpConnection connection : activeConnections.values()) {
+            connection.close();
         }
         activeConnections.clear();
     }
 
     public boolean isConnected(Long id) {
-        Socket socket = activeConnections.get(id);
-        return socket != null && socket.isConnected();
+        TcpConnection connection = activeConnections.get(id);
+        return connection != null && connection.socket.isConnected();
     }
 }
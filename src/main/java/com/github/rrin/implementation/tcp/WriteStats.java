@@ -0,0 +1,37 @@
+package com.github.rrin.implementation.tcp;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Socket write counters of one transport, updated by every writer thread or event loop
+public class WriteStats {
+    private final LongAdder writeCalls = new LongAdder();
+    private final LongAdder responses = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+
+    void recordWriteCall(long bytesWritten) {
+        writeCalls.increment();
+        bytes.add(bytesWritten);
+    }
+
+    void recordResponses(int count) {
+        responses.add(count);
+    }
+
+    public long getWriteCalls() {
+        return writeCalls.sum();
+    }
+
+    public long getResponses() {
+        return responses.sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    // 1.0 without coalescing, lower the more responses share a gathering write
+    public double writeCallsPerResponse() {
+        long sent = getResponses();
+        return sent == 0 ? 0 : (double) getWriteCalls() / sent;
+    }
+}
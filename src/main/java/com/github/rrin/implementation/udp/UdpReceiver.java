@@ -1,60 +1,125 @@
 package com.github.rrin.implementation.udp;
 
+import com.github.rrin.implementation.AdmissionController;
 import com.github.rrin.interfaces.IConnectionManager;
 import com.github.rrin.interfaces.IReceiver;
-import com.github.rrin.util.Converter;
+import com.github.rrin.util.data.BufferPool;
+import com.github.rrin.util.data.QueueSink;
 import com.github.rrin.util.data.RawData;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.*;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
-public class UdpReceiver implements IReceiver, Runnable {
+// One blocking receive loop per channel, each datagram lands in a pooled direct buffer and goes straight to the queue.
+// Nothing is logged per datagram, at flood rates the console would cost more than the receive itself.
+public class UdpReceiver implements IReceiver {
 
-    private final BlockingQueue<RawData> outputQueue;
+    private final QueueSink<RawData> outputQueue;
     private final AtomicBoolean running = new AtomicBoolean(false);
-    private final IConnectionManager<DatagramPacket> packetManager;
+    private final IConnectionManager<InetSocketAddress> packetManager;
+    private final BufferPool bufferPool;
+    // Null admits every request
+    private final AdmissionController admissionController;
+
+    private final List<DatagramChannel> channels;
+    private final List<Thread> receiverThreads = new ArrayList<>();
+    private final LongAdder receivedDatagrams = new LongAdder();
+    private final LongAdder truncatedDatagrams = new LongAdder();
+
+    public UdpReceiver(QueueSink<RawData> outputQueue, IConnectionManager<InetSocketAddress> packetManager, DatagramChannel channel, BufferPool bufferPool) {
+        this(outputQueue, packetManager, channel, bufferPool, null);
+    }
 
-    private final DatagramSocket socket;
-    private Thread receiverThread;
-    private ExecutorService clientHandlersPool;
+    public UdpReceiver(QueueSink<RawData> outputQueue, IConnectionManager<InetSocketAddress> packetManager, DatagramChannel channel, BufferPool bufferPool,
+                       AdmissionController admissionController) {
+        this(outputQueue, packetManager, List.of(channel), bufferPool, admissionController);
+    }
 
-    public UdpReceiver(BlockingQueue<RawData> outputQueue, IConnectionManager<DatagramPacket> packetManager, DatagramSocket socket) {
+    // Every channel gets its own thread, the output queue must then take several producers
+    public UdpReceiver(QueueSink<RawData> outputQueue, IConnectionManager<InetSocketAddress> packetManager, List<DatagramChannel> channels,
+                       BufferPool bufferPool, AdmissionController admissionController) {
         this.outputQueue = outputQueue;
-        this.socket = socket;
+        this.channels = List.copyOf(channels);
         this.packetManager = packetManager;
+        this.bufferPool = bufferPool;
+        this.admissionController = admissionController;
+    }
+
+    // Binds count channels to one address. All but the first need SO_REUSEPORT, the kernel then spreads clients over them
+    // by address, so one client's datagrams still arrive in order on one channel. Where it is missing only one channel is opened.
+    public static List<DatagramChannel> openChannels(InetSocketAddress address, int count) throws IOException {
+        List<DatagramChannel> channels = new ArrayList<>();
+        try {
+            DatagramChannel first = DatagramChannel.open();
+            channels.add(first);
+            boolean reusePort = count > 1 && first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+            if (count > 1 && !reusePort) {
+                System.err.println("SO_REUSEPORT is not supported, receiving UDP on a single channel");
+            }
+            if (reusePort) {
+                first.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            first.bind(address);
+
+            // Port 0 is resolved by the first bind, the others join whatever port it got
+            SocketAddress bound = first.getLocalAddress();
+            for (int i = 1; reusePort && i < count; i++) {
+                DatagramChannel channel = DatagramChannel.open();
+                channels.add(channel);
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                channel.bind(bound);
+            }
+            return channels;
+        } catch (IOException e) {
+            for (DatagramChannel channel : channels) {
+                channel.close();
+            }
+            throw e;
+        }
     }
 
     @Override
     public void start() {
         if (running.compareAndSet(false, true)) {
-            clientHandlersPool = Executors.newCachedThreadPool();
-            receiverThread = new Thread(this, "UdpReceiver");
-            receiverThread.start();
+            for (int i = 0; i < channels.size(); i++) {
+                DatagramChannel channel = channels.get(i);
+                Thread thread = new Thread(() -> receive(channel), channels.size() == 1 ? "UdpReceiver" : "UdpReceiver-" + i);
+                receiverThreads.add(thread);
+                thread.start();
+            }
+            System.out.println("UdpReceiver started on " + channels.size() + " channel(s)");
         }
     }
 
     @Override
     public void stop() {
         if (running.compareAndSet(true, false)) {
-            if (socket != null && !socket.isClosed()) {
-                socket.close();
+            for (DatagramChannel channel : channels) {
+                try {
+                    if (channel.isOpen()) {
+                        channel.close();
+                    }
+                } catch (IOException e) {
+                    System.err.println("Failed to close UDP channel: " + e.getMessage());
+                }
             }
 
-            clientHandlersPool.shutdownNow();
             packetManager.closeAll();
 
             try {
-                if (receiverThread != null) {
-                    receiverThread.join();
+                for (Thread thread : receiverThreads) {
+                    thread.join();
                 }
             } catch (InterruptedException e) {
                 throw new RuntimeException(e);
             }
+            receiverThreads.clear();
         }
     }
 
@@ -63,27 +128,41 @@ public class UdpReceiver implements IReceiver, Runnable {
         return running.get();
     }
 
-    @Override
-    public void run() {
-        byte[] buffer = new byte[2048];
+    public int getChannelCount() {
+        return channels.size();
+    }
 
-        while (running.get() && !socket.isClosed()) {
-            try {
-                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                socket.receive(packet);
+    public long getReceivedDatagrams() {
+        return receivedDatagrams.sum();
+    }
 
-                long id = packetManager.register(packet);
+    // Datagrams that filled the whole receive buffer and were dropped, part of them may have been cut off
+    public long getTruncatedDatagrams() {
+        return truncatedDatagrams.sum();
+    }
 
-                // Extract the actual data from the packet
-                byte[] receivedData = new byte[packet.getLength()];
-                System.arraycopy(packet.getData(), packet.getOffset(), receivedData, 0, packet.getLength());
+    private void receive(DatagramChannel channel) {
+        while (running.get() && channel.isOpen()) {
+            ByteBuffer buffer = bufferPool.acquire();
+            try {
+                InetSocketAddress address = (InetSocketAddress) channel.receive(buffer);
+                receivedDatagrams.increment();
+                // The kernel silently cuts a datagram to the space left, a full buffer may hold only the start of one
+                if (!buffer.hasRemaining()) {
+                    bufferPool.release(buffer);
+                    dropTruncated(address);
+                    continue;
+                }
+                buffer.flip();
 
-                System.out.println("Received packet from " + packet.getAddress() + ":" + packet.getPort() + " (" + receivedData.length + " bytes)");
-                System.out.println("Data received: " + Converter.bytesToHex(receivedData));
-                outputQueue.put(new RawData(receivedData, id));
+                long id = packetManager.register(address);
+                RawData request = new RawData(buffer, id, bufferPool);
+                if (admissionController == null || admissionController.admit(request)) {
+                    outputQueue.put(request);
+                }
 
-            } catch (SocketTimeoutException ignored) {
             } catch (IOException e) {
+                bufferPool.release(buffer);
                 if (running.get()) {
                     System.err.println("Error receiving data: " + e.getMessage());
                 }
@@ -93,4 +172,14 @@ public class UdpReceiver implements IReceiver, Runnable {
             }
         }
     }
+
+    // Logged on the 1st, 2nd, 4th, 8th... drop, so a client that keeps sending oversized requests cannot flood the log
+    private void dropTruncated(InetSocketAddress address) {
+        truncatedDatagrams.increment();
+        long dropped = truncatedDatagrams.sum();
+        if (Long.bitCount(dropped) == 1) {
+            System.err.println("Dropped " + dropped + " UDP datagram(s) of " + bufferPool.getBufferSize()
+                    + " bytes or more, the latest from " + address + ". Raise the buffer size or send large requests over TCP.");
+        }
+    }
 }
@@ -2,30 +2,34 @@ package com.github.rrin.implementation.udp;
 
 import com.github.rrin.interfaces.IConnectionManager;
 import com.github.rrin.interfaces.ISender;
-import com.github.rrin.util.Converter;
 import com.github.rrin.util.data.RawData;
+import com.github.rrin.util.metrics.PipelineMetrics;
 
 import java.io.IOException;
-import java.io.OutputStream;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class UdpSender implements ISender, Runnable {
 
     private final BlockingQueue<RawData> inputQueue;
-    private final IConnectionManager<DatagramPacket> socketManager;
+    private final IConnectionManager<InetSocketAddress> socketManager;
     private final AtomicBoolean running = new AtomicBoolean(false);
     private Thread senderThread;
-    private DatagramSocket socket;
+    private final DatagramChannel channel;
+    private final PipelineMetrics metrics;
 
-    public UdpSender(BlockingQueue<RawData> inputQueue, IConnectionManager<DatagramPacket> socketManager, DatagramSocket socket) {
+    public UdpSender(BlockingQueue<RawData> inputQueue, IConnectionManager<InetSocketAddress> socketManager, DatagramChannel channel) {
+        this(inputQueue, socketManager, channel, null);
+    }
+
+    public UdpSender(BlockingQueue<RawData> inputQueue, IConnectionManager<InetSocketAddress> socketManager, DatagramChannel channel,
+                     PipelineMetrics metrics) {
         this.inputQueue = inputQueue;
         this.socketManager = socketManager;
-        this.socket = socket;
+        this.channel = channel;
+        this.metrics = metrics;
     }
 
     @Override
@@ -59,8 +63,7 @@ public class UdpSender implements ISender, Runnable {
     public void run() {
         while (running.get()) {
             try {
-                RawData responseData = inputQueue.take();
-                sendResponse(responseData);
+                send(inputQueue.take());
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 break;
@@ -68,33 +71,27 @@ public class UdpSender implements ISender, Runnable {
         }
     }
 
-    private void sendResponse(RawData responseData) {
-        DatagramPacket clientPacket = socketManager.get(responseData.connectionId);
-
-        if (clientPacket == null) {
-            System.err.println("UDP packet with ID " + responseData.connectionId + " is no longer available");
-            return;
-        }
-
+    @Override
+    public void send(RawData responseData) {
         try {
-            InetAddress clientAddress = clientPacket.getAddress();
-            int clientPort = clientPacket.getPort();
+            InetSocketAddress clientAddress = socketManager.get(responseData.connectionId);
 
-            DatagramPacket responsePacket = new DatagramPacket(
-                    responseData.data,
-                    responseData.data.length,
-                    clientAddress,
-                    clientPort
-            );
-
-            socket.send(responsePacket);
-
-            System.out.println("Sent UDP response to: " + clientAddress + ":" + clientPort +
-                    " with data: " + Converter.bytesToHex(responseData.data));
+            if (clientAddress == null) {
+                System.err.println("UDP packet with ID " + responseData.connectionId + " is no longer available");
+                return;
+            }
 
-        } catch (IOException e) {
-            System.err.println("Failed to send UDP response to connection " + responseData.connectionId + ": " + e.getMessage());
-            socketManager.remove(responseData.connectionId);
+            if (metrics != null) {
+                metrics.recordSent(responseData.timestamps);
+            }
+            try {
+                channel.send(responseData.buffer, clientAddress);
+            } catch (IOException e) {
+                System.err.println("Failed to send UDP response to connection " + responseData.connectionId + ": " + e.getMessage());
+                socketManager.remove(responseData.connectionId);
+            }
+        } finally {
+            responseData.release();
         }
     }
 }
@@ -1,35 +1,230 @@
 package com.github.rrin.implementation.udp;
 
 import com.github.rrin.interfaces.IConnectionManager;
+import com.github.rrin.util.data.LongObjectMap;
 
-import java.net.DatagramPacket;
-import java.util.concurrent.ConcurrentHashMap;
+import java.net.Inet4Address;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
-public class UdpSocketManager implements IConnectionManager<DatagramPacket> {
+// Session table of the UDP clients, one entry per client address. A datagram from a known address refreshes its
+// session instead of adding one, so the id stays the same across requests. Sessions idle for longer than the TTL
+// are swept out, and once maxSessions are live the least recently seen eighth goes to make room.
+// The TTL has to outlast the slowest request, a response whose session is gone cannot be sent.
+// The table is split into stripes with a lock each, so receivers on different channels rarely wait for one another.
+public class UdpSocketManager implements IConnectionManager<InetSocketAddress> {
+    public static final long DEFAULT_TTL_MILLIS = 60_000;
+    public static final int DEFAULT_MAX_SESSIONS = 65_536;
 
-    private final ConcurrentHashMap<Long, DatagramPacket> activeConnections = new ConcurrentHashMap<>();
-    private final AtomicLong index = new AtomicLong(0);
+    private static final int STRIPES = 16;
+    // Above every bit stripeIndex reads, so a colliding id probes within its own stripe
+    private static final long PROBE_STEP = (long) STRIPES << 32;
 
-    public Long register(DatagramPacket packet) {
-        Long id = index.incrementAndGet();
-        activeConnections.put(id, packet);
+    private static final class Session {
+        final InetSocketAddress address;
+        // Guarded by the stripe
+        long lastSeen;
+
+        Session(InetSocketAddress address, long lastSeen) {
+            this.address = address;
+            this.lastSeen = lastSeen;
+        }
+    }
+
+    // Each stripe's table is guarded by the stripe itself
+    private final LongObjectMap<Session>[] stripes;
+    private final AtomicInteger size = new AtomicInteger();
+    private final long ttlNanos;
+    private final int maxSessions;
+    private final AtomicLong nextSweep;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public UdpSocketManager() {
+        this(DEFAULT_TTL_MILLIS, DEFAULT_MAX_SESSIONS);
+    }
+
+    @SuppressWarnings("unchecked")
+    public UdpSocketManager(long ttlMillis, int maxSessions) {
+        if (ttlMillis < 1 || maxSessions < 1) {
+            throw new IllegalArgumentException("Session TTL and limit must be positive: " + ttlMillis + ", " + maxSessions);
+        }
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.maxSessions = maxSessions;
+        this.nextSweep = new AtomicLong(System.nanoTime() + ttlNanos / 2);
+        this.stripes = new LongObjectMap[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new LongObjectMap<>();
+        }
+    }
+
+    // Called by the receivers for every datagram. With several receivers the table can pass maxSessions by
+    // one session per receiver that misses at the same moment.
+    public Long register(InetSocketAddress address) {
+        long now = System.nanoTime();
+        long sweep = nextSweep.get();
+        if (now - sweep >= 0 && nextSweep.compareAndSet(sweep, now + ttlNanos / 2)) {
+            evictIdle(now);
+        }
+
+        long firstId = idOf(address);
+        LongObjectMap<Session> sessions = stripes[stripeIndex(firstId)];
+        synchronized (sessions) {
+            long id = refresh(sessions, firstId, address, now);
+            if (sessions.containsKey(id)) {
+                hits.increment();
+                return id;
+            }
+        }
+
+        // Making room locks every stripe in turn, so it runs before this one is taken again
+        if (size.get() >= maxSessions) {
+            evictIdle(now);
+            if (size.get() >= maxSessions) {
+                evictLeastRecent();
+            }
+        }
+        synchronized (sessions) {
+            long id = refresh(sessions, firstId, address, now);
+            if (!sessions.containsKey(id)) {
+                sessions.put(id, new Session(address, now));
+                size.incrementAndGet();
+                misses.increment();
+            }
+            return id;
+        }
+    }
+
+    // Returns the id of the address's session, refreshed, or the free id a new session would take
+    private static long refresh(LongObjectMap<Session> sessions, long id, InetSocketAddress address, long now) {
+        Session session;
+        // Only hashed IPv6 ids can collide, the next free id goes to the newcomer
+        while ((session = sessions.get(id)) != null && !session.address.equals(address)) {
+            id = (id + PROBE_STEP) | Long.MIN_VALUE;
+        }
+        if (session != null) {
+            session.lastSeen = now;
+        }
         return id;
     }
 
-    public DatagramPacket get(Long id) {
-        return activeConnections.get(id);
+    public InetSocketAddress get(Long id) {
+        LongObjectMap<Session> sessions = stripes[stripeIndex(id)];
+        synchronized (sessions) {
+            Session session = sessions.get(id);
+            return session == null ? null : session.address;
+        }
     }
 
     public void remove(Long id) {
-        activeConnections.remove(id);
+        LongObjectMap<Session> sessions = stripes[stripeIndex(id)];
+        synchronized (sessions) {
+            if (sessions.remove(id) != null) {
+                size.decrementAndGet();
+            }
+        }
     }
 
     public void closeAll() {
-        activeConnections.clear();
+        for (LongObjectMap<Session> sessions : stripes) {
+            synchronized (sessions) {
+                size.addAndGet(-sessions.size());
+                sessions.clear();
+            }
+        }
     }
 
     public boolean isConnected(Long id) {
-        return false;
+        LongObjectMap<Session> sessions = stripes[stripeIndex(id)];
+        synchronized (sessions) {
+            return sessions.containsKey(id);
+        }
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    // Datagrams from an address that already had a session
+    public long getHits() {
+        return hits.sum();
+    }
+
+    // Datagrams that opened a new session
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    // Sessions dropped for idling past the TTL or to stay under maxSessions
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    // IPv4 addresses and ports fit in the id as they are, IPv6 ones are hashed into the negative ids
+    private static long idOf(InetSocketAddress address) {
+        if (address.getAddress() instanceof Inet4Address ipv4) {
+            byte[] bytes = ipv4.getAddress();
+            long ip = (bytes[0] & 0xFFL) << 24 | (bytes[1] & 0xFFL) << 16 | (bytes[2] & 0xFFL) << 8 | (bytes[3] & 0xFFL);
+            return ip << 16 | address.getPort();
+        }
+        long hash = 1125899906842597L;
+        for (byte b : address.getAddress().getAddress()) {
+            hash = 31 * hash + b;
+        }
+        return (31 * hash + address.getPort()) | Long.MIN_VALUE;
+    }
+
+    // Mixes the low bits of the port and of both halves of an IPv4 address, clients sharing a port or a subnet still spread
+    private static int stripeIndex(long id) {
+        return (int) (id ^ id >>> 16 ^ id >>> 32) & (STRIPES - 1);
+    }
+
+    private void evictIdle(long now) {
+        for (LongObjectMap<Session> sessions : stripes) {
+            synchronized (sessions) {
+                removeIf(sessions, now - ttlNanos);
+            }
+        }
+    }
+
+    // Frees an eighth of the table at once, so a stream of new addresses does not pay a full scan each.
+    // Stripes are locked one at a time, a session seen again in between may still go.
+    private void evictLeastRecent() {
+        long[] lastSeen = new long[size.get() + STRIPES];
+        int count = 0;
+        for (LongObjectMap<Session> sessions : stripes) {
+            synchronized (sessions) {
+                if (count + sessions.size() > lastSeen.length) {
+                    lastSeen = Arrays.copyOf(lastSeen, 2 * (count + sessions.size()));
+                }
+                long[] seen = lastSeen;
+                int[] next = {count};
+                sessions.forEachValue(session -> seen[next[0]++] = session.lastSeen);
+                count = next[0];
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        Arrays.sort(lastSeen, 0, count);
+        long cutoff = lastSeen[Math.max(0, count / 8 - 1)];
+        for (LongObjectMap<Session> sessions : stripes) {
+            synchronized (sessions) {
+                removeIf(sessions, cutoff);
+            }
+        }
+    }
+
+    // Removes the sessions last seen at or before the cutoff
+    private void removeIf(LongObjectMap<Session> sessions, long cutoff) {
+        int removed = sessions.removeIf(session -> session.lastSeen - cutoff <= 0);
+        size.addAndGet(-removed);
+        evictions.add(removed);
     }
 }
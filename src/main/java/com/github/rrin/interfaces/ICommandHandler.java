@@ -0,0 +1,17 @@
+package com.github.rrin.interfaces;
+
+import com.github.rrin.dto.CommandResponse;
+import com.github.rrin.util.CommandType;
+
+import java.io.Closeable;
+import java.sql.SQLException;
+
+// Runs decoded commands, an instance is used by one worker thread at a time
+public interface ICommandHandler extends Closeable {
+    CommandResponse handle(CommandType command, Object data);
+
+    // Creates the handler of one worker
+    interface Factory {
+        ICommandHandler open(int worker) throws SQLException;
+    }
+}
@@ -1,7 +1,11 @@
 package com.github.rrin.interfaces;
 
+import com.github.rrin.util.data.RawData;
+
 public interface ISender {
     void start();
     void stop();
     boolean isRunning();
+    // Delivers one response on the calling thread, bypassing the sender's input queue
+    void send(RawData response) throws InterruptedException;
 }
@@ -0,0 +1,47 @@
+package com.github.rrin.util;
+
+import com.github.rrin.util.data.PacketFlags;
+
+public enum CipherMode {
+    // 16-byte IV + ciphertext padded to the block size
+    CBC("AES/CBC/PKCS5Padding", 16, 0),
+    // 12-byte nonce + ciphertext + 16-byte authentication tag
+    GCM("AES/GCM/NoPadding", 12, 16);
+
+    private final String transformation;
+    private final int ivSize;
+    private final int tagSize;
+
+    CipherMode(String transformation, int ivSize, int tagSize) {
+        this.transformation = transformation;
+        this.ivSize = ivSize;
+        this.tagSize = tagSize;
+    }
+
+    public String getTransformation() {
+        return transformation;
+    }
+
+    public int getIvSize() {
+        return ivSize;
+    }
+
+    public int getTagSize() {
+        return tagSize;
+    }
+
+    public int encryptedSize(int plainLength) {
+        if (this == CBC) {
+            return ivSize + (plainLength / 16 + 1) * 16;
+        }
+        return ivSize + plainLength + tagSize;
+    }
+
+    public int getFlag() {
+        return this == GCM ? PacketFlags.GCM : 0;
+    }
+
+    public static CipherMode fromFlags(int flags) {
+        return PacketFlags.has(flags, PacketFlags.GCM) ? GCM : CBC;
+    }
+}
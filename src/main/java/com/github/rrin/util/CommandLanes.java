@@ -0,0 +1,42 @@
+package com.github.rrin.util;
+
+import com.github.rrin.util.data.LaneQueue;
+
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+// Maps every command to the lane of its cost class and builds LaneQueues with the configured lane weights.
+// The queues keep the commands of one key in order, only commands on different keys trade places.
+public class CommandLanes {
+    private static final CommandType[] COMMANDS = CommandType.values();
+    private static final CostClass[] COST_CLASSES = CostClass.values();
+
+    private final CostClass[] costs = new CostClass[COMMANDS.length];
+    private final int[] weights = new int[COST_CLASSES.length];
+
+    public CommandLanes(Map<CommandType, CostClass> commandCosts, Map<CostClass, Integer> laneWeights) {
+        for (CommandType command : COMMANDS) {
+            costs[command.ordinal()] = commandCosts.getOrDefault(command, CostClass.defaultFor(command));
+        }
+        for (CostClass costClass : COST_CLASSES) {
+            weights[costClass.ordinal()] = laneWeights.getOrDefault(costClass, costClass.getDefaultWeight());
+        }
+    }
+
+    public static CommandLanes defaults() {
+        return new CommandLanes(Map.of(), Map.of());
+    }
+
+    public CostClass costOf(CommandType command) {
+        return costs[command.ordinal()];
+    }
+
+    public int weightOf(CostClass costClass) {
+        return weights[costClass.ordinal()];
+    }
+
+    public <E> LaneQueue<E> newQueue(int laneCapacity, Function<? super E, CommandType> commandOf, ToLongFunction<? super E> keyOf) {
+        return new LaneQueue<>(laneCapacity, weights, e -> costOf(commandOf.apply(e)).ordinal(), keyOf);
+    }
+}
@@ -25,7 +25,10 @@ public enum CommandType {
     // System operations
     IS_RUNNING(21),
     RESPONSE(22),
-    CLEAR_DB(23);
+    CLEAR_DB(23),
+
+    // Many of the commands above in one packet
+    BATCH(24);
 
     private final int code;
 
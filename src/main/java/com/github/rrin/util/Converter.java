@@ -1,5 +1,6 @@
 package com.github.rrin.util;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 
 public class Converter {
@@ -13,4 +14,11 @@ public class Converter {
         }
         return new String(hexChars, StandardCharsets.UTF_8);
     }
+
+    // Dumps the bytes between position and limit without moving the position
+    public static String bytesToHex(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(buffer.position(), bytes);
+        return bytesToHex(bytes);
+    }
 }
@@ -0,0 +1,29 @@
+package com.github.rrin.util;
+
+// How expensive a command is to process, each class gets its own lane in front of every processor worker
+public enum CostClass {
+    // Health probes and single-row reads
+    CHEAP(16),
+    // Single-row writes and small joins
+    STANDARD(4),
+    // Table scans, batches and other commands that touch many rows
+    BULK(1);
+
+    private final int defaultWeight;
+
+    CostClass(int defaultWeight) {
+        this.defaultWeight = defaultWeight;
+    }
+
+    public int getDefaultWeight() {
+        return defaultWeight;
+    }
+
+    public static CostClass defaultFor(CommandType command) {
+        return switch (command) {
+            case IS_RUNNING, GET_PRODUCT, GET_GROUP -> CHEAP;
+            case GET_ALL_PRODUCTS, SEARCH_PRODUCTS, GET_ALL_GROUPS, BATCH, CLEAR_DB -> BULK;
+            default -> STANDARD;
+        };
+    }
+}
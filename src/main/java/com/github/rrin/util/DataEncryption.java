@@ -1,55 +1,155 @@
 package com.github.rrin.util;
 
 import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
 
 public class DataEncryption {
-    private static final String CIPHER_ALGORITHM = "AES/CBC/PKCS5Padding";
     private static final String KEY_ALGORITHM = "AES";
-    private static final int IV_SIZE = 16;
+    private static final int MAX_IV_SIZE = 16;
     private static final byte[] CIPHER_KEY = "zvDYk5CsjfIh9XVd9pHbyfyAUZwFhGAb".getBytes(StandardCharsets.UTF_8);
 
+    private static final SecretKeySpec KEY_SPEC = new SecretKeySpec(CIPHER_KEY, KEY_ALGORITHM);
+
+    // SecureRandom is thread-safe, so one instance seeded once serves every thread
+    private static final SecureRandom IV_GENERATOR = new SecureRandom();
+
+    // Cipher instances are not thread-safe, each thread keeps its own and re-inits it per packet
+    private static final ThreadLocal<CipherContext> CONTEXTS = ThreadLocal.withInitial(CipherContext::new);
+
+    public static int encryptedSize(int plainLength) {
+        return encryptedSize(plainLength, CipherMode.CBC);
+    }
+
+    public static int encryptedSize(int plainLength, CipherMode mode) {
+        return mode.encryptedSize(plainLength);
+    }
+
     public static byte[] encrypt(byte[] data) {
-        try {
-            byte[] iv = new byte[IV_SIZE];
-            new SecureRandom().nextBytes(iv);
-            IvParameterSpec ivSpec = new IvParameterSpec(iv);
+        return encrypt(data, CipherMode.CBC);
+    }
+
+    public static byte[] encrypt(byte[] data, CipherMode mode) {
+        ByteBuffer buffer = ByteBuffer.allocate(encryptedSize(data.length, mode));
+        encrypt(ByteBuffer.wrap(data), buffer, mode);
+        return buffer.array();
+    }
 
-            SecretKeySpec keySpec = new SecretKeySpec(CIPHER_KEY, KEY_ALGORITHM);
-            Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
-            cipher.init(Cipher.ENCRYPT_MODE, keySpec, ivSpec);
+    public static void encrypt(ByteBuffer in, ByteBuffer out) {
+        encrypt(in, out, CipherMode.CBC);
+    }
 
-            byte[] encrypted = cipher.doFinal(data);
+    // Writes IV and ciphertext at the output position, the output needs encryptedSize(in.remaining(), mode) bytes
+    public static void encrypt(ByteBuffer in, ByteBuffer out, CipherMode mode) {
+        try {
+            CipherContext context = CONTEXTS.get();
+            Cipher cipher = context.cipher(mode);
+            // GCM must never see the same nonce twice under one key, a fresh random one is drawn per packet
+            IV_GENERATOR.nextBytes(context.iv);
+            cipher.init(Cipher.ENCRYPT_MODE, KEY_SPEC, parameters(mode, context.iv, 0));
 
-            ByteBuffer buffer = ByteBuffer.allocate(IV_SIZE + encrypted.length);
-            buffer.put(iv);
-            buffer.put(encrypted);
-            return buffer.array();
-        } catch (Exception e) {
+            out.put(context.iv, 0, mode.getIvSize());
+            cipher.doFinal(in, out);
+        } catch (GeneralSecurityException e) {
             throw new RuntimeException("Encryption failed", e);
         }
     }
 
     public static byte[] decrypt(byte[] encryptedData) {
+        return decrypt(encryptedData, 0, encryptedData.length);
+    }
+
+    public static byte[] decrypt(byte[] encryptedData, int offset, int length) {
+        return decrypt(encryptedData, offset, length, CipherMode.CBC);
+    }
+
+    public static byte[] decrypt(byte[] encryptedData, int offset, int length, CipherMode mode) {
+        try {
+            Cipher cipher = CONTEXTS.get().cipher(mode);
+            cipher.init(Cipher.DECRYPT_MODE, KEY_SPEC, parameters(mode, encryptedData, offset));
+
+            int ivSize = mode.getIvSize();
+            return cipher.doFinal(encryptedData, offset + ivSize, length - ivSize);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Decryption failed", e);
+        }
+    }
+
+    // Decrypts the IV and ciphertext remaining in the input into a new array, a heap input is read without a copy
+    public static byte[] decrypt(ByteBuffer in, CipherMode mode) {
+        if (in.hasArray()) {
+            return decrypt(in.array(), in.arrayOffset() + in.position(), in.remaining(), mode);
+        }
         try {
-            ByteBuffer buffer = ByteBuffer.wrap(encryptedData);
-            byte[] iv = new byte[IV_SIZE];
-            buffer.get(iv);
-            byte[] encrypted = new byte[buffer.remaining()];
-            buffer.get(encrypted);
-
-            IvParameterSpec ivSpec = new IvParameterSpec(iv);
-            SecretKeySpec keySpec = new SecretKeySpec(CIPHER_KEY, KEY_ALGORITHM);
-            Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
-            cipher.init(Cipher.DECRYPT_MODE, keySpec, ivSpec);
-
-            return cipher.doFinal(encrypted);
-        } catch (Exception e) {
+            CipherContext context = CONTEXTS.get();
+            Cipher cipher = context.cipher(mode);
+            ByteBuffer source = in.duplicate();
+            source.get(context.iv, 0, mode.getIvSize());
+            cipher.init(Cipher.DECRYPT_MODE, KEY_SPEC, parameters(mode, context.iv, 0));
+
+            byte[] plain = new byte[cipher.getOutputSize(source.remaining())];
+            int length = cipher.doFinal(source, ByteBuffer.wrap(plain));
+            return length == plain.length ? plain : Arrays.copyOf(plain, length);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Decryption failed", e);
+        }
+    }
+
+    public static int decrypt(ByteBuffer in, ByteBuffer out) {
+        return decrypt(in, out, CipherMode.CBC);
+    }
+
+    // Reads IV and ciphertext from the input and writes plaintext at the output position, returns its length
+    public static int decrypt(ByteBuffer in, ByteBuffer out, CipherMode mode) {
+        try {
+            CipherContext context = CONTEXTS.get();
+            Cipher cipher = context.cipher(mode);
+            in.get(context.iv, 0, mode.getIvSize());
+            cipher.init(Cipher.DECRYPT_MODE, KEY_SPEC, parameters(mode, context.iv, 0));
+
+            return cipher.doFinal(in, out);
+        } catch (GeneralSecurityException e) {
             throw new RuntimeException("Decryption failed", e);
         }
     }
+
+    public static int maxDecryptedSize(int encryptedLength) {
+        return maxDecryptedSize(encryptedLength, CipherMode.CBC);
+    }
+
+    public static int maxDecryptedSize(int encryptedLength, CipherMode mode) {
+        return Math.max(0, encryptedLength - mode.getIvSize() - mode.getTagSize());
+    }
+
+    private static AlgorithmParameterSpec parameters(CipherMode mode, byte[] iv, int offset) {
+        if (mode == CipherMode.GCM) {
+            return new GCMParameterSpec(mode.getTagSize() * 8, iv, offset, mode.getIvSize());
+        }
+        return new IvParameterSpec(iv, offset, mode.getIvSize());
+    }
+
+    private static class CipherContext {
+        private final Cipher[] ciphers = new Cipher[CipherMode.values().length];
+        private final byte[] iv = new byte[MAX_IV_SIZE];
+
+        Cipher cipher(CipherMode mode) {
+            Cipher cipher = ciphers[mode.ordinal()];
+            if (cipher == null) {
+                try {
+                    cipher = Cipher.getInstance(mode.getTransformation());
+                } catch (GeneralSecurityException e) {
+                    throw new RuntimeException("Cipher is not available: " + mode.getTransformation(), e);
+                }
+                ciphers[mode.ordinal()] = cipher;
+            }
+            return cipher;
+        }
+    }
 }
@@ -4,5 +4,14 @@ import com.github.rrin.dto.CommandResponse;
 import com.github.rrin.util.data.DataPacket;
 
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
-public record DelayedRequest(CommandType command, Object data, CompletableFuture<DataPacket<CommandResponse>> future, long packetId) { }
+// timeoutMillis is how long the caller waits from queuedAt (System.nanoTime()), 0 when it sends no deadline
+public record DelayedRequest(CommandType command, Object data, CompletableFuture<DataPacket<CommandResponse>> future, long packetId,
+                             long queuedAt, int timeoutMillis) {
+
+    // What is left of the caller's wait, never above timeoutMillis
+    public long remainingMillis() {
+        return timeoutMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - queuedAt);
+    }
+}
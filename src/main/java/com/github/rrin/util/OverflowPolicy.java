@@ -0,0 +1,11 @@
+package com.github.rrin.util;
+
+// What happens to a response when its connection's outbound queue is full
+public enum OverflowPolicy {
+    // Release the response, the client times out waiting for it
+    DROP,
+    // Close the connection, a client this far behind is assumed gone
+    DISCONNECT,
+    // Wait for room, which also holds up responses to every other connection
+    BLOCK
+}
@@ -0,0 +1,91 @@
+package com.github.rrin.util;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Raw deflate with the original length in front: wOrigLen (4 bytes big-endian) + deflate stream
+public class PayloadCompression {
+    // Smaller payloads rarely shrink enough to pay for the deflate call
+    public static final int MIN_COMPRESSIBLE_SIZE = 512;
+
+    // Upper bound for the declared length, a corrupt or hostile header must not make us allocate more
+    public static final int MAX_DECOMPRESSED_SIZE = 16 * 1024 * 1024;
+
+    private static final int LENGTH_SIZE = 4;
+
+    // Deflater and Inflater hold native state, each thread keeps one of each and resets it per payload
+    private static final ThreadLocal<Deflater> DEFLATERS =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+    private static final ThreadLocal<Inflater> INFLATERS =
+            ThreadLocal.withInitial(() -> new Inflater(true));
+
+    // Returns null when the payload is too small or would not get smaller
+    public static byte[] compress(byte[] data) {
+        if (data.length < MIN_COMPRESSIBLE_SIZE) {
+            return null;
+        }
+
+        Deflater deflater = DEFLATERS.get();
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+
+            byte[] output = new byte[data.length];
+            ByteBuffer.wrap(output).putInt(data.length);
+            int length = LENGTH_SIZE;
+            while (!deflater.finished() && length < output.length) {
+                length += deflater.deflate(output, length, output.length - length);
+            }
+
+            if (!deflater.finished()) {
+                return null;
+            }
+            byte[] compressed = new byte[length];
+            System.arraycopy(output, 0, compressed, 0, length);
+            return compressed;
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    public static byte[] decompress(byte[] data) {
+        if (data.length < LENGTH_SIZE) {
+            throw new IllegalArgumentException("Compressed payload is too short");
+        }
+
+        int originalLength = ByteBuffer.wrap(data).getInt();
+        if (originalLength < 0 || originalLength > MAX_DECOMPRESSED_SIZE) {
+            throw new IllegalArgumentException("Invalid decompressed length: " + originalLength);
+        }
+
+        Inflater inflater = INFLATERS.get();
+        try {
+            inflater.setInput(data, LENGTH_SIZE, data.length - LENGTH_SIZE);
+
+            byte[] output = new byte[originalLength];
+            int length = 0;
+            while (length < originalLength) {
+                int inflated = inflater.inflate(output, length, originalLength - length);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+
+            // The end of the stream may still be pending once all declared bytes are out
+            if (length == originalLength && !inflater.finished() && inflater.inflate(new byte[1]) != 0) {
+                length++;
+            }
+            if (length != originalLength || !inflater.finished()) {
+                throw new IllegalArgumentException("Compressed payload does not match its declared length");
+            }
+            return output;
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt compressed payload", e);
+        } finally {
+            inflater.reset();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.github.rrin.util;
+
+import com.github.rrin.util.data.PacketFlags;
+
+public enum PayloadEncoding {
+    JSON,
+    // Schema-driven format of BinaryPayloadCodec, falls back to JSON for types it has no schema for
+    BINARY;
+
+    public int getFlag() {
+        return this == BINARY ? PacketFlags.BINARY : 0;
+    }
+
+    public static PayloadEncoding fromFlags(int flags) {
+        return PacketFlags.has(flags, PacketFlags.BINARY) ? BINARY : JSON;
+    }
+}
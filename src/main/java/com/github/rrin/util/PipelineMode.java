@@ -0,0 +1,9 @@
+package com.github.rrin.util;
+
+// How the servers move a request from the receiver to the sender
+public enum PipelineMode {
+    // Decrypter, processor, encrypter and sender each run on their own threads, linked by queues
+    STAGED,
+    // One worker per shard runs every step for a packet itself, see FusedPipeline
+    FUSED
+}
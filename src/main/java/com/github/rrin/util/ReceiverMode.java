@@ -0,0 +1,11 @@
+package com.github.rrin.util;
+
+// How the TCP server serves accepted connections
+public enum ReceiverMode {
+    // One pooled platform thread blocked in read() per connection, each reserving a full stack
+    PLATFORM_THREADS,
+    // One virtual thread per connection, a blocked read() unmounts it and frees the carrier thread
+    VIRTUAL_THREADS,
+    // Non-blocking channels multiplexed over a few selector event loops, see NioTcpReceiver
+    SELECTOR
+}
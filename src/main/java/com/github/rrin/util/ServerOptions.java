@@ -0,0 +1,313 @@
+package com.github.rrin.util;
+
+import com.github.rrin.implementation.tcp.TcpSocketManager;
+import com.github.rrin.implementation.udp.UdpSocketManager;
+import com.github.rrin.util.data.BufferPool;
+import com.github.rrin.util.data.FrameDecoder;
+import com.github.rrin.util.data.WaitStrategy;
+import com.github.rrin.util.metrics.PipelineMetrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+public class ServerOptions {
+    private ReceiverMode receiverMode = ReceiverMode.VIRTUAL_THREADS;
+    // Only used in SELECTOR mode
+    private int eventLoops = Math.min(4, Runtime.getRuntime().availableProcessors());
+    // Per TCP connection, a client that lets this many responses pile up is handled by overflowPolicy
+    private int outboundQueueCapacity = TcpSocketManager.DEFAULT_OUTBOUND_CAPACITY;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DISCONNECT;
+    // Queued TCP responses of one connection are coalesced into gathering writes of up to this many bytes.
+    // A positive delay (blocking transport only) also holds a write back that long for more responses, trading latency for fewer syscalls.
+    private int writeBatchBytes = TcpSocketManager.DEFAULT_WRITE_BATCH_BYTES;
+    private long writeMaxDelayMicros = 0;
+    // One UDP session per client address, dropped after idling this long or to stay under maxUdpSessions
+    private long udpSessionTtlMillis = UdpSocketManager.DEFAULT_TTL_MILLIS;
+    private int maxUdpSessions = UdpSocketManager.DEFAULT_MAX_SESSIONS;
+    // UDP channels bound to the server port with SO_REUSEPORT, each with its own receive thread. One where the option is missing.
+    private int udpChannels = Math.min(4, Runtime.getRuntime().availableProcessors());
+    private int maxFrameSize = FrameDecoder.DEFAULT_MAX_FRAME_SIZE;
+    private int bufferPoolCapacity = BufferPool.DEFAULT_CAPACITY;
+    // Also the UDP receive buffer, a request datagram has to be smaller than this or it is dropped
+    private int bufferSize = BufferPool.DEFAULT_BUFFER_SIZE;
+    // Answers compressed requests compressed, false never compresses a response
+    private boolean compressResponses = true;
+    // Both crypto stages keep a connection's packets on one worker and so never reorder them. Whether responses come back in
+    // request order is decided by the processor in between, see processorWorkers.
+    private int decrypterWorkers = Runtime.getRuntime().availableProcessors();
+    private int encrypterWorkers = Runtime.getRuntime().availableProcessors();
+    // Every processor worker holds its own MySQL connection. More than one shards commands by the product or group they touch,
+    // and a connection's responses then come back in the order their workers finish, not in request order. Clients have to
+    // match responses by packet id, as StoreClientTCP and StoreClientUDP do. One worker without priorityLanes answers every
+    // connection in request order, apart from IS_RUNNING, which the processor answers at once.
+    private int processorWorkers = 1;
+    // FUSED replaces the decrypter, processor and encrypter with fusedWorkers threads that each own a MySQL connection
+    private PipelineMode pipelineMode = PipelineMode.STAGED;
+    private int fusedWorkers = 4;
+    // Each staged processor worker takes commands from one lane per CostClass, cheaper lanes get more turns by laneWeights.
+    // Commands on the same product or group keep their order, but a cheap command can overtake a costlier one sent earlier on
+    // the same connection. False keeps the worker queues FIFO.
+    private boolean priorityLanes = false;
+    private final Map<CommandType, CostClass> commandCosts = new EnumMap<>(CommandType.class);
+    private final Map<CostClass, Integer> laneWeights = new EnumMap<>(CostClass.class);
+    // Stages are linked by lock-free StageQueues, false falls back to ArrayBlockingQueue
+    private boolean ringBufferQueues = true;
+    private int stageQueueCapacity = 1024;
+    private WaitStrategy stageWaitStrategy = WaitStrategy.PARK;
+    // Receivers answer 503 once a stage holds highWatermark items in its queue and worker queues together,
+    // until it drains to lowWatermark
+    private boolean admissionControl = true;
+    private int admissionHighWatermark = 768;
+    private int admissionLowWatermark = 256;
+    // Per-stage latency histograms by command and queue depths sampled every metricsSampleIntervalMillis
+    private boolean metricsEnabled = true;
+    private long metricsSampleIntervalMillis = PipelineMetrics.DEFAULT_SAMPLE_INTERVAL_MILLIS;
+    // Requests whose client-sent deadline has passed are dropped before decrypt, process or encrypt, false ignores deadlines
+    private boolean deadlinesEnabled = true;
+
+    public ServerOptions() {}
+
+    public ReceiverMode getReceiverMode() {
+        return receiverMode;
+    }
+
+    public void setReceiverMode(ReceiverMode receiverMode) {
+        this.receiverMode = receiverMode;
+    }
+
+    public int getEventLoops() {
+        return eventLoops;
+    }
+
+    public void setEventLoops(int eventLoops) {
+        this.eventLoops = eventLoops;
+    }
+
+    public int getOutboundQueueCapacity() {
+        return outboundQueueCapacity;
+    }
+
+    public void setOutboundQueueCapacity(int outboundQueueCapacity) {
+        this.outboundQueueCapacity = outboundQueueCapacity;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public int getWriteBatchBytes() {
+        return writeBatchBytes;
+    }
+
+    public void setWriteBatchBytes(int writeBatchBytes) {
+        this.writeBatchBytes = writeBatchBytes;
+    }
+
+    public long getWriteMaxDelayMicros() {
+        return writeMaxDelayMicros;
+    }
+
+    public void setWriteMaxDelayMicros(long writeMaxDelayMicros) {
+        this.writeMaxDelayMicros = writeMaxDelayMicros;
+    }
+
+    public long getUdpSessionTtlMillis() {
+        return udpSessionTtlMillis;
+    }
+
+    public void setUdpSessionTtlMillis(long udpSessionTtlMillis) {
+        this.udpSessionTtlMillis = udpSessionTtlMillis;
+    }
+
+    public int getMaxUdpSessions() {
+        return maxUdpSessions;
+    }
+
+    public void setMaxUdpSessions(int maxUdpSessions) {
+        this.maxUdpSessions = maxUdpSessions;
+    }
+
+    public int getUdpChannels() {
+        return udpChannels;
+    }
+
+    public void setUdpChannels(int udpChannels) {
+        this.udpChannels = udpChannels;
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    public void setMaxFrameSize(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    public int getBufferPoolCapacity() {
+        return bufferPoolCapacity;
+    }
+
+    public void setBufferPoolCapacity(int bufferPoolCapacity) {
+        this.bufferPoolCapacity = bufferPoolCapacity;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    public boolean isCompressResponses() {
+        return compressResponses;
+    }
+
+    public void setCompressResponses(boolean compressResponses) {
+        this.compressResponses = compressResponses;
+    }
+
+    public int getDecrypterWorkers() {
+        return decrypterWorkers;
+    }
+
+    public void setDecrypterWorkers(int decrypterWorkers) {
+        this.decrypterWorkers = decrypterWorkers;
+    }
+
+    public int getEncrypterWorkers() {
+        return encrypterWorkers;
+    }
+
+    public void setEncrypterWorkers(int encrypterWorkers) {
+        this.encrypterWorkers = encrypterWorkers;
+    }
+
+    public int getProcessorWorkers() {
+        return processorWorkers;
+    }
+
+    public void setProcessorWorkers(int processorWorkers) {
+        this.processorWorkers = processorWorkers;
+    }
+
+    public PipelineMode getPipelineMode() {
+        return pipelineMode;
+    }
+
+    public void setPipelineMode(PipelineMode pipelineMode) {
+        this.pipelineMode = pipelineMode;
+    }
+
+    public int getFusedWorkers() {
+        return fusedWorkers;
+    }
+
+    public void setFusedWorkers(int fusedWorkers) {
+        this.fusedWorkers = fusedWorkers;
+    }
+
+    public boolean isPriorityLanes() {
+        return priorityLanes;
+    }
+
+    public void setPriorityLanes(boolean priorityLanes) {
+        this.priorityLanes = priorityLanes;
+    }
+
+    public CostClass getCommandCost(CommandType command) {
+        return commandCosts.getOrDefault(command, CostClass.defaultFor(command));
+    }
+
+    public void setCommandCost(CommandType command, CostClass costClass) {
+        commandCosts.put(command, costClass);
+    }
+
+    public int getLaneWeight(CostClass costClass) {
+        return laneWeights.getOrDefault(costClass, costClass.getDefaultWeight());
+    }
+
+    public void setLaneWeight(CostClass costClass, int weight) {
+        laneWeights.put(costClass, weight);
+    }
+
+    public CommandLanes getCommandLanes() {
+        return new CommandLanes(commandCosts, laneWeights);
+    }
+
+    public boolean isRingBufferQueues() {
+        return ringBufferQueues;
+    }
+
+    public void setRingBufferQueues(boolean ringBufferQueues) {
+        this.ringBufferQueues = ringBufferQueues;
+    }
+
+    public int getStageQueueCapacity() {
+        return stageQueueCapacity;
+    }
+
+    public void setStageQueueCapacity(int stageQueueCapacity) {
+        this.stageQueueCapacity = stageQueueCapacity;
+    }
+
+    public WaitStrategy getStageWaitStrategy() {
+        return stageWaitStrategy;
+    }
+
+    public void setStageWaitStrategy(WaitStrategy stageWaitStrategy) {
+        this.stageWaitStrategy = stageWaitStrategy;
+    }
+
+    public boolean isAdmissionControl() {
+        return admissionControl;
+    }
+
+    public void setAdmissionControl(boolean admissionControl) {
+        this.admissionControl = admissionControl;
+    }
+
+    public int getAdmissionHighWatermark() {
+        return admissionHighWatermark;
+    }
+
+    public void setAdmissionHighWatermark(int admissionHighWatermark) {
+        this.admissionHighWatermark = admissionHighWatermark;
+    }
+
+    public int getAdmissionLowWatermark() {
+        return admissionLowWatermark;
+    }
+
+    public void setAdmissionLowWatermark(int admissionLowWatermark) {
+        this.admissionLowWatermark = admissionLowWatermark;
+    }
+
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    public void setMetricsEnabled(boolean metricsEnabled) {
+        this.metricsEnabled = metricsEnabled;
+    }
+
+    public long getMetricsSampleIntervalMillis() {
+        return metricsSampleIntervalMillis;
+    }
+
+    public void setMetricsSampleIntervalMillis(long metricsSampleIntervalMillis) {
+        this.metricsSampleIntervalMillis = metricsSampleIntervalMillis;
+    }
+
+    public boolean isDeadlinesEnabled() {
+        return deadlinesEnabled;
+    }
+
+    public void setDeadlinesEnabled(boolean deadlinesEnabled) {
+        this.deadlinesEnabled = deadlinesEnabled;
+    }
+}
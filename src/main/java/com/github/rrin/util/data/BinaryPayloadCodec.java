@@ -0,0 +1,468 @@
+package com.github.rrin.util.data;
+
+import com.github.rrin.dto.Product;
+import com.github.rrin.util.SearchResult;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.RecordComponent;
+import java.lang.reflect.Type;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+Compact payload format used instead of JSON when the BINARY packet flag is set.
+The schema is the record itself: components are written in declaration order, without names.
+
+int, long       zigzag varint
+double          8 bytes big-endian
+boolean         1 byte
+Integer, ...    presence byte (0 - null, 1 - value) followed by the value
+String          varint (UTF-8 length + 1, 0 - null) followed by the bytes
+List            varint (size + 1, 0 - null) followed by the items
+record          presence byte followed by its components
+
+A null payload is written as zero bytes.
+*/
+public final class BinaryPayloadCodec {
+    private static final String DTO_PACKAGE = "com.github.rrin.dto";
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final Codec UNSUPPORTED = new Codec() {
+        @Override
+        public void write(Output out, Object value) {
+            throw new IllegalArgumentException("Type has no binary schema");
+        }
+
+        @Override
+        public Object read(ByteBuffer in) {
+            throw new IllegalArgumentException("Type has no binary schema");
+        }
+    };
+
+    private static final ClassValue<Codec> SCHEMAS = new ClassValue<>() {
+        @Override
+        protected Codec computeValue(Class<?> type) {
+            return buildSchema(type);
+        }
+    };
+
+    // Records whose schema is being built on this thread, a component of the same type refers back to it lazily
+    private static final ThreadLocal<Set<Class<?>>> BUILDING = ThreadLocal.withInitial(HashSet::new);
+
+    private static final int MAX_NESTING = 16;
+    private static final ThreadLocal<int[]> NESTING = ThreadLocal.withInitial(() -> new int[1]);
+
+    private BinaryPayloadCodec() {}
+
+    public static boolean supports(Object value) {
+        return value == null || supports(value.getClass());
+    }
+
+    public static boolean supports(Class<?> type) {
+        return SCHEMAS.get(type) != UNSUPPORTED;
+    }
+
+    public static byte[] encode(Object value) {
+        if (value == null) {
+            return EMPTY;
+        }
+        Output out = new Output();
+        schemaFor(value.getClass()).write(out, value);
+        return out.toByteArray();
+    }
+
+    public static <T> T decode(byte[] bytes, Class<T> type) {
+        // Records without components, like IsRunning, are zero bytes long as well
+        if (bytes.length == 0 && !(type.isRecord() && type.getRecordComponents().length == 0)) {
+            return null;
+        }
+
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        try {
+            T value = type.cast(schemaFor(type).read(in));
+            if (in.hasRemaining()) {
+                throw new IllegalArgumentException("Trailing bytes after " + type.getSimpleName() + " payload");
+            }
+            return value;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated " + type.getSimpleName() + " payload", e);
+        }
+    }
+
+    private static Codec schemaFor(Class<?> type) {
+        Codec schema = SCHEMAS.get(type);
+        if (schema == UNSUPPORTED) {
+            throw new IllegalArgumentException("No binary schema for " + type.getName());
+        }
+        return schema;
+    }
+
+    private static Codec buildSchema(Class<?> type) {
+        if (type == SearchResult.class) {
+            return new SearchResultSchema();
+        }
+        if (!type.isRecord() || !type.getPackageName().startsWith(DTO_PACKAGE)) {
+            return UNSUPPORTED;
+        }
+
+        Set<Class<?>> building = BUILDING.get();
+        building.add(type);
+        try {
+            RecordComponent[] components = type.getRecordComponents();
+            Class<?>[] parameterTypes = new Class<?>[components.length];
+            MethodHandle[] accessors = new MethodHandle[components.length];
+            Codec[] codecs = new Codec[components.length];
+
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            for (int i = 0; i < components.length; i++) {
+                parameterTypes[i] = components[i].getType();
+                accessors[i] = lookup.unreflect(components[i].getAccessor())
+                        .asType(MethodType.methodType(Object.class, Object.class));
+                codecs[i] = codecFor(components[i].getType(), components[i].getGenericType());
+                if (codecs[i] == UNSUPPORTED) {
+                    return UNSUPPORTED;
+                }
+            }
+
+            Constructor<?> constructor = type.getDeclaredConstructor(parameterTypes);
+            MethodHandle factory = lookup.unreflectConstructor(constructor)
+                    .asSpreader(Object[].class, components.length)
+                    .asType(MethodType.methodType(Object.class, Object[].class));
+
+            return new RecordSchema(accessors, codecs, factory);
+        } catch (ReflectiveOperationException e) {
+            return UNSUPPORTED;
+        } finally {
+            building.remove(type);
+        }
+    }
+
+    private static Codec codecFor(Class<?> type, Type genericType) {
+        if (type == int.class) return INT;
+        if (type == long.class) return LONG;
+        if (type == double.class) return DOUBLE;
+        if (type == boolean.class) return BOOLEAN;
+        if (type == Integer.class) return nullable(INT);
+        if (type == Long.class) return nullable(LONG);
+        if (type == Double.class) return nullable(DOUBLE);
+        if (type == Boolean.class) return nullable(BOOLEAN);
+        if (type == String.class) return STRING;
+
+        if (type == List.class && genericType instanceof ParameterizedType parameterized
+                && parameterized.getActualTypeArguments()[0] instanceof Class<?> itemType) {
+            Codec itemCodec = codecFor(itemType, itemType);
+            return itemCodec == UNSUPPORTED ? UNSUPPORTED : new ListCodec(itemCodec);
+        }
+
+        if (BUILDING.get().contains(type)) {
+            return nullable(new SelfReference(type));
+        }
+        Codec schema = SCHEMAS.get(type);
+        return schema == UNSUPPORTED ? UNSUPPORTED : nullable(schema);
+    }
+
+    private interface Codec {
+        void write(Output out, Object value);
+
+        Object read(ByteBuffer in);
+    }
+
+    private static final Codec INT = new Codec() {
+        @Override
+        public void write(Output out, Object value) {
+            out.writeVarLong(zigzag((Integer) value));
+        }
+
+        @Override
+        public Object read(ByteBuffer in) {
+            return (int) unzigzag(readVarLong(in));
+        }
+    };
+
+    private static final Codec LONG = new Codec() {
+        @Override
+        public void write(Output out, Object value) {
+            out.writeVarLong(zigzag((Long) value));
+        }
+
+        @Override
+        public Object read(ByteBuffer in) {
+            return unzigzag(readVarLong(in));
+        }
+    };
+
+    private static final Codec DOUBLE = new Codec() {
+        @Override
+        public void write(Output out, Object value) {
+            out.writeLong(Double.doubleToRawLongBits((Double) value));
+        }
+
+        @Override
+        public Object read(ByteBuffer in) {
+            return in.getDouble();
+        }
+    };
+
+    private static final Codec BOOLEAN = new Codec() {
+        @Override
+        public void write(Output out, Object value) {
+            out.write((Boolean) value ? 1 : 0);
+        }
+
+        @Override
+        public Object read(ByteBuffer in) {
+            return in.get() != 0;
+        }
+    };
+
+    private static final Codec STRING = new Codec() {
+        @Override
+        public void write(Output out, Object value) {
+            if (value == null) {
+                out.writeVarLong(0);
+                return;
+            }
+            byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+            out.writeVarLong(bytes.length + 1L);
+            out.write(bytes);
+        }
+
+        @Override
+        public Object read(ByteBuffer in) {
+            int length = readLength(in);
+            if (length < 0) {
+                return null;
+            }
+            String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+            return value;
+        }
+    };
+
+    private static Codec nullable(Codec codec) {
+        return new Codec() {
+            @Override
+            public void write(Output out, Object value) {
+                if (value == null) {
+                    out.write(0);
+                } else {
+                    out.write(1);
+                    codec.write(out, value);
+                }
+            }
+
+            @Override
+            public Object read(ByteBuffer in) {
+                return in.get() == 0 ? null : codec.read(in);
+            }
+        };
+    }
+
+    private static final class ListCodec implements Codec {
+        private final Codec itemCodec;
+
+        ListCodec(Codec itemCodec) {
+            this.itemCodec = itemCodec;
+        }
+
+        @Override
+        public void write(Output out, Object value) {
+            if (value == null) {
+                out.writeVarLong(0);
+                return;
+            }
+            List<?> items = (List<?>) value;
+            out.writeVarLong(items.size() + 1L);
+            for (Object item : items) {
+                itemCodec.write(out, item);
+            }
+        }
+
+        @Override
+        public Object read(ByteBuffer in) {
+            int size = readLength(in);
+            if (size < 0) {
+                return null;
+            }
+            List<Object> items = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                items.add(itemCodec.read(in));
+            }
+            return items;
+        }
+    }
+
+    // Stands in for a record inside its own schema, e.g. CommandResponse.results
+    private static final class SelfReference implements Codec {
+        private final Class<?> type;
+
+        SelfReference(Class<?> type) {
+            this.type = type;
+        }
+
+        @Override
+        public void write(Output out, Object value) {
+            SCHEMAS.get(type).write(out, value);
+        }
+
+        @Override
+        public Object read(ByteBuffer in) {
+            // A hostile payload could nest deep enough to blow the stack of the decoding thread
+            int[] depth = NESTING.get();
+            if (depth[0] >= MAX_NESTING) {
+                throw new IllegalArgumentException("Payload is nested deeper than " + MAX_NESTING + " levels");
+            }
+            depth[0]++;
+            try {
+                return SCHEMAS.get(type).read(in);
+            } finally {
+                depth[0]--;
+            }
+        }
+    }
+
+    private static final class RecordSchema implements Codec {
+        private final MethodHandle[] accessors;
+        private final Codec[] codecs;
+        private final MethodHandle factory;
+
+        RecordSchema(MethodHandle[] accessors, Codec[] codecs, MethodHandle factory) {
+            this.accessors = accessors;
+            this.codecs = codecs;
+            this.factory = factory;
+        }
+
+        @Override
+        public void write(Output out, Object value) {
+            try {
+                for (int i = 0; i < accessors.length; i++) {
+                    codecs[i].write(out, (Object) accessors[i].invokeExact(value));
+                }
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public Object read(ByteBuffer in) {
+            Object[] arguments = new Object[codecs.length];
+            for (int i = 0; i < codecs.length; i++) {
+                arguments[i] = codecs[i].read(in);
+            }
+            try {
+                return (Object) factory.invokeExact(arguments);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    // SearchResult is generic and not a record, the only result type the service pages through is Product
+    private static final class SearchResultSchema implements Codec {
+        private final Codec items = new ListCodec(SCHEMAS.get(Product.class));
+
+        @Override
+        public void write(Output out, Object value) {
+            SearchResult<?> result = (SearchResult<?>) value;
+            items.write(out, result.getItems());
+            INT.write(out, result.getTotalCount());
+            INT.write(out, result.getCurrentPage());
+            INT.write(out, result.getPageSize());
+        }
+
+        @Override
+        public Object read(ByteBuffer in) {
+            @SuppressWarnings("unchecked")
+            List<Product> products = (List<Product>) items.read(in);
+            return new SearchResult<>(products, (int) INT.read(in), (int) INT.read(in), (int) INT.read(in));
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    // Returns -1 for null, rejects lengths the remaining bytes cannot hold
+    private static int readLength(ByteBuffer in) {
+        long encoded = readVarLong(in);
+        if (encoded == 0) {
+            return -1;
+        }
+        if (encoded - 1 > in.remaining()) {
+            throw new IllegalArgumentException("Length " + (encoded - 1) + " exceeds payload");
+        }
+        return (int) (encoded - 1);
+    }
+
+    private static final class Output {
+        private byte[] bytes = new byte[64];
+        private int size;
+
+        void write(int b) {
+            ensureCapacity(1);
+            bytes[size++] = (byte) b;
+        }
+
+        void write(byte[] data) {
+            ensureCapacity(data.length);
+            System.arraycopy(data, 0, bytes, size, data.length);
+            size += data.length;
+        }
+
+        void writeLong(long value) {
+            ensureCapacity(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                bytes[size++] = (byte) (value >>> shift);
+            }
+        }
+
+        void writeVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+
+        private void ensureCapacity(int incoming) {
+            if (size + incoming > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + incoming));
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.github.rrin.util.data;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+public class BufferPool {
+    public static final int DEFAULT_CAPACITY = 1024;
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private final BlockingQueue<ByteBuffer> buffers;
+    private final int bufferSize;
+
+    public BufferPool() {
+        this(DEFAULT_CAPACITY, DEFAULT_BUFFER_SIZE);
+    }
+
+    public BufferPool(int capacity, int bufferSize) {
+        this.buffers = new ArrayBlockingQueue<>(capacity);
+        this.bufferSize = bufferSize;
+    }
+
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        return buffer;
+    }
+
+    // Requests bigger than the pooled buffer size get a one-off heap buffer that is never pooled
+    public ByteBuffer acquire(int size) {
+        if (size > bufferSize) {
+            return ByteBuffer.allocate(size);
+        }
+        return acquire();
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (!buffer.isDirect() || buffer.capacity() != bufferSize) {
+            return;
+        }
+        buffer.clear();
+        buffers.offer(buffer);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public int available() {
+        return buffers.size();
+    }
+}
@@ -12,9 +12,10 @@ Offset  Length  Mnemonic    Notes
 
 Структура повідомлення (message)
 Offset	Length	Mnemonic 	Notes
-00	    4	    cType	    Код команди big-endian
+00	    4	    cType	    Код команди big-endian. Старший байт - прапорці пакету (PacketFlags), молодші три - код команди
 04	    4	    bUserId     Від кого надіслане повідомлення. В системі може бути багато клієнтів. А на кожному з цих клієнтів може працювати один з багатьох працівників. big-endian
-08	    wLen-8	message     корисна інформація, можна покласти JSON як масив байтів big-endian
+08	    4	    wDeadline   Лише з прапорцем DEADLINE: скільки мілісекунд клієнт чекає на відповідь, big-endian
+08/12	    wLen-8/12	message     корисна інформація, можна покласти JSON як масив байтів big-endian
 */
 
 package com.github.rrin.util.data;
@@ -22,8 +23,11 @@ package com.github.rrin.util.data;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.rrin.util.CRC16;
+import com.github.rrin.util.CipherMode;
 import com.github.rrin.util.CommandType;
 import com.github.rrin.util.DataEncryption;
+import com.github.rrin.util.PayloadCompression;
+import com.github.rrin.util.metrics.StageTimestamps;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -33,7 +37,14 @@ import java.util.Objects;
 
 public class DataPacket<T> {
 
+    public static final byte MAGIC_BYTE = (byte) 0x13;
+    public static final int HEADER_SIZE = 16;
+    public static final int CHECKSUM_SIZE = 2;
+    public static final int MIN_BODY_LENGTH = 8;
+    public static final int DEADLINE_SIZE = 4;
+
     private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final PayloadRegistry payloadRegistry = new PayloadRegistry(objectMapper);
     private final long connectionId;
 
     private final byte magicByte;
@@ -42,16 +53,35 @@ public class DataPacket<T> {
     private final int bodyLength;
     private final short headerChecksum;
     private final PacketBody<T> body;
-    private final short bodyChecksum;
+    private short bodyChecksum;
+    private boolean bodyChecksumKnown;
+    // Only set on the server, for packets that came through the pipeline
+    private StageTimestamps timestamps;
 
     public DataPacket(byte magicByte, byte sourceId, long packetId, CommandType command, int userId, T data, long connectionId) {
-        this.body = new PacketBody<>(command, userId, data);
+        this(magicByte, sourceId, packetId, command, userId, data, connectionId, PacketFlags.NONE);
+    }
+
+    public DataPacket(byte magicByte, byte sourceId, long packetId, CommandType command, int userId, T data, long connectionId, int flags) {
+        this(magicByte, sourceId, packetId, command, userId, data, connectionId, flags, 0);
+    }
+
+    // A positive deadlineMillis sets the DEADLINE flag and travels in the body, 0 sends none
+    public DataPacket(byte magicByte, byte sourceId, long packetId, CommandType command, int userId, T data, long connectionId, int flags,
+                      int deadlineMillis) {
+        this(magicByte, sourceId, packetId, new PacketBody<>(command, userId, data, flags, deadlineMillis), connectionId);
+    }
+
+    private DataPacket(byte magicByte, byte sourceId, long packetId, PacketBody<T> body, long connectionId) {
+        this.body = body;
 
         this.connectionId = connectionId;
         this.magicByte = magicByte;
         this.sourceId = sourceId;
         this.packetId = packetId;
-        this.bodyLength = body.calcBodyLength();
+
+        // The payload is serialized once here, its encrypted length is known before anything is encrypted
+        this.bodyLength = body.getEncodedLength();
 
         ByteBuffer headerBuffer = ByteBuffer.allocate(1 + 1 + 8 + 4).order(ByteOrder.BIG_ENDIAN);
         headerBuffer.put(magicByte)
@@ -60,7 +90,6 @@ public class DataPacket<T> {
                 .putInt(bodyLength);
 
         this.headerChecksum = CRC16.sum(headerBuffer.array());
-        this.bodyChecksum = CRC16.sum(body.toByteArray());
     }
 
     public long getConnectionId() {
@@ -91,67 +120,137 @@ public class DataPacket<T> {
         return body;
     }
 
+    public int getFlags() {
+        return body.getFlags();
+    }
+
+    // Milliseconds the sender waits for the answer, counted from when the frame was sent, or 0 for no deadline
+    public int getDeadlineMillis() {
+        return body.getDeadlineMillis();
+    }
+
     public short getBodyChecksum() {
+        if (!bodyChecksumKnown) {
+            bodyChecksum = CRC16.sum(body.toByteArray());
+            bodyChecksumKnown = true;
+        }
         return bodyChecksum;
     }
 
+    public StageTimestamps getTimestamps() {
+        return timestamps;
+    }
+
+    public void setTimestamps(StageTimestamps timestamps) {
+        this.timestamps = timestamps;
+    }
+
+    public int getFrameSize() {
+        return HEADER_SIZE + bodyLength + CHECKSUM_SIZE;
+    }
+
     public static <T> DataPacket<T> fromByteArray(byte[] data, Class<T> dataClass, long connectionId) {
-        ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.BIG_ENDIAN);
+        return decode(ByteBuffer.wrap(data), dataClass, connectionId);
+    }
 
-        byte magicByte = buffer.get();
-        if (magicByte != (byte) 0x13) { throw new IllegalArgumentException(); };
+    // Decodes one frame starting at the buffer position and moves the position past it
+    public static <T> DataPacket<T> decode(ByteBuffer source, Class<T> dataClass, long connectionId) {
+        DataPacket<T> packet = decodeLazy(source, dataClass, connectionId);
+        packet.body.getData();
+        return packet;
+    }
 
-        byte sourceId = buffer.get();
-        long packetId = buffer.getLong();
-        int bodyLength = buffer.getInt();
+    // Checks both CRCs and parses the header, cType and bUserId, the message is only decrypted
+    // and deserialized on the first getData() call. The body is read in place, so the source must not be
+    // reused or released before that call.
+    public static <T> DataPacket<T> decodeLazy(ByteBuffer source, Class<T> dataClass, long connectionId) {
+        source.order(ByteOrder.BIG_ENDIAN);
+        int offset = source.position();
 
-        short headerChecksum =  buffer.getShort();
-        short expectedHeadSum = CRC16.sum(Arrays.copyOfRange(data, 0, 14));
-        if (headerChecksum != expectedHeadSum) { throw new IllegalArgumentException(); }
+        if (source.remaining() < HEADER_SIZE) { throw new IllegalArgumentException(); }
 
-        int commandType = buffer.getInt();
-        int userId = buffer.getInt();
+        byte magicByte = source.get(offset);
+        if (magicByte != MAGIC_BYTE) { throw new IllegalArgumentException(); }
 
-        byte[] message = new byte[bodyLength - 8];
-        buffer.get(message, 0, message.length);
+        byte sourceId = source.get(offset + 1);
+        long packetId = source.getLong(offset + 2);
+        int bodyLength = source.getInt(offset + 10);
 
-        short wBodySum = buffer.getShort();
-        short expectedBodySum = CRC16.sum(Arrays.copyOfRange(data, 16, 16 + bodyLength));
-        if (wBodySum != expectedBodySum) { throw new IllegalArgumentException(); }
+        short headerChecksum = source.getShort(offset + 14);
+        short expectedHeadSum = CRC16.sum(source, offset, 14);
+        if (headerChecksum != expectedHeadSum) { throw new IllegalArgumentException(); }
 
-        try {
-            message = DataEncryption.decrypt(message);
-            T dataObject = objectMapper.readValue(message, dataClass);
-            return new DataPacket<>(magicByte, sourceId, packetId, CommandType.fromCode(commandType), userId, dataObject, connectionId);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        // In long arithmetic, a huge wLen from the wire would otherwise wrap around and pass
+        if (bodyLength < MIN_BODY_LENGTH || source.remaining() < (long) HEADER_SIZE + bodyLength + CHECKSUM_SIZE) {
+            throw new IllegalArgumentException();
         }
-    }
 
-    public byte[] toByteArray() {
+        int bodyOffset = offset + HEADER_SIZE;
+        short wBodySum = source.getShort(bodyOffset + bodyLength);
+        short expectedBodySum = CRC16.sum(source, bodyOffset, bodyLength);
+        if (wBodySum != expectedBodySum) { throw new IllegalArgumentException(); }
 
-        int msgSize = getBodyLength();
-        int packetSize = 1 + 1 + 8 + 4 + 2 + msgSize + 2;
+        int commandType = source.getInt(bodyOffset);
+        int flags = PacketFlags.flagsOf(commandType);
+        if ((flags & ~PacketFlags.SUPPORTED) != 0) { throw new IllegalArgumentException(); }
+        int userId = source.getInt(bodyOffset + 4);
+        int deadlineMillis = 0;
+        if (PacketFlags.has(flags, PacketFlags.DEADLINE)) {
+            if (bodyLength < MIN_BODY_LENGTH + DEADLINE_SIZE) { throw new IllegalArgumentException(); }
+            deadlineMillis = source.getInt(bodyOffset + MIN_BODY_LENGTH);
+            if (deadlineMillis <= 0) { throw new IllegalArgumentException(); }
+        }
 
-        ByteBuffer buffer = ByteBuffer.allocate(packetSize).order(ByteOrder.BIG_ENDIAN);
+        CommandType command = CommandType.fromCode(PacketFlags.commandCodeOf(commandType));
 
-        ByteBuffer headerBuffer = ByteBuffer.allocate(1 + 1 + 8 + 4).order(ByteOrder.BIG_ENDIAN);
-        headerBuffer.put(getMagicByte())        // bMagic
-                .put(getSourceId())             // bSrc
-                .putLong(getPacketId())         // bPktId
-                .putInt(msgSize);               // wLen
+        ByteBuffer received = source.slice(bodyOffset, bodyLength);
+        source.position(bodyOffset + bodyLength + CHECKSUM_SIZE);
 
-        PacketBody<T> body = getBody();
-        byte[] bodyData = body.toByteArray();
+        PacketBody<T> body = new PacketBody<>(command, userId, flags, deadlineMillis, received, dataClass);
+        DataPacket<T> packet = new DataPacket<>(magicByte, sourceId, packetId, body, connectionId);
+        packet.bodyChecksum = wBodySum;
+        packet.bodyChecksumKnown = true;
+        return packet;
+    }
 
-        buffer.put(headerBuffer.array())    // packet head
-                .putShort(CRC16.sum(headerBuffer.array()))      // packet head checksum
-                .put(bodyData)    // packet body
-                .putShort(CRC16.sum(bodyData));       // packet body checksum
+    private static <T> T readPayload(byte[] message, CommandType command, int flags, Class<T> dataClass) throws IOException {
+        if (PacketFlags.has(flags, PacketFlags.BINARY)) {
+            Class<?> payloadClass = dataClass == Object.class ? payloadRegistry.payloadClass(command) : dataClass;
+            return dataClass.cast(BinaryPayloadCodec.decode(message, payloadClass));
+        }
+        return dataClass.cast(payloadRegistry.readerFor(command, dataClass).readValue(message));
+    }
 
+    public byte[] toByteArray() {
+        ByteBuffer buffer = ByteBuffer.allocate(getFrameSize());
+        encodeInto(buffer);
         return buffer.array();
     }
 
+    // Writes the whole frame at the buffer position, the buffer needs getFrameSize() bytes remaining
+    public void encodeInto(ByteBuffer target) {
+        target.order(ByteOrder.BIG_ENDIAN)
+                .put(getMagicByte())                // bMagic
+                .put(getSourceId())                 // bSrc
+                .putLong(getPacketId())             // bPktId
+                .putInt(getBodyLength())            // wLen
+                .putShort(getHeaderChecksum());     // packet head checksum
+
+        if (body.isEncoded()) {
+            target.put(body.toByteArray())          // packet body
+                    .putShort(getBodyChecksum());   // packet body checksum
+            return;
+        }
+
+        // Nothing cached yet, so the body is encrypted straight into the frame buffer and not kept anywhere else.
+        // Its CRC is, so getBodyChecksum() matches this frame, but the body cannot be encoded a second time.
+        int bodyOffset = target.position();
+        body.writeTo(target);
+        bodyChecksum = CRC16.sum(target, bodyOffset, bodyLength);
+        bodyChecksumKnown = true;
+        target.putShort(bodyChecksum);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (o == null || getClass() != o.getClass()) return false;
@@ -161,18 +260,64 @@ public class DataPacket<T> {
 
     @Override
     public int hashCode() {
-        return Objects.hash(magicByte, sourceId, packetId, bodyLength, headerChecksum, body, bodyChecksum);
+        return Objects.hash(magicByte, sourceId, packetId, bodyLength, headerChecksum, body);
     }
 
     public static class PacketBody<T> {
         private final CommandType command;
         private final int userId;
-        private final T data;
+        private final int deadlineMillis;
+        private T data;
+        private int flags;
 
-        PacketBody(CommandType command, int userId, T data) {
+        // Set while the message of a received body is still encrypted
+        private Class<T> pendingDataClass;
+
+        // Serialized (and, with COMPRESSED, deflated) payload before encryption, built at most once per body
+        private byte[] plain;
+
+        // cType + bUserId + encrypted message, built at most once per body
+        private byte[] encoded;
+
+        // The same bytes of a received body, still in the frame buffer until the first getData()
+        private ByteBuffer received;
+
+        // Set once the encrypted bytes were written out or read without a copy being kept. Encrypting again
+        // would draw a new IV and no longer match the frame that was sent or received.
+        private boolean encryptedOnce;
+
+        PacketBody(CommandType command, int userId, T data, int flags, int deadlineMillis) {
+            this(command, userId, data, flags, deadlineMillis, null);
+        }
+
+        PacketBody(CommandType command, int userId, int flags, int deadlineMillis, ByteBuffer received, Class<T> dataClass) {
+            this.command = command;
+            this.userId = userId;
+            this.flags = flags;
+            this.deadlineMillis = deadlineMillis;
+            this.received = received;
+            this.pendingDataClass = dataClass;
+        }
+
+        PacketBody(CommandType command, int userId, T data, int flags, int deadlineMillis, byte[] encoded) {
+            if ((flags & ~PacketFlags.SUPPORTED) != 0) {
+                throw new IllegalArgumentException("Unsupported packet flags: " + flags);
+            }
+            if (deadlineMillis < 0) {
+                throw new IllegalArgumentException("Deadline must not be negative: " + deadlineMillis);
+            }
+            // The flag follows the deadline, it says whether the extra field is there
+            flags = deadlineMillis > 0 ? flags | PacketFlags.DEADLINE : flags & ~PacketFlags.DEADLINE;
+            // Types without a binary schema quietly stay on JSON, the flag tells the receiver which one was used
+            if (PacketFlags.has(flags, PacketFlags.BINARY) && !BinaryPayloadCodec.supports(data)) {
+                flags &= ~PacketFlags.BINARY;
+            }
             this.command = command;
             this.userId = userId;
             this.data = data;
+            this.flags = flags;
+            this.deadlineMillis = deadlineMillis;
+            this.encoded = encoded;
         }
 
         public CommandType getCommand() {
@@ -184,41 +329,130 @@ public class DataPacket<T> {
         }
 
         public T getData() {
+            if (pendingDataClass != null) {
+                data = decryptData();
+                pendingDataClass = null;
+                // The frame buffer may go back to its pool from here on
+                if (received != null) {
+                    received = null;
+                    encryptedOnce = true;
+                }
+            }
             return data;
         }
 
-        private int calcBodyLength() {
-            return getDataInBytes().length + 4 + 4;
+        public boolean isDataDecoded() {
+            return pendingDataClass == null;
         }
 
-        private byte[] getDataInBytes() {
+        private T decryptData() {
             try {
-                byte[] bytes = objectMapper.writeValueAsBytes(data);
-                return DataEncryption.encrypt(bytes);
-            } catch (JsonProcessingException e) {
+                int messageOffset = getMessageOffset();
+                byte[] message = encoded != null
+                        ? DataEncryption.decrypt(encoded, messageOffset, encoded.length - messageOffset, getCipherMode())
+                        : DataEncryption.decrypt(received.slice(messageOffset, received.remaining() - messageOffset), getCipherMode());
+                if (PacketFlags.has(flags, PacketFlags.COMPRESSED)) {
+                    message = PayloadCompression.decompress(message);
+                }
+                return readPayload(message, command, flags, pendingDataClass);
+            } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         }
 
+        public int getFlags() {
+            return flags;
+        }
+
+        public CipherMode getCipherMode() {
+            return CipherMode.fromFlags(flags);
+        }
+
+        public int getDeadlineMillis() {
+            return deadlineMillis;
+        }
+
+        // cType, bUserId and, with a deadline, wDeadline come before the encrypted message
+        private int getMessageOffset() {
+            return PacketFlags.has(flags, PacketFlags.DEADLINE) ? MIN_BODY_LENGTH + DEADLINE_SIZE : MIN_BODY_LENGTH;
+        }
+
+        private byte[] getPlainBytes() {
+            if (plain == null) {
+                if (PacketFlags.has(flags, PacketFlags.BINARY)) {
+                    plain = BinaryPayloadCodec.encode(data);
+                } else {
+                    try {
+                        plain = objectMapper.writeValueAsBytes(data);
+                    } catch (JsonProcessingException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+
+                // Settled here, before the length is known, so the header never disagrees with the body
+                if (PacketFlags.has(flags, PacketFlags.COMPRESSED)) {
+                    byte[] compressed = PayloadCompression.compress(plain);
+                    if (compressed != null) {
+                        plain = compressed;
+                    } else {
+                        flags &= ~PacketFlags.COMPRESSED;
+                    }
+                }
+            }
+            return plain;
+        }
+
+        private int getEncodedLength() {
+            if (encoded != null) {
+                return encoded.length;
+            }
+            if (received != null) {
+                return received.remaining();
+            }
+            return getMessageOffset() + DataEncryption.encryptedSize(getPlainBytes().length, getCipherMode());
+        }
+
+        private boolean isEncoded() {
+            return encoded != null || received != null;
+        }
+
+        private void writeTo(ByteBuffer target) {
+            if (encryptedOnce) {
+                throw new IllegalStateException("The body was already encrypted and not kept, it cannot be encoded again");
+            }
+            encryptedOnce = true;
+            target.putInt(PacketFlags.pack(flags, command.getCode()))
+                    .putInt(userId);
+            if (deadlineMillis > 0) {
+                target.putInt(deadlineMillis);
+            }
+            DataEncryption.encrypt(ByteBuffer.wrap(getPlainBytes()), target, getCipherMode());
+        }
+
         public byte[] toByteArray() {
-            byte[] dataBytes = getDataInBytes();
-            ByteBuffer buffer = ByteBuffer.allocate(calcBodyLength()).order(ByteOrder.BIG_ENDIAN);
-            buffer.putInt(command.getCode())
-                    .putInt(userId)
-                    .put(dataBytes);
-            return buffer.array();
+            if (encoded == null && received != null) {
+                encoded = new byte[received.remaining()];
+                received.get(0, encoded);
+                received = null;
+            } else if (encoded == null) {
+                ByteBuffer buffer = ByteBuffer.allocate(getEncodedLength()).order(ByteOrder.BIG_ENDIAN);
+                writeTo(buffer);
+                encoded = buffer.array();
+            }
+            return encoded;
         }
 
         @Override
         public boolean equals(Object o) {
             if (o == null || getClass() != o.getClass()) return false;
             PacketBody<?> that = (PacketBody<?>) o;
-            return command == that.command && userId == that.userId && Objects.equals(data, that.data);
+            return command == that.command && userId == that.userId && flags == that.flags && deadlineMillis == that.deadlineMillis
+                    && Objects.equals(getData(), that.getData());
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(command, userId, data);
+            return Objects.hash(command, userId, flags, deadlineMillis, getData());
         }
     }
 }
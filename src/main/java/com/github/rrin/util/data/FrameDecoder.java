@@ -0,0 +1,128 @@
+package com.github.rrin.util.data;
+
+import com.github.rrin.util.CRC16;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class FrameDecoder {
+    public static final int DEFAULT_MAX_FRAME_SIZE = 1024 * 1024;
+    private static final int INITIAL_CAPACITY = 2048;
+    private static final byte[] EMPTY = new byte[0];
+
+    private final int maxFrameSize;
+
+    // Bytes in [start, end) are received but not yet emitted as a frame
+    private byte[] buffer = EMPTY;
+    private int start;
+    private int end;
+
+    public FrameDecoder() {
+        this(DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    public FrameDecoder(int maxFrameSize) {
+        if (maxFrameSize < DataPacket.HEADER_SIZE + DataPacket.MIN_BODY_LENGTH + DataPacket.CHECKSUM_SIZE) {
+            throw new IllegalArgumentException("Max frame size is too small: " + maxFrameSize);
+        }
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    public void append(byte[] chunk, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(chunk, offset, buffer, end, length);
+        end += length;
+    }
+
+    public byte[] nextFrame() throws IOException {
+        int frameSize = pendingFrameSize();
+        if (frameSize < 0) {
+            return null;
+        }
+
+        byte[] frame = Arrays.copyOfRange(buffer, start, start + frameSize);
+        consume(frameSize);
+        return frame;
+    }
+
+    // Copies the next complete frame into a buffer taken from the pool, ready for reading
+    public ByteBuffer nextFrame(BufferPool pool) throws IOException {
+        int frameSize = pendingFrameSize();
+        if (frameSize < 0) {
+            return null;
+        }
+
+        ByteBuffer frame = pool.acquire(frameSize);
+        frame.put(buffer, start, frameSize).flip();
+        consume(frameSize);
+        return frame;
+    }
+
+    public int bufferedBytes() {
+        return end - start;
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    // Returns the size of the complete frame at the head of the buffer, or -1 if more bytes are needed
+    private int pendingFrameSize() throws IOException {
+        int available = end - start;
+        if (available < DataPacket.HEADER_SIZE) {
+            return -1;
+        }
+
+        if (buffer[start] != DataPacket.MAGIC_BYTE) {
+            throw new IOException("Invalid magic byte: " + String.format("0x%02X", buffer[start]));
+        }
+
+        short headerChecksum = (short) (((buffer[start + 14] & 0xFF) << 8) | (buffer[start + 15] & 0xFF));
+        if (headerChecksum != CRC16.sum(buffer, start, 14)) {
+            throw new IOException("Header checksum mismatch");
+        }
+
+        int bodyLength = ((buffer[start + 10] & 0xFF) << 24)
+                | ((buffer[start + 11] & 0xFF) << 16)
+                | ((buffer[start + 12] & 0xFF) << 8)
+                | (buffer[start + 13] & 0xFF);
+
+        long frameSize = (long) DataPacket.HEADER_SIZE + bodyLength + DataPacket.CHECKSUM_SIZE;
+        if (bodyLength < DataPacket.MIN_BODY_LENGTH || frameSize > maxFrameSize) {
+            throw new IOException("Invalid frame length: " + frameSize + " (max " + maxFrameSize + ")");
+        }
+
+        return available >= frameSize ? (int) frameSize : -1;
+    }
+
+    private void consume(int length) {
+        start += length;
+        if (start == end) {
+            start = 0;
+            end = 0;
+        }
+    }
+
+    private void ensureCapacity(int incoming) {
+        if (end + incoming <= buffer.length) {
+            return;
+        }
+
+        int pending = end - start;
+        if (pending + incoming <= buffer.length) {
+            // Enough room once already emitted frames are dropped from the front
+            System.arraycopy(buffer, start, buffer, 0, pending);
+        } else {
+            int capacity = Math.max(INITIAL_CAPACITY, buffer.length);
+            while (capacity < pending + incoming) {
+                capacity *= 2;
+            }
+            byte[] grown = new byte[capacity];
+            System.arraycopy(buffer, start, grown, 0, pending);
+            buffer = grown;
+        }
+        start = 0;
+        end = pending;
+    }
+}
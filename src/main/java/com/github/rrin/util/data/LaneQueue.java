@@ -0,0 +1,360 @@
+package com.github.rrin.util.data;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+// Bounded queue with one FIFO lane per priority class. Consumers pick among the non-empty lanes by smooth
+// weighted round robin: while every lane is backlogged lane i gets weights[i] of every sum(weights) turns,
+// interleaved rather than in bursts, and an empty lane does not save up turns for later.
+// Elements of different lanes can therefore leave in a different order than they came in. With a key function
+// elements of one key never do: while a key has elements queued, later ones join the same lane behind them.
+public class LaneQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+    // The queued elements of one key, all in the same lane
+    private static final class Run {
+        final int lane;
+        int queued;
+
+        Run(int lane) {
+            this.lane = lane;
+        }
+    }
+
+    private final List<ArrayDeque<E>> lanes;
+    private final int[] weights;
+    private final int[] credits;
+    private final int laneCapacity;
+    private final ToIntFunction<? super E> laneOf;
+    // Null when there are no keys to keep in order
+    private final ToLongFunction<? super E> keyOf;
+    private final LongObjectMap<Run> runs = new LongObjectMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition[] notFull;
+    private int count;
+
+    public LaneQueue(int laneCapacity, int[] weights, ToIntFunction<? super E> laneOf) {
+        this(laneCapacity, weights, laneOf, null);
+    }
+
+    public LaneQueue(int laneCapacity, int[] weights, ToIntFunction<? super E> laneOf, ToLongFunction<? super E> keyOf) {
+        if (laneCapacity < 1) {
+            throw new IllegalArgumentException("Lane capacity must be positive: " + laneCapacity);
+        }
+        for (int weight : weights) {
+            if (weight < 1) {
+                throw new IllegalArgumentException("Lane weights must be positive: " + weight);
+            }
+        }
+        this.lanes = new ArrayList<>(weights.length);
+        this.notFull = new Condition[weights.length];
+        for (int i = 0; i < weights.length; i++) {
+            lanes.add(new ArrayDeque<>());
+            notFull[i] = lock.newCondition();
+        }
+        this.weights = weights.clone();
+        this.credits = new int[weights.length];
+        this.laneCapacity = laneCapacity;
+        this.laneOf = laneOf;
+        this.keyOf = keyOf;
+    }
+
+    public int laneCount() {
+        return lanes.size();
+    }
+
+    public int laneSize(int lane) {
+        lock.lock();
+        try {
+            return lanes.get(lane).size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(E e) {
+        Objects.requireNonNull(e);
+        lock.lock();
+        try {
+            int lane = laneFor(e);
+            if (lanes.get(lane).size() >= laneCapacity) {
+                return false;
+            }
+            enqueue(lane, e);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        Objects.requireNonNull(e);
+        lock.lockInterruptibly();
+        try {
+            int lane;
+            // The lane is looked up again after every wait, the key's run may have drained meanwhile
+            while (lanes.get(lane = laneFor(e)).size() >= laneCapacity) {
+                notFull[lane].await();
+            }
+            enqueue(lane, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        Objects.requireNonNull(e);
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            int lane;
+            while (lanes.get(lane = laneFor(e)).size() >= laneCapacity) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull[lane].awaitNanos(nanos);
+            }
+            enqueue(lane, e);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E poll() {
+        lock.lock();
+        try {
+            return count == 0 ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The element the next poll() would return
+    @Override
+    public E peek() {
+        lock.lock();
+        try {
+            return count == 0 ? null : lanes.get(nextLane()).peekFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return lanes.size() * laneCapacity - count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException("Cannot drain a queue into itself");
+        }
+        lock.lock();
+        try {
+            int drained = 0;
+            while (drained < maxElements && count > 0) {
+                c.add(dequeue());
+                drained++;
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Iterates a snapshot lane by lane, not in the order poll() would return the elements
+    @Override
+    public Iterator<E> iterator() {
+        List<E> snapshot = new ArrayList<>();
+        lock.lock();
+        try {
+            for (ArrayDeque<E> lane : lanes) {
+                snapshot.addAll(lane);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return new Iterator<>() {
+            private int next;
+            private E last;
+
+            @Override
+            public boolean hasNext() {
+                return next < snapshot.size();
+            }
+
+            @Override
+            public E next() {
+                if (next >= snapshot.size()) {
+                    throw new NoSuchElementException();
+                }
+                return last = snapshot.get(next++);
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                removeElement(last);
+                last = null;
+            }
+        };
+    }
+
+    private int laneFor(E e) {
+        if (keyOf != null) {
+            Run run = runs.get(keyOf.applyAsLong(e));
+            if (run != null) {
+                return run.lane;
+            }
+        }
+        return laneOf.applyAsInt(e);
+    }
+
+    private void enqueue(int lane, E e) {
+        lanes.get(lane).addLast(e);
+        if (keyOf != null) {
+            long key = keyOf.applyAsLong(e);
+            Run run = runs.get(key);
+            if (run == null) {
+                run = new Run(lane);
+                runs.put(key, run);
+            }
+            run.queued++;
+        }
+        count++;
+        notEmpty.signal();
+    }
+
+    private void leftQueue(int lane, E e) {
+        if (keyOf != null) {
+            long key = keyOf.applyAsLong(e);
+            Run run = runs.get(key);
+            if (run != null && --run.queued == 0) {
+                runs.remove(key);
+            }
+        }
+        count--;
+        notFull[lane].signal();
+    }
+
+    // Removes this very element wherever it is queued, for Iterator.remove()
+    private void removeElement(E e) {
+        lock.lock();
+        try {
+            for (int lane = 0; lane < lanes.size(); lane++) {
+                Iterator<E> it = lanes.get(lane).iterator();
+                while (it.hasNext()) {
+                    if (it.next() == e) {
+                        it.remove();
+                        if (lanes.get(lane).isEmpty()) {
+                            credits[lane] = 0;
+                        }
+                        leftQueue(lane, e);
+                        return;
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private E dequeue() {
+        int next = nextLane();
+        int total = 0;
+        for (int i = 0; i < lanes.size(); i++) {
+            if (!lanes.get(i).isEmpty()) {
+                credits[i] += weights[i];
+                total += weights[i];
+            }
+        }
+        credits[next] -= total;
+
+        E e = lanes.get(next).pollFirst();
+        if (lanes.get(next).isEmpty()) {
+            credits[next] = 0;
+        }
+        leftQueue(next, e);
+        return e;
+    }
+
+    // The non-empty lane with the most credit once every non-empty lane is paid its weight, ties go to the lower lane
+    private int nextLane() {
+        int next = -1;
+        for (int i = 0; i < lanes.size(); i++) {
+            if (!lanes.get(i).isEmpty() && (next < 0 || credits[i] + weights[i] > credits[next] + weights[next])) {
+                next = i;
+            }
+        }
+        return next;
+    }
+}
@@ -0,0 +1,160 @@
+package com.github.rrin.util.data;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+// Open-addressing map from primitive long keys, with no boxed keys or entry objects. Linear probing over
+// parallel arrays, removal shifts the following run back instead of leaving tombstones. Not thread-safe.
+public class LongObjectMap<V> {
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    // A null value marks a free slot, so every key including 0 can be stored
+    private V[] values;
+    private int mask;
+    private int size;
+
+    public LongObjectMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongObjectMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public V get(long key) {
+        for (int slot = home(key); values[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+        }
+        return null;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    // Returns the previous value of the key, or null
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new NullPointerException("LongObjectMap does not store null values");
+        }
+        int slot = home(key);
+        for (; values[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                V previous = values[slot];
+                values[slot] = value;
+                return previous;
+            }
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        // Kept at most half full, probe runs stay short
+        if (++size > (mask + 1) / 2) {
+            rehash((mask + 1) * 2);
+        }
+        return null;
+    }
+
+    public V remove(long key) {
+        for (int slot = home(key); values[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                V removed = values[slot];
+                delete(slot);
+                return removed;
+            }
+        }
+        return null;
+    }
+
+    // Returns the number of entries removed
+    public int removeIf(Predicate<? super V> filter) {
+        // Collected first, a removal can shift entries the scan has not reached yet into slots it has passed
+        long[] doomed = new long[size];
+        int count = 0;
+        for (int slot = 0; slot <= mask; slot++) {
+            if (values[slot] != null && filter.test(values[slot])) {
+                doomed[count++] = keys[slot];
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            remove(doomed[i]);
+        }
+        return count;
+    }
+
+    public void forEachValue(Consumer<? super V> action) {
+        for (int slot = 0; slot <= mask; slot++) {
+            if (values[slot] != null) {
+                action.accept(values[slot]);
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    private int home(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 33) & mask;
+    }
+
+    // Moves every later entry of the run that may not sit past the gap back into it
+    private void delete(int gap) {
+        values[gap] = null;
+        size--;
+        for (int slot = (gap + 1) & mask; values[slot] != null; slot = (slot + 1) & mask) {
+            int home = home(keys[slot]);
+            // The entry may stay only if its home lies cyclically in (gap, slot]
+            boolean stays = gap <= slot ? gap < home && home <= slot : gap < home || home <= slot;
+            if (!stays) {
+                keys[gap] = keys[slot];
+                values[gap] = values[slot];
+                values[slot] = null;
+                gap = slot;
+            }
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        V[] oldValues = values;
+        allocate(capacity);
+        for (int slot = 0; slot < oldValues.length; slot++) {
+            if (oldValues[slot] != null) {
+                int target = home(oldKeys[slot]);
+                while (values[target] != null) {
+                    target = (target + 1) & mask;
+                }
+                keys[target] = oldKeys[slot];
+                values[target] = oldValues[slot];
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = (V[]) new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2L) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
@@ -0,0 +1,56 @@
+package com.github.rrin.util.data;
+
+import com.github.rrin.dto.CommandResponse;
+import com.github.rrin.util.CRC16;
+import com.github.rrin.util.CommandType;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// A 503 answer that skips the processor and the cipher: one frame per response flags is encrypted up front,
+// each rejected request only patches its source, packet and user id into a copy and redoes both CRCs
+public class OverloadResponse {
+    public static final CommandResponse RESPONSE = new CommandResponse(503, "Service Unavailable", "Server is overloaded, try again later");
+
+    private static final int USER_ID_OFFSET = DataPacket.HEADER_SIZE + 4;
+
+    // Indexed by the flags a response mirrors from its request
+    private final byte[][] templates = new byte[PacketFlags.forResponse(PacketFlags.SUPPORTED) + 1][];
+
+    public OverloadResponse() {
+        for (int flags = 0; flags < templates.length; flags++) {
+            templates[flags] = new DataPacket<>(DataPacket.MAGIC_BYTE, (byte) 0, 0, CommandType.RESPONSE, 0, RESPONSE, 0, flags)
+                    .toByteArray();
+        }
+    }
+
+    // Builds the rejection of the request frame at the buffer position, or returns null when the header
+    // is broken or the frame is itself a response. The request buffer is left untouched.
+    public ByteBuffer encodeFor(ByteBuffer request, BufferPool pool) {
+        int offset = request.position();
+        if (request.remaining() < USER_ID_OFFSET + 4 || request.get(offset) != DataPacket.MAGIC_BYTE) {
+            return null;
+        }
+        request.order(ByteOrder.BIG_ENDIAN);
+        if (request.getShort(offset + 14) != CRC16.sum(request, offset, 14)) {
+            return null;
+        }
+
+        int cType = request.getInt(offset + DataPacket.HEADER_SIZE);
+        if (PacketFlags.commandCodeOf(cType) == CommandType.RESPONSE.getCode()) {
+            return null;
+        }
+        byte[] template = templates[PacketFlags.forResponse(PacketFlags.flagsOf(cType))];
+
+        ByteBuffer response = pool.acquire(template.length).order(ByteOrder.BIG_ENDIAN);
+        int start = response.position();
+        int bodyLength = template.length - DataPacket.HEADER_SIZE - DataPacket.CHECKSUM_SIZE;
+        response.put(template)
+                .put(start + 1, request.get(offset + 1))
+                .putLong(start + 2, request.getLong(offset + 2))
+                .putInt(start + USER_ID_OFFSET, request.getInt(offset + USER_ID_OFFSET));
+        response.putShort(start + 14, CRC16.sum(response, start, 14))
+                .putShort(start + DataPacket.HEADER_SIZE + bodyLength, CRC16.sum(response, start + DataPacket.HEADER_SIZE, bodyLength));
+        return response.flip();
+    }
+}
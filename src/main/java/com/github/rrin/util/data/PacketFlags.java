@@ -0,0 +1,46 @@
+package com.github.rrin.util.data;
+
+// Flags travel in the high byte of cType, the lower three bytes hold the command code
+public final class PacketFlags {
+    public static final int NONE = 0;
+
+    // Payload is encrypted with AES/GCM instead of AES/CBC
+    public static final int GCM = 0x01;
+
+    // Payload is written by BinaryPayloadCodec instead of JSON
+    public static final int BINARY = 0x02;
+
+    // Payload is deflated before encryption (PayloadCompression), the sender drops it when it does not pay off
+    public static final int COMPRESSED = 0x04;
+
+    // cType and bUserId are followed by the number of milliseconds the client will wait for the answer,
+    // the server drops the request once that has passed. Responses never carry it.
+    public static final int DEADLINE = 0x08;
+
+    static final int SUPPORTED = GCM | BINARY | COMPRESSED | DEADLINE;
+
+    // Flags a response inherits from the request it answers, a client that sent compressed can read compressed
+    private static final int MIRRORED = GCM | BINARY | COMPRESSED;
+
+    private PacketFlags() {}
+
+    public static boolean has(int flags, int flag) {
+        return (flags & flag) != 0;
+    }
+
+    public static int forResponse(int requestFlags) {
+        return requestFlags & MIRRORED;
+    }
+
+    static int pack(int flags, int commandCode) {
+        return (flags << 24) | commandCode;
+    }
+
+    static int flagsOf(int cType) {
+        return cType >>> 24;
+    }
+
+    static int commandCodeOf(int cType) {
+        return cType & 0x00FFFFFF;
+    }
+}
@@ -0,0 +1,72 @@
+package com.github.rrin.util.data;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.github.rrin.dto.AddProductToGroup;
+import com.github.rrin.dto.Batch;
+import com.github.rrin.dto.CommandResponse;
+import com.github.rrin.dto.IsRunning;
+import com.github.rrin.dto.group.*;
+import com.github.rrin.dto.product.*;
+import com.github.rrin.util.CommandType;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+// Maps every command to the DTO its payload carries, so payloads are read straight into the record
+public class PayloadRegistry {
+    private final ObjectMapper objectMapper;
+    private final Map<CommandType, Class<?>> payloadClasses = new EnumMap<>(CommandType.class);
+    private final Map<CommandType, ObjectReader> readers = new EnumMap<>(CommandType.class);
+
+    public PayloadRegistry(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+
+        // Product operations
+        register(CommandType.CREATE_PRODUCT, CreateProduct.class);
+        register(CommandType.GET_PRODUCT, GetProduct.class);
+        register(CommandType.UPDATE_PRODUCT, UpdateProduct.class);
+        register(CommandType.DELETE_PRODUCT, DeleteProduct.class);
+        register(CommandType.SEARCH_PRODUCTS, SearchProducts.class);
+        register(CommandType.GET_ALL_PRODUCTS, Object.class);
+
+        // Group operations
+        register(CommandType.CREATE_GROUP, CreateGroup.class);
+        register(CommandType.GET_GROUP, GetGroup.class);
+        register(CommandType.UPDATE_GROUP, UpdateGroup.class);
+        register(CommandType.DELETE_GROUP, DeleteGroup.class);
+        register(CommandType.GET_ALL_GROUPS, Object.class);
+
+        // Product-Group relationship operations
+        register(CommandType.ADD_PRODUCT_TO_GROUP, AddProductToGroup.class);
+        register(CommandType.REMOVE_PRODUCT_FROM_GROUP, RemoveProductFromGroup.class);
+        register(CommandType.GET_PRODUCT_GROUPS, GetProductGroups.class);
+        register(CommandType.GET_GROUP_PRODUCTS, GetGroupProducts.class);
+
+        // System operations
+        register(CommandType.IS_RUNNING, IsRunning.class);
+        register(CommandType.RESPONSE, CommandResponse.class);
+        register(CommandType.CLEAR_DB, Object.class);
+        register(CommandType.BATCH, Batch.class);
+    }
+
+    private void register(CommandType command, Class<?> payloadClass) {
+        payloadClasses.put(command, payloadClass);
+        readers.put(command, objectMapper.readerFor(payloadClass));
+    }
+
+    public Class<?> payloadClass(CommandType command) {
+        return payloadClasses.getOrDefault(command, Object.class);
+    }
+
+    // Object.class means "whatever the command carries", any other class is read as asked
+    public ObjectReader readerFor(CommandType command, Class<?> dataClass) {
+        if (dataClass == Object.class || dataClass == payloadClasses.get(command)) {
+            ObjectReader reader = readers.get(command);
+            if (reader != null) {
+                return reader;
+            }
+        }
+        return objectMapper.readerFor(dataClass);
+    }
+}
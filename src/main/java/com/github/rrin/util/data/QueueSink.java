@@ -0,0 +1,32 @@
+package com.github.rrin.util.data;
+
+import java.util.concurrent.BlockingQueue;
+
+// The producer side of a queue, which is all a receiver needs. A ShardedQueue has only this side,
+// its consumers take from their own shard.
+public interface QueueSink<E> {
+    boolean offer(E e);
+
+    void put(E e) throws InterruptedException;
+
+    int size();
+
+    static <E> QueueSink<E> of(BlockingQueue<E> queue) {
+        return new QueueSink<>() {
+            @Override
+            public boolean offer(E e) {
+                return queue.offer(e);
+            }
+
+            @Override
+            public void put(E e) throws InterruptedException {
+                queue.put(e);
+            }
+
+            @Override
+            public int size() {
+                return queue.size();
+            }
+        };
+    }
+}
@@ -1,11 +1,38 @@
 package com.github.rrin.util.data;
 
+import com.github.rrin.util.metrics.StageTimestamps;
+
+import java.nio.ByteBuffer;
+
 public class RawData {
-    public final byte[] data;
+    public final ByteBuffer buffer;
     public final Long connectionId;
+    // Stamped when the frame arrived, a response carries the timestamps of its request
+    public final StageTimestamps timestamps;
+    private final BufferPool pool;
+    private boolean released;
 
     public RawData(byte[] data, Long connectionId) {
-        this.data = data;
+        this(ByteBuffer.wrap(data), connectionId, null);
+    }
+
+    public RawData(ByteBuffer buffer, Long connectionId, BufferPool pool) {
+        this(buffer, connectionId, pool, new StageTimestamps());
+    }
+
+    public RawData(ByteBuffer buffer, Long connectionId, BufferPool pool, StageTimestamps timestamps) {
+        this.buffer = buffer;
         this.connectionId = connectionId;
+        this.pool = pool;
+        this.timestamps = timestamps;
+    }
+
+    // Hands the buffer back to its pool, the data must not be read afterwards. Only the first call does,
+    // a pool holding the same buffer twice would give it to two owners.
+    public void release() {
+        if (pool != null && !released) {
+            released = true;
+            pool.release(buffer);
+        }
     }
 }
@@ -1,18 +1,27 @@
 package com.github.rrin.util.data;
 
+import com.github.rrin.util.metrics.StageTimestamps;
+
 public class RequestData {
     private byte sourceId;
     private long packetId;
     private int userId;
     private Object response;
     private final long connectionId;
+    private int flags;
+    private StageTimestamps timestamps;
 
     public RequestData(byte sourceId, long packetId, int userId, Object response, long connectionId) {
+        this(sourceId, packetId, userId, response, connectionId, PacketFlags.NONE);
+    }
+
+    public RequestData(byte sourceId, long packetId, int userId, Object response, long connectionId, int flags) {
         this.sourceId = sourceId;
         this.packetId = packetId;
         this.userId = userId;
         this.response = response;
         this.connectionId = connectionId;
+        this.flags = flags;
     }
 
     public long getConnectionId() {
@@ -50,4 +59,20 @@ public class RequestData {
     public void setResponse(Object response) {
         this.response = response;
     }
-}
\ No newline at end of file
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public void setFlags(int flags) {
+        this.flags = flags;
+    }
+
+    public StageTimestamps getTimestamps() {
+        return timestamps;
+    }
+
+    public void setTimestamps(StageTimestamps timestamps) {
+        this.timestamps = timestamps;
+    }
+}
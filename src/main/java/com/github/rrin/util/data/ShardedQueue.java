@@ -0,0 +1,63 @@
+package com.github.rrin.util.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.IntFunction;
+import java.util.function.ToLongFunction;
+
+// A set of queues that looks like one to producers. Every element goes to the shard picked by its key,
+// so elements with the same key stay in order. Consumers take from their own shard(i), there is no consumer side here.
+public class ShardedQueue<E> implements QueueSink<E> {
+    private final List<BlockingQueue<E>> shards = new ArrayList<>();
+    private final ToLongFunction<? super E> keyFunction;
+
+    public ShardedQueue(int shardCount, ToLongFunction<? super E> keyFunction, IntFunction<BlockingQueue<E>> shardFactory) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Shard count must be positive: " + shardCount);
+        }
+        this.keyFunction = keyFunction;
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(shardFactory.apply(i));
+        }
+    }
+
+    public int shardCount() {
+        return shards.size();
+    }
+
+    public BlockingQueue<E> shard(int index) {
+        return shards.get(index);
+    }
+
+    private BlockingQueue<E> shardFor(E e) {
+        return shards.get(Math.floorMod(keyFunction.applyAsLong(e), shards.size()));
+    }
+
+    @Override
+    public boolean offer(E e) {
+        return shardFor(e).offer(e);
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        shardFor(e).put(e);
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (BlockingQueue<E> shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    public int remainingCapacity() {
+        long remaining = 0;
+        for (BlockingQueue<E> shard : shards) {
+            remaining += shard.remainingCapacity();
+        }
+        return (int) Math.min(Integer.MAX_VALUE, remaining);
+    }
+}
@@ -0,0 +1,271 @@
+package com.github.rrin.util.data;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+// Bounded lock-free ring buffer between two pipeline stages. Any number of producers is allowed
+// (one when singleProducer is set, which skips the CAS), but only one thread may consume.
+// Slots and sequences are preallocated, so offer and poll never allocate.
+public class StageQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+    // 128 bytes between the counters, so they never share a cache line or an adjacent-line prefetch pair
+    private static final int PAD = 16;
+    private static final int HEAD = PAD;
+    private static final int TAIL = 2 * PAD;
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final Object[] slots;
+    // Vyukov sequences: slot i is free for position p when its sequence is p, filled when it is p + 1
+    private final AtomicLongArray sequences;
+    private final AtomicLongArray counters = new AtomicLongArray(3 * PAD);
+    private final AtomicReference<Thread> waitingConsumer = new AtomicReference<>();
+    private final int mask;
+    private final boolean singleProducer;
+    private final WaitStrategy waitStrategy;
+
+    public StageQueue(int capacity) {
+        this(capacity, false, WaitStrategy.PARK);
+    }
+
+    public StageQueue(int capacity, boolean singleProducer, WaitStrategy waitStrategy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        // At least two slots, with one the sequence of a filled slot equals the free sequence of the next position
+        int size = Math.max(2, Integer.highestOneBit(capacity));
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new Object[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+        this.singleProducer = singleProducer;
+        this.waitStrategy = Objects.requireNonNull(waitStrategy);
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    @Override
+    public boolean offer(E e) {
+        Objects.requireNonNull(e);
+        long position;
+        int index;
+        while (true) {
+            position = counters.get(TAIL);
+            index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference < 0) {
+                return false;
+            }
+            if (difference == 0) {
+                if (singleProducer) {
+                    counters.lazySet(TAIL, position + 1);
+                    break;
+                }
+                if (counters.compareAndSet(TAIL, position, position + 1)) {
+                    break;
+                }
+            }
+            // Another producer claimed this position, retry with the new tail
+        }
+        slots[index] = e;
+        // A volatile write, paired with the consumer's volatile read of waitingConsumer below, so a parking consumer is never missed
+        sequences.set(index, position + 1);
+
+        if (waitStrategy == WaitStrategy.PARK) {
+            Thread consumer = waitingConsumer.get();
+            if (consumer != null) {
+                LockSupport.unpark(consumer);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long position = counters.get(HEAD);
+        int index = (int) position & mask;
+        if (sequences.get(index) != position + 1) {
+            return null;
+        }
+        E e = (E) slots[index];
+        slots[index] = null;
+        sequences.lazySet(index, position + slots.length);
+        counters.lazySet(HEAD, position + 1);
+        return e;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        long position = counters.get(HEAD);
+        int index = (int) position & mask;
+        if (sequences.get(index) != position + 1) {
+            return null;
+        }
+        return (E) slots[index];
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        while (!offer(e)) {
+            awaitSpace();
+        }
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!offer(e)) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            awaitSpace();
+        }
+        return true;
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        while (true) {
+            E e = poll();
+            if (e != null) {
+                return e;
+            }
+            awaitElement(0);
+        }
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            E e = poll();
+            if (e != null) {
+                return e;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            awaitElement(remaining);
+        }
+    }
+
+    // A full queue is backpressure and rare, so producers only ever back off and retry
+    private void awaitSpace() throws InterruptedException {
+        checkInterrupted();
+        switch (waitStrategy) {
+            case BUSY_SPIN -> Thread.onSpinWait();
+            case YIELD -> Thread.yield();
+            case PARK -> LockSupport.parkNanos(this, FULL_PARK_NANOS);
+        }
+    }
+
+    // Zero nanos waits until a producer signals
+    private void awaitElement(long nanos) throws InterruptedException {
+        checkInterrupted();
+        switch (waitStrategy) {
+            case BUSY_SPIN -> Thread.onSpinWait();
+            case YIELD -> Thread.yield();
+            case PARK -> {
+                waitingConsumer.set(Thread.currentThread());
+                // Re-check after announcing ourselves, an element published before that would not unpark us
+                if (isEmpty()) {
+                    if (nanos > 0) {
+                        LockSupport.parkNanos(this, nanos);
+                    } else {
+                        LockSupport.park(this);
+                    }
+                }
+                waitingConsumer.set(null);
+            }
+        }
+    }
+
+    private static void checkInterrupted() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        long position = counters.get(HEAD);
+        return sequences.get((int) position & mask) != position + 1;
+    }
+
+    @Override
+    public int size() {
+        // Read head first, so a concurrent poll can only make the result smaller, never negative
+        long head = counters.get(HEAD);
+        long tail = counters.get(TAIL);
+        return (int) Math.max(0, Math.min(slots.length, tail - head));
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return slots.length - size();
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException("Cannot drain a queue into itself");
+        }
+        int drained = 0;
+        E e;
+        while (drained < maxElements && (e = poll()) != null) {
+            c.add(e);
+            drained++;
+        }
+        return drained;
+    }
+
+    // Weakly consistent: a snapshot of the elements published between head and tail when it is taken, for
+    // toString, contains and the like. Elements taken meanwhile may be missed, and remove() is not supported.
+    @Override
+    @SuppressWarnings("unchecked")
+    public Iterator<E> iterator() {
+        List<E> snapshot = new ArrayList<>();
+        long head = counters.get(HEAD);
+        long tail = counters.get(TAIL);
+        for (long position = head; position < tail; position++) {
+            int index = (int) position & mask;
+            if (sequences.get(index) != position + 1) {
+                // Claimed but not yet published, or already consumed
+                continue;
+            }
+            E e = (E) slots[index];
+            // The slot may have been consumed and refilled while it was read
+            if (e != null && sequences.get(index) == position + 1) {
+                snapshot.add(e);
+            }
+        }
+        return Collections.unmodifiableList(snapshot).iterator();
+    }
+}
@@ -0,0 +1,12 @@
+package com.github.rrin.util.data;
+
+// How a StageQueue thread waits for an element or for free space
+public enum WaitStrategy {
+    // Lowest latency, keeps a core busy even when the server is idle.
+    // Only worth it when every stage thread has a core of its own, otherwise spinners starve each other.
+    BUSY_SPIN,
+    // Gives the core to other runnable threads between checks
+    YIELD,
+    // Sleeps until a producer wakes the consumer, cheapest when idle
+    PARK
+}
@@ -0,0 +1,83 @@
+package com.github.rrin.util.metrics;
+
+// Counts copied out of a LogLinearHistogram at one moment, later records do not change it
+public class HistogramSnapshot {
+    public static final HistogramSnapshot EMPTY = new HistogramSnapshot(new long[LogLinearHistogram.BUCKETS], 0);
+
+    private final long[] counts;
+    private final long max;
+    private final long count;
+
+    HistogramSnapshot(long[] counts, long max) {
+        this.counts = counts;
+        this.max = max;
+        long total = 0;
+        for (long c : counts) {
+            total += c;
+        }
+        this.count = total;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    // Approximate, every value counts as the top of its bucket
+    public double getMean() {
+        if (count == 0) {
+            return 0;
+        }
+        double sum = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0) {
+                sum += (double) counts[i] * Math.min(LogLinearHistogram.highestValueOf(i), max);
+            }
+        }
+        return sum / count;
+    }
+
+    // The smallest recorded value that at least the given percent of all values are at or below, 0 when empty
+    public long getValueAtPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(LogLinearHistogram.highestValueOf(i), max);
+            }
+        }
+        return max;
+    }
+
+    public long getP50() {
+        return getValueAtPercentile(50);
+    }
+
+    public long getP99() {
+        return getValueAtPercentile(99);
+    }
+
+    public long getP999() {
+        return getValueAtPercentile(99.9);
+    }
+
+    public HistogramSnapshot merge(HistogramSnapshot other) {
+        long[] merged = new long[counts.length];
+        for (int i = 0; i < merged.length; i++) {
+            merged[i] = counts[i] + other.counts[i];
+        }
+        return new HistogramSnapshot(merged, Math.max(max, other.max));
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count + " p50=" + getP50() + " p99=" + getP99() + " p999=" + getP999() + " max=" + max;
+    }
+}
@@ -0,0 +1,144 @@
+package com.github.rrin.util.metrics;
+
+import com.github.rrin.util.CommandType;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Collects per-stage latencies of every answered request, broken down by command, and samples the depth
+// of the watched queues on its own thread. snapshot() copies everything out for reporting.
+public class PipelineMetrics {
+    public static final long DEFAULT_SAMPLE_INTERVAL_MILLIS = 100;
+
+    private static final PipelineStage[] STAGES = PipelineStage.values();
+    private static final CommandType[] COMMANDS = CommandType.values();
+
+    private record WatchedQueue(String name, Collection<?> queue, LogLinearHistogram depths) {}
+
+    // One slot per stage and command. Histograms are created on first use, most servers see few commands.
+    private final AtomicReferenceArray<LogLinearHistogram> latencies = new AtomicReferenceArray<>(STAGES.length * COMMANDS.length);
+    // Requests dropped because their deadline passed, by the stage they were about to enter
+    private final AtomicLongArray expired = new AtomicLongArray(STAGES.length);
+    private final List<WatchedQueue> queues = new CopyOnWriteArrayList<>();
+    private final long sampleIntervalMillis;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private Thread samplerThread;
+
+    public PipelineMetrics() {
+        this(DEFAULT_SAMPLE_INTERVAL_MILLIS);
+    }
+
+    public PipelineMetrics(long sampleIntervalMillis) {
+        if (sampleIntervalMillis < 1) {
+            throw new IllegalArgumentException("Sample interval must be positive: " + sampleIntervalMillis);
+        }
+        this.sampleIntervalMillis = sampleIntervalMillis;
+    }
+
+    public void watchQueue(String name, Collection<?> queue) {
+        queues.add(new WatchedQueue(name, queue, new LogLinearHistogram()));
+    }
+
+    public void start() {
+        if (running.compareAndSet(false, true)) {
+            samplerThread = new Thread(this::runSampler, "MetricsSampler");
+            samplerThread.setDaemon(true);
+            samplerThread.start();
+        }
+    }
+
+    public void stop() {
+        running.set(false);
+        if (samplerThread != null) {
+            samplerThread.interrupt();
+        }
+    }
+
+    // Called once the response of a request is handed to the transport
+    public void recordSent(StageTimestamps timestamps) {
+        // Rejections and frames that never decoded have no command and nothing to break down
+        if (timestamps == null || timestamps.command == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        CommandType command = timestamps.command;
+        record(PipelineStage.DECRYPT_QUEUE, command, timestamps.decryptStart - timestamps.received);
+        record(PipelineStage.DECRYPT, command, timestamps.decryptEnd - timestamps.decryptStart);
+        record(PipelineStage.PROCESS_QUEUE, command, timestamps.processStart - timestamps.decryptEnd);
+        record(PipelineStage.PROCESS, command, timestamps.processEnd - timestamps.processStart);
+        record(PipelineStage.ENCRYPT_QUEUE, command, timestamps.encryptStart - timestamps.processEnd);
+        record(PipelineStage.ENCRYPT, command, timestamps.encryptEnd - timestamps.encryptStart);
+        record(PipelineStage.SEND_QUEUE, command, now - timestamps.encryptEnd);
+        record(PipelineStage.TOTAL, command, now - timestamps.received);
+    }
+
+    public void record(PipelineStage stage, CommandType command, long nanos) {
+        int slot = slotOf(stage, command);
+        LogLinearHistogram histogram = latencies.get(slot);
+        if (histogram == null) {
+            latencies.compareAndSet(slot, null, new LogLinearHistogram());
+            histogram = latencies.get(slot);
+        }
+        histogram.record(nanos);
+    }
+
+    public void recordExpired(PipelineStage stage) {
+        expired.incrementAndGet(stage.ordinal());
+    }
+
+    public void sampleQueues() {
+        for (WatchedQueue watched : queues) {
+            watched.depths.record(watched.queue.size());
+        }
+    }
+
+    public ServerMetrics snapshot() {
+        Map<PipelineStage, Map<CommandType, HistogramSnapshot>> stageLatencies = new EnumMap<>(PipelineStage.class);
+        for (PipelineStage stage : STAGES) {
+            Map<CommandType, HistogramSnapshot> byCommand = new EnumMap<>(CommandType.class);
+            for (CommandType command : COMMANDS) {
+                LogLinearHistogram histogram = latencies.get(slotOf(stage, command));
+                if (histogram != null) {
+                    byCommand.put(command, histogram.snapshot());
+                }
+            }
+            stageLatencies.put(stage, byCommand);
+        }
+
+        Map<PipelineStage, Long> expiredByStage = new EnumMap<>(PipelineStage.class);
+        for (PipelineStage stage : STAGES) {
+            expiredByStage.put(stage, expired.get(stage.ordinal()));
+        }
+
+        Map<String, HistogramSnapshot> queueDepths = new LinkedHashMap<>();
+        Map<String, Integer> currentDepths = new LinkedHashMap<>();
+        for (WatchedQueue watched : queues) {
+            queueDepths.put(watched.name, watched.depths.snapshot());
+            currentDepths.put(watched.name, watched.queue.size());
+        }
+        return new ServerMetrics(stageLatencies, expiredByStage, queueDepths, currentDepths);
+    }
+
+    private static int slotOf(PipelineStage stage, CommandType command) {
+        return stage.ordinal() * COMMANDS.length + command.ordinal();
+    }
+
+    private void runSampler() {
+        while (running.get()) {
+            sampleQueues();
+            try {
+                Thread.sleep(sampleIntervalMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+}
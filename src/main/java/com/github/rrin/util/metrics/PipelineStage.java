@@ -0,0 +1,16 @@
+package com.github.rrin.util.metrics;
+
+// Where a request spends its time, every *_QUEUE is the wait before the stage of the same name picks it up.
+// In FUSED mode the queues after DECRYPT are skipped and their times are close to zero.
+public enum PipelineStage {
+    DECRYPT_QUEUE,
+    DECRYPT,
+    PROCESS_QUEUE,
+    PROCESS,
+    ENCRYPT_QUEUE,
+    ENCRYPT,
+    // Until the sender hands the response to the transport, the socket write itself is not included
+    SEND_QUEUE,
+    // From the complete request frame to the hand-off of its response
+    TOTAL
+}
@@ -0,0 +1,89 @@
+package com.github.rrin.util.metrics;
+
+import com.github.rrin.util.CommandType;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+// Snapshot of a server's PipelineMetrics. Latencies are in nanoseconds, queue depths in items.
+public class ServerMetrics {
+    private final Map<PipelineStage, Map<CommandType, HistogramSnapshot>> latencies;
+    private final Map<PipelineStage, Long> expired;
+    private final Map<String, HistogramSnapshot> queueDepths;
+    private final Map<String, Integer> currentQueueDepths;
+
+    ServerMetrics(Map<PipelineStage, Map<CommandType, HistogramSnapshot>> latencies, Map<PipelineStage, Long> expired,
+                  Map<String, HistogramSnapshot> queueDepths, Map<String, Integer> currentQueueDepths) {
+        this.latencies = latencies;
+        this.expired = expired;
+        this.queueDepths = queueDepths;
+        this.currentQueueDepths = currentQueueDepths;
+    }
+
+    // Commands answered at least once
+    public Set<CommandType> getCommands() {
+        Set<CommandType> commands = EnumSet.noneOf(CommandType.class);
+        commands.addAll(latencies.get(PipelineStage.TOTAL).keySet());
+        return commands;
+    }
+
+    public HistogramSnapshot getLatency(PipelineStage stage, CommandType command) {
+        return latencies.get(stage).getOrDefault(command, HistogramSnapshot.EMPTY);
+    }
+
+    // All commands together
+    public HistogramSnapshot getLatency(PipelineStage stage) {
+        HistogramSnapshot merged = HistogramSnapshot.EMPTY;
+        for (HistogramSnapshot snapshot : latencies.get(stage).values()) {
+            merged = merged.merge(snapshot);
+        }
+        return merged;
+    }
+
+    // Requests dropped before the stage because the client had stopped waiting
+    public long getExpired(PipelineStage stage) {
+        return expired.getOrDefault(stage, 0L);
+    }
+
+    public long getExpired() {
+        long total = 0;
+        for (long count : expired.values()) {
+            total += count;
+        }
+        return total;
+    }
+
+    public Set<String> getQueueNames() {
+        return Collections.unmodifiableSet(queueDepths.keySet());
+    }
+
+    // Every sample taken since the server started
+    public HistogramSnapshot getQueueDepth(String queue) {
+        return queueDepths.getOrDefault(queue, HistogramSnapshot.EMPTY);
+    }
+
+    // Read when the snapshot was taken
+    public int getCurrentQueueDepth(String queue) {
+        return currentQueueDepths.getOrDefault(queue, 0);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (PipelineStage stage : PipelineStage.values()) {
+            HistogramSnapshot latency = getLatency(stage);
+            builder.append(String.format("%-14s count=%d p50=%.1fus p99=%.1fus max=%.1fus%n", stage, latency.getCount(),
+                    latency.getP50() / 1000.0, latency.getP99() / 1000.0, latency.getMax() / 1000.0));
+        }
+        builder.append(String.format("expired        decrypt=%d process=%d encrypt=%d%n", getExpired(PipelineStage.DECRYPT),
+                getExpired(PipelineStage.PROCESS), getExpired(PipelineStage.ENCRYPT)));
+        for (String queue : queueDepths.keySet()) {
+            HistogramSnapshot depth = getQueueDepth(queue);
+            builder.append(String.format("queue %-10s now=%d p50=%d p99=%d max=%d%n", queue, getCurrentQueueDepth(queue),
+                    depth.getP50(), depth.getP99(), depth.getMax()));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,68 @@
+package com.github.rrin.util.metrics;
+
+import com.github.rrin.util.CommandType;
+
+import java.util.concurrent.TimeUnit;
+
+// System.nanoTime() marks of one request, travelling with it from RawData to DataPacket to RequestData
+// and back to RawData. Every field is written by one stage and read after the queue hand-off, so none is volatile.
+public class StageTimestamps {
+    final long received;
+    CommandType command;
+    long decryptStart;
+    long decryptEnd;
+    long processStart;
+    long processEnd;
+    long encryptStart;
+    long encryptEnd;
+    // Absolute, from the budget the client sent, only meaningful while hasDeadline
+    private boolean hasDeadline;
+    private long deadline;
+
+    public StageTimestamps() {
+        this(System.nanoTime());
+    }
+
+    public StageTimestamps(long received) {
+        this.received = received;
+    }
+
+    public CommandType getCommand() {
+        return command;
+    }
+
+    public void decryptStarted() {
+        decryptStart = System.nanoTime();
+    }
+
+    public void decrypted(CommandType command) {
+        this.command = command;
+        decryptEnd = System.nanoTime();
+    }
+
+    public void processStarted() {
+        processStart = System.nanoTime();
+    }
+
+    public void processed() {
+        processEnd = System.nanoTime();
+    }
+
+    public void encryptStarted() {
+        encryptStart = System.nanoTime();
+    }
+
+    public void encrypted() {
+        encryptEnd = System.nanoTime();
+    }
+
+    // The budget counts from when the frame arrived, so time spent in the receive queue is part of it
+    public void expireAfter(long millis) {
+        hasDeadline = true;
+        deadline = received + TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    public boolean isExpired(long now) {
+        return hasDeadline && now - deadline >= 0;
+    }
+}
@@ -0,0 +1,127 @@
+package com.github.rrin;
+
+import com.github.rrin.dto.CommandResponse;
+import com.github.rrin.dto.product.GetProduct;
+import com.github.rrin.implementation.AdmissionController;
+import com.github.rrin.util.CipherMode;
+import com.github.rrin.util.CommandType;
+import com.github.rrin.util.data.BufferPool;
+import com.github.rrin.util.data.DataPacket;
+import com.github.rrin.util.data.PacketFlags;
+import com.github.rrin.util.data.RawData;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdmissionControllerTest {
+
+    private final BufferPool pool = new BufferPool(16, 8192);
+
+    private static RawData request(long packetId, int userId, int flags) {
+        DataPacket<Object> packet = new DataPacket<>(DataPacket.MAGIC_BYTE, (byte) 7, packetId, CommandType.GET_PRODUCT, userId,
+                new GetProduct(1), 0, flags);
+        return new RawData(packet.toByteArray(), 3L);
+    }
+
+    @Test
+    public void testRejectionIsA503ForTheSameRequest() {
+        BlockingQueue<Object> stage = new ArrayBlockingQueue<>(8);
+        BlockingQueue<RawData> senderQueue = new ArrayBlockingQueue<>(8);
+        AdmissionController controller = new AdmissionController(senderQueue, pool);
+        controller.watch("stage", stage, 2, 1);
+        stage.add(1);
+        stage.add(2);
+
+        int flags = PacketFlags.GCM | PacketFlags.BINARY | PacketFlags.COMPRESSED;
+        assertFalse(controller.admit(request(4242L, 99, flags)));
+
+        RawData rejection = senderQueue.poll();
+        assertNotNull(rejection);
+        assertEquals(3L, rejection.connectionId);
+        DataPacket<CommandResponse> response = DataPacket.decode(rejection.buffer, CommandResponse.class, 0);
+        assertEquals(7, response.getSourceId());
+        assertEquals(4242L, response.getPacketId());
+        assertEquals(CommandType.RESPONSE, response.getBody().getCommand());
+        assertEquals(99, response.getBody().getUserId());
+        // Cipher and encoding are mirrored like any other response
+        assertEquals(CipherMode.GCM, response.getBody().getCipherMode());
+        assertEquals(PacketFlags.GCM | PacketFlags.BINARY, response.getBody().getFlags());
+        assertEquals(503, response.getBody().getData().statusCode());
+        assertEquals(1, controller.getRejected());
+    }
+
+    @Test
+    public void testWatermarksHaveHysteresis() {
+        BlockingQueue<Object> stage = new ArrayBlockingQueue<>(8);
+        AdmissionController controller = new AdmissionController(new ArrayBlockingQueue<>(8), pool);
+        controller.watch("stage", stage, 4, 1);
+
+        for (int i = 0; i < 3; i++) {
+            stage.add(i);
+        }
+        assertTrue(controller.admit(request(1, 1, PacketFlags.NONE)));
+
+        stage.add(3);
+        assertFalse(controller.admit(request(2, 1, PacketFlags.NONE)));
+
+        // Below the high watermark but still above the low one
+        stage.poll();
+        stage.poll();
+        assertFalse(controller.admit(request(3, 1, PacketFlags.NONE)));
+
+        stage.poll();
+        assertTrue(controller.admit(request(4, 1, PacketFlags.NONE)));
+        assertEquals(2, controller.getAdmitted());
+        assertEquals(2, controller.getRejected());
+    }
+
+    @Test
+    public void testWorkerQueuesCountTowardsTheirStage() {
+        BlockingQueue<Object> dispatch = new ArrayBlockingQueue<>(8);
+        BlockingQueue<Object> worker0 = new ArrayBlockingQueue<>(8);
+        BlockingQueue<Object> worker1 = new ArrayBlockingQueue<>(8);
+        AdmissionController controller = new AdmissionController(new ArrayBlockingQueue<>(8), pool);
+        controller.watch("stage", List.of(dispatch, worker0, worker1), 4, 1);
+
+        // The dispatcher keeps up, the backlog sits with the workers
+        worker0.add(1);
+        worker0.add(2);
+        worker1.add(3);
+        assertTrue(controller.admit(request(1, 1, PacketFlags.NONE)));
+        worker1.add(4);
+        assertFalse(controller.admit(request(2, 1, PacketFlags.NONE)));
+
+        worker0.clear();
+        worker1.poll();
+        assertTrue(controller.admit(request(3, 1, PacketFlags.NONE)));
+    }
+
+    @Test
+    public void testBrokenFrameOrFullSenderQueueIsDropped() {
+        BlockingQueue<Object> stage = new ArrayBlockingQueue<>(8);
+        BlockingQueue<RawData> senderQueue = new ArrayBlockingQueue<>(1);
+        AdmissionController controller = new AdmissionController(senderQueue, pool);
+        controller.watch("stage", stage, 1, 0);
+        stage.add(1);
+
+        RawData broken = request(1, 1, PacketFlags.NONE);
+        broken.buffer.put(3, (byte) 0x55);
+        assertFalse(controller.admit(broken));
+        assertTrue(senderQueue.isEmpty());
+
+        assertFalse(controller.admit(request(2, 1, PacketFlags.NONE)));
+        assertFalse(controller.admit(request(3, 1, PacketFlags.NONE)));
+        assertEquals(1, senderQueue.size());
+        assertEquals(2, controller.getDropped());
+    }
+
+    @Test
+    public void testWatermarksMustBeOrdered() {
+        AdmissionController controller = new AdmissionController(new ArrayBlockingQueue<>(1), pool);
+        assertThrows(IllegalArgumentException.class, () -> controller.watch("stage", new ArrayBlockingQueue<>(1), 4, 4));
+    }
+}
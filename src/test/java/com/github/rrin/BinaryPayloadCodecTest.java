@@ -0,0 +1,98 @@
+package com.github.rrin;
+
+import com.github.rrin.dto.CommandResponse;
+import com.github.rrin.dto.Group;
+import com.github.rrin.dto.IsRunning;
+import com.github.rrin.dto.Product;
+import com.github.rrin.dto.product.CreateProduct;
+import com.github.rrin.dto.product.GetProduct;
+import com.github.rrin.dto.product.SearchProducts;
+import com.github.rrin.dto.product.UpdateProduct;
+import com.github.rrin.util.CommandType;
+import com.github.rrin.util.SearchResult;
+import com.github.rrin.util.data.BinaryPayloadCodec;
+import com.github.rrin.util.data.DataPacket;
+import com.github.rrin.util.data.PacketFlags;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BinaryPayloadCodecTest {
+
+    private static <T> T roundTrip(T value) {
+        @SuppressWarnings("unchecked")
+        Class<T> type = (Class<T>) value.getClass();
+        return BinaryPayloadCodec.decode(BinaryPayloadCodec.encode(value), type);
+    }
+
+    @Test
+    public void testRecordsRoundTrip() {
+        List<Object> values = List.of(
+                new Product(1, "Apple", 2.5, 10),
+                new Group(3, "Fruit"),
+                new CreateProduct("Pear", 1.25, 5),
+                new GetProduct(-7),
+                new CommandResponse(200, "Success", "Готово"),
+                new IsRunning()
+        );
+
+        for (Object value : values) {
+            assertEquals(value, roundTrip(value));
+        }
+    }
+
+    @Test
+    public void testNullableComponentsRoundTrip() {
+        SearchProducts search = new SearchProducts(null, 4, null, 99.5, null, 10, 2, 25);
+        UpdateProduct update = new UpdateProduct(4, null, 3.0, null);
+
+        assertEquals(search, roundTrip(search));
+        assertEquals(update, roundTrip(update));
+    }
+
+    @Test
+    public void testSearchResultRoundTrip() {
+        SearchResult<Product> result = new SearchResult<>(
+                List.of(new Product(1, "A", 1.0, 1), new Product(2, "B", 2.0, 2)), 12, 1, 2);
+
+        SearchResult<?> decoded = roundTrip(result);
+
+        assertEquals(result.getItems(), decoded.getItems());
+        assertEquals(result.getTotalCount(), decoded.getTotalCount());
+        assertEquals(result.getCurrentPage(), decoded.getCurrentPage());
+        assertEquals(result.getPageSize(), decoded.getPageSize());
+    }
+
+    @Test
+    public void testTruncatedPayloadIsRejected() {
+        byte[] bytes = BinaryPayloadCodec.encode(new Product(1, "Apple", 2.5, 10));
+
+        byte[] truncated = Arrays.copyOf(bytes, bytes.length - 3);
+        assertThrows(IllegalArgumentException.class, () -> BinaryPayloadCodec.decode(truncated, Product.class));
+    }
+
+    @Test
+    public void testBinaryPacketIsDecodedIntoCommandRecord() {
+        DataPacket<Object> packet = new DataPacket<>(
+                DataPacket.MAGIC_BYTE, (byte) 1, 1, CommandType.UPDATE_PRODUCT, 1,
+                new UpdateProduct(4, "Plum", null, 3), 0, PacketFlags.BINARY);
+
+        DataPacket<Object> decoded = DataPacket.fromByteArray(packet.toByteArray(), Object.class, 0);
+
+        assertEquals(PacketFlags.BINARY, decoded.getFlags());
+        assertEquals(new UpdateProduct(4, "Plum", null, 3), decoded.getBody().getData());
+    }
+
+    @Test
+    public void testUnsupportedPayloadFallsBackToJson() {
+        DataPacket<Object> packet = new DataPacket<>(
+                DataPacket.MAGIC_BYTE, (byte) 1, 1, CommandType.GET_PRODUCT, 1, Map.of("id", 1), 0, PacketFlags.BINARY);
+
+        assertEquals(PacketFlags.NONE, packet.getFlags());
+        assertFalse(BinaryPayloadCodec.supports(Map.class));
+    }
+}
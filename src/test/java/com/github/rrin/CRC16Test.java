@@ -0,0 +1,49 @@
+package com.github.rrin;
+
+import com.github.rrin.util.CRC16;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class CRC16Test {
+
+    private static short bitwiseSum(byte[] bytes) {
+        int crc = 0x0000;
+        for (byte b : bytes) {
+            crc ^= b & 0xff;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0xA001 : crc >>> 1;
+            }
+        }
+        return (short) crc;
+    }
+
+    @Test
+    public void testCheckValue() {
+        assertEquals((short) 0xBB3D, CRC16.sum("123456789".getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    public void testAllVariantsMatchBitwiseSum() {
+        Random random = new Random(7);
+        for (int length = 0; length < 300; length++) {
+            byte[] bytes = new byte[length + 11];
+            random.nextBytes(bytes);
+            byte[] range = Arrays.copyOfRange(bytes, 5, 5 + length);
+            short expected = bitwiseSum(range);
+
+            ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+
+            assertEquals(expected, CRC16.sum(range), "length " + length);
+            assertEquals(expected, CRC16.sum(bytes, 5, length), "length " + length);
+            assertEquals(expected, CRC16.sumSliceBy8(bytes, 5, length), "length " + length);
+            assertEquals(expected, CRC16.sum(direct, 5, length), "length " + length);
+            assertEquals(expected, CRC16.sum(ByteBuffer.wrap(bytes, 5, length)), "length " + length);
+        }
+    }
+}
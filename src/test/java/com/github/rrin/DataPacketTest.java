@@ -0,0 +1,201 @@
+package com.github.rrin;
+
+import com.github.rrin.dto.CommandResponse;
+import com.github.rrin.dto.product.GetProduct;
+import com.github.rrin.util.CRC16;
+import com.github.rrin.util.CipherMode;
+import com.github.rrin.util.CommandType;
+import com.github.rrin.util.data.DataPacket;
+import com.github.rrin.util.data.PacketFlags;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DataPacketTest {
+
+    private static DataPacket<CommandResponse> packet(CipherMode mode, String message) {
+        return new DataPacket<>(
+                DataPacket.MAGIC_BYTE,
+                (byte) 1,
+                7,
+                CommandType.GET_PRODUCT,
+                3,
+                new CommandResponse(200, "Success", message),
+                0,
+                mode.getFlag()
+        );
+    }
+
+    @Test
+    public void testRoundTripInBothModes() {
+        for (CipherMode mode : CipherMode.values()) {
+            DataPacket<CommandResponse> packet = packet(mode, "hello " + mode);
+            byte[] bytes = packet.toByteArray();
+
+            DataPacket<CommandResponse> decoded = DataPacket.fromByteArray(bytes, CommandResponse.class, 0);
+
+            assertEquals(packet, decoded);
+            assertEquals(CommandType.GET_PRODUCT, decoded.getBody().getCommand());
+            assertEquals(mode, decoded.getBody().getCipherMode());
+            assertEquals(bytes.length, packet.getFrameSize());
+        }
+    }
+
+    @Test
+    public void testGcmFlagIsCarriedInCommandType() {
+        byte[] bytes = packet(CipherMode.GCM, "hello").toByteArray();
+
+        assertEquals(PacketFlags.GCM, bytes[DataPacket.HEADER_SIZE]);
+        assertEquals(CommandType.GET_PRODUCT.getCode(), bytes[DataPacket.HEADER_SIZE + 3]);
+    }
+
+    @Test
+    public void testTamperedGcmPayloadIsRejected() {
+        DataPacket<CommandResponse> packet = packet(CipherMode.GCM, "hello");
+        byte[] bytes = packet.toByteArray();
+
+        // Flip a ciphertext bit and patch the body CRC so only the GCM tag can catch it
+        int bodyOffset = DataPacket.HEADER_SIZE;
+        bytes[bodyOffset + 8 + CipherMode.GCM.getIvSize()] ^= 0x01;
+        short checksum = CRC16.sum(bytes, bodyOffset, packet.getBodyLength());
+        bytes[bodyOffset + packet.getBodyLength()] = (byte) (checksum >> 8);
+        bytes[bodyOffset + packet.getBodyLength() + 1] = (byte) checksum;
+
+        assertThrows(RuntimeException.class, () -> DataPacket.fromByteArray(bytes, CommandResponse.class, 0));
+    }
+
+    @Test
+    public void testUntypedDecodeReadsCommandRecord() {
+        DataPacket<Object> packet = new DataPacket<>(
+                DataPacket.MAGIC_BYTE, (byte) 1, 1, CommandType.GET_PRODUCT, 1, new GetProduct(5), 0);
+
+        DataPacket<Object> decoded = DataPacket.fromByteArray(packet.toByteArray(), Object.class, 0);
+
+        assertEquals(new GetProduct(5), decoded.getBody().getData());
+    }
+
+    @Test
+    public void testLargePayloadIsCompressed() {
+        DataPacket<CommandResponse> plain = packet(CipherMode.CBC, "Product list ".repeat(500));
+        DataPacket<CommandResponse> compressed = new DataPacket<>(
+                DataPacket.MAGIC_BYTE, (byte) 1, 7, CommandType.GET_PRODUCT, 3,
+                plain.getBody().getData(), 0, PacketFlags.COMPRESSED);
+
+        DataPacket<CommandResponse> decoded = DataPacket.fromByteArray(compressed.toByteArray(), CommandResponse.class, 0);
+
+        assertEquals(PacketFlags.COMPRESSED, decoded.getFlags());
+        assertEquals(plain.getBody().getData(), decoded.getBody().getData());
+        assertTrue(compressed.getFrameSize() < plain.getFrameSize() / 4);
+    }
+
+    @Test
+    public void testSmallPayloadSkipsCompression() {
+        DataPacket<CommandResponse> packet = new DataPacket<>(
+                DataPacket.MAGIC_BYTE, (byte) 1, 7, CommandType.GET_PRODUCT, 3,
+                new CommandResponse(200, "Success", "hello"), 0, PacketFlags.COMPRESSED);
+
+        assertEquals(PacketFlags.NONE, packet.getFlags());
+        assertEquals(PacketFlags.NONE, DataPacket.fromByteArray(packet.toByteArray(), CommandResponse.class, 0).getFlags());
+    }
+
+    @Test
+    public void testResponseIsCompressedOnlyForCompressedRequest() {
+        assertFalse(PacketFlags.has(PacketFlags.forResponse(PacketFlags.GCM | PacketFlags.BINARY), PacketFlags.COMPRESSED));
+        assertEquals(PacketFlags.GCM | PacketFlags.COMPRESSED, PacketFlags.forResponse(PacketFlags.GCM | PacketFlags.COMPRESSED));
+    }
+
+    @Test
+    public void testBatchResultsRoundTrip() {
+        CommandResponse response = new CommandResponse(200, "Success", "Executed 2 commands, 1 failed", List.of(
+                new CommandResponse(201, "Created", "Created product: A (ID: 1)"),
+                new CommandResponse(404, "Not Found", "Product not found with ID: 9")));
+
+        for (int flags : new int[]{PacketFlags.NONE, PacketFlags.BINARY}) {
+            DataPacket<CommandResponse> packet = new DataPacket<>(
+                    DataPacket.MAGIC_BYTE, (byte) 1, 7, CommandType.RESPONSE, 3, response, 0, flags);
+
+            assertEquals(response, DataPacket.fromByteArray(packet.toByteArray(), CommandResponse.class, 0).getBody().getData());
+        }
+    }
+
+    @Test
+    public void testLazyDecodeDefersDecryption() {
+        byte[] bytes = packet(CipherMode.GCM, "hello").toByteArray();
+
+        DataPacket<CommandResponse> lazy = DataPacket.decodeLazy(ByteBuffer.wrap(bytes), CommandResponse.class, 0);
+
+        assertEquals(CommandType.GET_PRODUCT, lazy.getBody().getCommand());
+        assertEquals(3, lazy.getBody().getUserId());
+        assertFalse(lazy.getBody().isDataDecoded());
+        assertArrayEquals(bytes, lazy.toByteArray());
+
+        assertEquals(new CommandResponse(200, "Success", "hello"), lazy.getBody().getData());
+        assertTrue(lazy.getBody().isDataDecoded());
+    }
+
+    @Test
+    public void testEncodeIntoEncryptsOnlyOnce() {
+        for (CipherMode mode : CipherMode.values()) {
+            DataPacket<CommandResponse> packet = packet(mode, "hello " + mode);
+            ByteBuffer frame = ByteBuffer.allocateDirect(packet.getFrameSize());
+            packet.encodeInto(frame);
+
+            byte[] written = new byte[frame.flip().remaining()];
+            frame.get(written);
+            assertEquals(CRC16.sum(written, DataPacket.HEADER_SIZE, packet.getBodyLength()), packet.getBodyChecksum());
+            assertEquals(packet.getBody().getData(), DataPacket.fromByteArray(written, CommandResponse.class, 0).getBody().getData());
+            // A second encryption would draw a new IV, the frame already sent would no longer match
+            assertThrows(IllegalStateException.class, packet::toByteArray);
+        }
+    }
+
+    @Test
+    public void testLazyDecodeReadsTheBodyInPlace() {
+        byte[] bytes = packet(CipherMode.GCM, "hello").toByteArray();
+        ByteBuffer frame = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+
+        DataPacket<CommandResponse> lazy = DataPacket.decodeLazy(frame, CommandResponse.class, 0);
+        assertEquals(bytes.length, frame.position());
+        assertEquals(new CommandResponse(200, "Success", "hello"), lazy.getBody().getData());
+
+        // Once decoded the frame buffer may be reused
+        frame.clear().put(new byte[bytes.length]);
+        assertEquals(new CommandResponse(200, "Success", "hello"), lazy.getBody().getData());
+    }
+
+    @Test
+    public void testDeadlineTravelsBeforeTheMessage() {
+        DataPacket<CommandResponse> packet = new DataPacket<>(DataPacket.MAGIC_BYTE, (byte) 1, 7, CommandType.GET_PRODUCT, 3,
+                new CommandResponse(200, "Success", "hello"), 0, CipherMode.GCM.getFlag(), 1500);
+        byte[] bytes = packet.toByteArray();
+        assertEquals(packet(CipherMode.GCM, "hello").getFrameSize() + DataPacket.DEADLINE_SIZE, bytes.length);
+
+        DataPacket<CommandResponse> lazy = DataPacket.decodeLazy(ByteBuffer.wrap(bytes), CommandResponse.class, 0);
+        assertEquals(1500, lazy.getDeadlineMillis());
+        assertTrue(PacketFlags.has(lazy.getFlags(), PacketFlags.DEADLINE));
+        assertEquals(new CommandResponse(200, "Success", "hello"), lazy.getBody().getData());
+
+        // Responses do not echo it back, and packets without one read as 0
+        assertFalse(PacketFlags.has(PacketFlags.forResponse(lazy.getFlags()), PacketFlags.DEADLINE));
+        assertEquals(0, packet(CipherMode.CBC, "hello").getDeadlineMillis());
+    }
+
+    @Test
+    public void testHugeBodyLengthIsRejected() {
+        byte[] bytes = packet(CipherMode.CBC, "hello").toByteArray();
+        // wLen close to Integer.MAX_VALUE, with a matching header CRC so only the length check can catch it
+        ByteBuffer frame = ByteBuffer.wrap(bytes).putInt(10, Integer.MAX_VALUE - 4);
+        frame.putShort(14, CRC16.sum(bytes, 0, 14));
+
+        assertThrows(IllegalArgumentException.class, () -> DataPacket.fromByteArray(bytes, CommandResponse.class, 0));
+    }
+
+    @Test
+    public void testUnknownFlagsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new DataPacket<>(
+                DataPacket.MAGIC_BYTE, (byte) 1, 1, CommandType.GET_PRODUCT, 1, "data", 0, 0x80));
+    }
+}
@@ -0,0 +1,111 @@
+package com.github.rrin;
+
+import com.github.rrin.dto.CommandResponse;
+import com.github.rrin.util.CommandType;
+import com.github.rrin.util.data.DataPacket;
+import com.github.rrin.util.data.FrameDecoder;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FrameDecoderTest {
+
+    private static byte[] packetBytes(long packetId, String message) {
+        DataPacket<CommandResponse> packet = new DataPacket<>(
+                DataPacket.MAGIC_BYTE,
+                (byte) 1,
+                packetId,
+                CommandType.RESPONSE,
+                1,
+                new CommandResponse(200, "Success", message),
+                0
+        );
+        return packet.toByteArray();
+    }
+
+    private static List<byte[]> drain(FrameDecoder decoder) throws IOException {
+        List<byte[]> frames = new ArrayList<>();
+        byte[] frame;
+        while ((frame = decoder.nextFrame()) != null) {
+            frames.add(frame);
+        }
+        return frames;
+    }
+
+    @Test
+    public void testSingleFrame() throws IOException {
+        byte[] packet = packetBytes(1, "hello");
+        FrameDecoder decoder = new FrameDecoder();
+
+        decoder.append(packet, 0, packet.length);
+        List<byte[]> frames = drain(decoder);
+
+        assertEquals(1, frames.size());
+        assertArrayEquals(packet, frames.get(0));
+        assertEquals(0, decoder.bufferedBytes());
+    }
+
+    @Test
+    public void testFrameSplitAcrossReads() throws IOException {
+        byte[] packet = packetBytes(2, "split ".repeat(1000));
+        FrameDecoder decoder = new FrameDecoder();
+
+        List<byte[]> frames = new ArrayList<>();
+        for (int offset = 0; offset < packet.length; offset += 7) {
+            decoder.append(packet, offset, Math.min(7, packet.length - offset));
+            frames.addAll(drain(decoder));
+        }
+
+        assertEquals(1, frames.size());
+        assertArrayEquals(packet, frames.get(0));
+    }
+
+    @Test
+    public void testCoalescedFrames() throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        List<byte[]> packets = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            byte[] packet = packetBytes(i, "message " + i);
+            packets.add(packet);
+            stream.writeBytes(packet);
+        }
+        byte[] data = stream.toByteArray();
+        FrameDecoder decoder = new FrameDecoder();
+
+        List<byte[]> frames = new ArrayList<>();
+        for (int offset = 0; offset < data.length; offset += 4096) {
+            decoder.append(data, offset, Math.min(4096, data.length - offset));
+            frames.addAll(drain(decoder));
+        }
+
+        assertEquals(packets.size(), frames.size());
+        for (int i = 0; i < packets.size(); i++) {
+            assertArrayEquals(packets.get(i), frames.get(i));
+            assertEquals(i, DataPacket.fromByteArray(frames.get(i), CommandResponse.class, 0).getPacketId());
+        }
+    }
+
+    @Test
+    public void testFrameOverMaxSizeIsRejected() {
+        byte[] packet = packetBytes(3, "x".repeat(4096));
+        FrameDecoder decoder = new FrameDecoder(1024);
+
+        decoder.append(packet, 0, DataPacket.HEADER_SIZE);
+        assertThrows(IOException.class, decoder::nextFrame);
+    }
+
+    @Test
+    public void testInvalidMagicByteIsRejected() {
+        byte[] packet = packetBytes(4, "hello");
+        packet[0] = 0x00;
+        FrameDecoder decoder = new FrameDecoder();
+
+        decoder.append(packet, 0, packet.length);
+        assertThrows(IOException.class, decoder::nextFrame);
+    }
+}
@@ -0,0 +1,127 @@
+package com.github.rrin;
+
+import com.github.rrin.dto.CommandResponse;
+import com.github.rrin.dto.product.GetProduct;
+import com.github.rrin.implementation.FusedPipeline;
+import com.github.rrin.interfaces.ICommandHandler;
+import com.github.rrin.interfaces.ISender;
+import com.github.rrin.util.CommandType;
+import com.github.rrin.util.data.BufferPool;
+import com.github.rrin.util.data.DataPacket;
+import com.github.rrin.util.data.RawData;
+import com.github.rrin.util.data.ShardedQueue;
+import com.github.rrin.util.data.StageQueue;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FusedPipelineTest {
+
+    // Answers GET_PRODUCT with the id it asked for
+    private static final ICommandHandler.Factory HANDLERS = worker -> new ICommandHandler() {
+        @Override
+        public CommandResponse handle(CommandType command, Object data) {
+            return new CommandResponse(200, "Success", "product " + ((GetProduct) data).id());
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    private static class QueueSender implements ISender {
+        final BlockingQueue<RawData> sent = new ArrayBlockingQueue<>(64);
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public boolean isRunning() {
+            return true;
+        }
+
+        @Override
+        public void send(RawData response) {
+            sent.add(response);
+        }
+    }
+
+    private static ShardedQueue<RawData> shards(int count) {
+        return new ShardedQueue<>(count, raw -> raw.connectionId, shard -> new StageQueue<>(64));
+    }
+
+    private static RawData request(long connectionId, long packetId, int productId) {
+        DataPacket<Object> packet = new DataPacket<>(DataPacket.MAGIC_BYTE, (byte) 1, packetId, CommandType.GET_PRODUCT, 1,
+                new GetProduct(productId), connectionId);
+        return new RawData(packet.toByteArray(), connectionId);
+    }
+
+    @Test
+    public void testEveryRequestIsAnsweredInOrderPerConnection() throws InterruptedException {
+        ShardedQueue<RawData> input = shards(2);
+        QueueSender sender = new QueueSender();
+        FusedPipeline pipeline = new FusedPipeline(input, sender, new BufferPool(16, 8192), false, HANDLERS);
+        pipeline.start();
+        try {
+            for (int i = 0; i < 10; i++) {
+                for (long connection = 1; connection <= 3; connection++) {
+                    input.put(request(connection, i, 100 * (int) connection + i));
+                }
+            }
+
+            Map<Long, Long> lastPacketId = new HashMap<>();
+            for (int i = 0; i < 30; i++) {
+                RawData sent = sender.sent.poll(2, TimeUnit.SECONDS);
+                assertNotNull(sent);
+                DataPacket<CommandResponse> response = DataPacket.decode(sent.buffer, CommandResponse.class, sent.connectionId);
+                sent.release();
+
+                long expected = lastPacketId.getOrDefault(sent.connectionId, -1L) + 1;
+                assertEquals(expected, response.getPacketId());
+                lastPacketId.put(sent.connectionId, response.getPacketId());
+                assertEquals("product " + (100 * sent.connectionId + response.getPacketId()), response.getBody().getData().message());
+            }
+            assertNull(sender.sent.poll(50, TimeUnit.MILLISECONDS));
+        } finally {
+            pipeline.stop();
+        }
+    }
+
+    @Test
+    public void testFrameGoesBackToThePoolWhenSendFails() throws InterruptedException {
+        ShardedQueue<RawData> input = shards(1);
+        BufferPool bufferPool = new BufferPool(16, 8192);
+        QueueSender failingSender = new QueueSender() {
+            @Override
+            public void send(RawData response) {
+                sent.add(response);
+                throw new IllegalStateException("transport is gone");
+            }
+        };
+        FusedPipeline pipeline = new FusedPipeline(input, failingSender, bufferPool, false, HANDLERS);
+        pipeline.start();
+        try {
+            input.put(request(1, 1, 5));
+            assertNotNull(failingSender.sent.poll(2, TimeUnit.SECONDS));
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+            while (bufferPool.available() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(1, bufferPool.available());
+        } finally {
+            pipeline.stop();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.github.rrin;
+
+import com.github.rrin.util.CommandLanes;
+import com.github.rrin.util.CommandType;
+import com.github.rrin.util.CostClass;
+import com.github.rrin.util.data.LaneQueue;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LaneQueueTest {
+
+    private record Item(int lane, int sequence) {}
+
+    private record Command(int lane, long key, String name) {}
+
+    private static LaneQueue<Item> newQueue(int laneCapacity, int... weights) {
+        return new LaneQueue<>(laneCapacity, weights, Item::lane);
+    }
+
+    @Test
+    public void testBackloggedLanesShareByWeight() {
+        LaneQueue<Item> queue = newQueue(100, 4, 1);
+        for (int i = 0; i < 50; i++) {
+            queue.offer(new Item(1, i));
+        }
+        for (int i = 0; i < 50; i++) {
+            queue.offer(new Item(0, i));
+        }
+
+        // Lane 0 came in last but gets four of every five turns, interleaved with lane 1
+        List<Integer> lanes = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            lanes.add(queue.poll().lane());
+        }
+        assertEquals(List.of(0, 0, 1, 0, 0, 0, 0, 1, 0, 0), lanes);
+    }
+
+    @Test
+    public void testEachLaneStaysFifo() {
+        LaneQueue<Item> queue = newQueue(100, 3, 2, 1);
+        for (int i = 0; i < 30; i++) {
+            queue.offer(new Item(i % 3, i / 3));
+        }
+        int[] next = new int[3];
+        Item item;
+        while ((item = queue.poll()) != null) {
+            assertEquals(next[item.lane()]++, item.sequence());
+        }
+        assertArrayEquals(new int[]{10, 10, 10}, next);
+    }
+
+    @Test
+    public void testIdleLaneDoesNotSaveUpTurns() {
+        LaneQueue<Item> queue = newQueue(100, 1, 1);
+        // Lane 1 is alone for a while, then lane 0 shows up and they alternate instead of lane 0 catching up
+        for (int i = 0; i < 10; i++) {
+            queue.offer(new Item(1, i));
+        }
+        for (int i = 0; i < 5; i++) {
+            assertEquals(1, queue.poll().lane());
+        }
+        for (int i = 0; i < 4; i++) {
+            queue.offer(new Item(0, i));
+        }
+        List<Integer> lanes = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            lanes.add(queue.poll().lane());
+        }
+        assertEquals(List.of(0, 1, 0, 1, 0, 1), lanes);
+    }
+
+    @Test
+    public void testLanesAreBoundedSeparately() throws InterruptedException {
+        LaneQueue<Item> queue = newQueue(2, 1, 1);
+        assertTrue(queue.offer(new Item(1, 0)));
+        assertTrue(queue.offer(new Item(1, 1)));
+        assertFalse(queue.offer(new Item(1, 2)));
+        assertFalse(queue.offer(new Item(1, 2), 10, TimeUnit.MILLISECONDS));
+
+        // A full bulk lane does not keep anything out of the other lane
+        assertTrue(queue.offer(new Item(0, 0)));
+        assertEquals(1, queue.remainingCapacity());
+        assertEquals(new Item(0, 0), queue.peek());
+        assertEquals(new Item(0, 0), queue.take());
+        assertNotNull(queue.poll(10, TimeUnit.MILLISECONDS));
+        assertNotNull(queue.poll());
+        assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testTakeWaitsForAnyLane() throws InterruptedException {
+        LaneQueue<Item> queue = newQueue(4, 1, 1);
+        Thread producer = new Thread(() -> {
+            try {
+                Thread.sleep(20);
+                queue.put(new Item(1, 7));
+            } catch (InterruptedException ignored) {
+            }
+        });
+        producer.start();
+        assertEquals(new Item(1, 7), queue.take());
+        producer.join();
+    }
+
+    @Test
+    public void testSameKeyKeepsItsOrderAcrossLanes() {
+        LaneQueue<Command> queue = new LaneQueue<>(100, new int[]{16, 4}, Command::lane, Command::key);
+        queue.offer(new Command(1, 7, "update 7"));
+        queue.offer(new Command(0, 7, "get 7"));
+        queue.offer(new Command(0, 8, "get 8"));
+
+        // The read of 8 overtakes the write, the read of 7 waits behind it in the slow lane
+        assertEquals("get 8", queue.poll().name());
+        assertEquals(2, queue.laneSize(1));
+        assertEquals("update 7", queue.poll().name());
+        assertEquals("get 7", queue.poll().name());
+
+        // Once the key has nothing queued its commands go to their own lane again
+        queue.offer(new Command(0, 7, "get 7 again"));
+        assertEquals(1, queue.laneSize(0));
+        assertEquals(0, queue.laneSize(1));
+    }
+
+    @Test
+    public void testIteratorSeesEveryElement() {
+        LaneQueue<Command> queue = new LaneQueue<>(100, new int[]{1, 1}, Command::lane, Command::key);
+        queue.offer(new Command(1, 1, "a"));
+        queue.offer(new Command(0, 1, "b"));
+        queue.offer(new Command(0, 2, "c"));
+
+        List<String> names = new ArrayList<>();
+        for (Command command : queue) {
+            names.add(command.name());
+        }
+        names.sort(null);
+        assertEquals(List.of("a", "b", "c"), names);
+
+        // Removing the write frees the key, the read still queued for it stays where it is
+        Iterator<Command> it = queue.iterator();
+        while (it.hasNext()) {
+            if (it.next().name().equals("a")) {
+                it.remove();
+            }
+        }
+        assertEquals(2, queue.size());
+        assertTrue(queue.contains(new Command(0, 2, "c")));
+        assertEquals(100 * 2 - 2, queue.remainingCapacity());
+    }
+
+    @Test
+    public void testCommandLanes() {
+        CommandLanes defaults = CommandLanes.defaults();
+        assertEquals(CostClass.CHEAP, defaults.costOf(CommandType.IS_RUNNING));
+        assertEquals(CostClass.BULK, defaults.costOf(CommandType.GET_ALL_PRODUCTS));
+        assertEquals(CostClass.STANDARD, defaults.costOf(CommandType.UPDATE_PRODUCT));
+
+        CommandLanes custom = new CommandLanes(Map.of(CommandType.SEARCH_PRODUCTS, CostClass.STANDARD), Map.of(CostClass.BULK, 2));
+        assertEquals(CostClass.STANDARD, custom.costOf(CommandType.SEARCH_PRODUCTS));
+        assertEquals(2, custom.weightOf(CostClass.BULK));
+        assertEquals(CostClass.CHEAP.getDefaultWeight(), custom.weightOf(CostClass.CHEAP));
+
+        assertThrows(IllegalArgumentException.class, () -> newQueue(4, 1, 0));
+    }
+}
@@ -0,0 +1,203 @@
+package com.github.rrin;
+
+import com.github.rrin.dto.CommandResponse;
+import com.github.rrin.dto.AddProductToGroup;
+import com.github.rrin.dto.IsRunning;
+import com.github.rrin.dto.group.GetProductGroups;
+import com.github.rrin.dto.product.DeleteProduct;
+import com.github.rrin.dto.product.GetProduct;
+import com.github.rrin.dto.product.UpdateProduct;
+import com.github.rrin.implementation.MySQLProductProcessor;
+import com.github.rrin.interfaces.ICommandHandler;
+import com.github.rrin.util.CommandLanes;
+import com.github.rrin.util.CommandType;
+import com.github.rrin.util.data.DataPacket;
+import com.github.rrin.util.data.RequestData;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MySQLProductProcessorTest {
+
+    // Answers every command with its name, commands listed in blocked wait for the latch first
+    private static ICommandHandler.Factory handlers(CountDownLatch latch, CommandType... blocked) {
+        return worker -> new ICommandHandler() {
+            @Override
+            public CommandResponse handle(CommandType command, Object data) {
+                for (CommandType type : blocked) {
+                    if (type == command) {
+                        try {
+                            latch.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }
+                return new CommandResponse(200, "Success", command.name());
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    // Records which worker ran each command, by its payload
+    private static ICommandHandler.Factory recording(Map<Object, Integer> workerOf) {
+        return worker -> new ICommandHandler() {
+            @Override
+            public CommandResponse handle(CommandType command, Object data) {
+                workerOf.put(data, worker);
+                return new CommandResponse(200, "Success", command.name());
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    private static DataPacket<Object> request(long packetId, CommandType command, Object data) {
+        return new DataPacket<>(DataPacket.MAGIC_BYTE, (byte) 1, packetId, command, 1, data, 0);
+    }
+
+    @Test
+    public void testProbeIsAnsweredWhileAScanRuns() throws InterruptedException {
+        CountDownLatch scanMayFinish = new CountDownLatch(1);
+        BlockingQueue<DataPacket<Object>> parsed = new ArrayBlockingQueue<>(8);
+        BlockingQueue<RequestData> responses = new ArrayBlockingQueue<>(8);
+        MySQLProductProcessor processor = new MySQLProductProcessor(parsed, responses, 1,
+                handlers(scanMayFinish, CommandType.GET_ALL_PRODUCTS), CommandLanes.defaults());
+        processor.start();
+        try {
+            parsed.put(request(1, CommandType.GET_ALL_PRODUCTS, null));
+            parsed.put(request(2, CommandType.IS_RUNNING, new IsRunning()));
+
+            RequestData probe = responses.poll(1, TimeUnit.SECONDS);
+            assertNotNull(probe);
+            assertEquals(2, probe.getPacketId());
+            assertEquals(new CommandResponse(200, "Success", "The server is running."), probe.getResponse());
+
+            scanMayFinish.countDown();
+            assertEquals(1, responses.poll(1, TimeUnit.SECONDS).getPacketId());
+        } finally {
+            scanMayFinish.countDown();
+            processor.stop();
+        }
+    }
+
+    @Test
+    public void testScanWaitsForEarlierWrites() throws InterruptedException {
+        CountDownLatch updateMayFinish = new CountDownLatch(1);
+        BlockingQueue<DataPacket<Object>> parsed = new ArrayBlockingQueue<>(8);
+        BlockingQueue<RequestData> responses = new ArrayBlockingQueue<>(8);
+        MySQLProductProcessor processor = new MySQLProductProcessor(parsed, responses, 2,
+                handlers(updateMayFinish, CommandType.UPDATE_PRODUCT), CommandLanes.defaults());
+        processor.start();
+        try {
+            parsed.put(request(1, CommandType.UPDATE_PRODUCT, new UpdateProduct(5, "A", 1.0, 1)));
+            parsed.put(request(2, CommandType.GET_ALL_PRODUCTS, null));
+            parsed.put(request(3, CommandType.IS_RUNNING, new IsRunning()));
+
+            // The scan and everything behind it wait for the write
+            assertNull(responses.poll(100, TimeUnit.MILLISECONDS));
+            updateMayFinish.countDown();
+            assertEquals(1, responses.poll(1, TimeUnit.SECONDS).getPacketId());
+            long next = responses.poll(1, TimeUnit.SECONDS).getPacketId();
+            long last = responses.poll(1, TimeUnit.SECONDS).getPacketId();
+            assertEquals(5, next + last);
+        } finally {
+            updateMayFinish.countDown();
+            processor.stop();
+        }
+    }
+
+    @Test
+    public void testCommandsOnOneProductShareAWorker() throws InterruptedException {
+        Map<Object, Integer> workerOf = new ConcurrentHashMap<>();
+        BlockingQueue<DataPacket<Object>> parsed = new ArrayBlockingQueue<>(64);
+        BlockingQueue<RequestData> responses = new ArrayBlockingQueue<>(64);
+        MySQLProductProcessor processor = new MySQLProductProcessor(parsed, responses, 4, recording(workerOf));
+        processor.start();
+        try {
+            List<DataPacket<Object>> product5 = List.of(
+                    request(1, CommandType.UPDATE_PRODUCT, new UpdateProduct(5, "A", 1.0, 1)),
+                    request(2, CommandType.GET_PRODUCT, new GetProduct(5)),
+                    request(3, CommandType.GET_PRODUCT_GROUPS, new GetProductGroups(5)),
+                    request(4, CommandType.ADD_PRODUCT_TO_GROUP, new AddProductToGroup(5, 9)),
+                    request(5, CommandType.DELETE_PRODUCT, new DeleteProduct(5)));
+            for (DataPacket<Object> request : product5) {
+                parsed.put(request);
+            }
+            // Other products spread over more than one worker
+            for (int id = 0; id < 16; id++) {
+                parsed.put(request(100 + id, CommandType.GET_PRODUCT, new GetProduct(100 + id)));
+            }
+            for (int i = 0; i < product5.size() + 16; i++) {
+                assertNotNull(responses.poll(1, TimeUnit.SECONDS));
+            }
+
+            Integer worker = workerOf.get(product5.get(0).getBody().getData());
+            for (DataPacket<Object> request : product5) {
+                assertEquals(worker, workerOf.get(request.getBody().getData()), request.getBody().getCommand().name());
+            }
+            assertTrue(workerOf.values().stream().distinct().count() > 1);
+        } finally {
+            processor.stop();
+        }
+    }
+
+    @Test
+    public void testBarrierRunsAloneInDispatchOrder() throws InterruptedException {
+        CountDownLatch updateMayFinish = new CountDownLatch(1);
+        BlockingQueue<DataPacket<Object>> parsed = new ArrayBlockingQueue<>(8);
+        BlockingQueue<RequestData> responses = new ArrayBlockingQueue<>(8);
+        MySQLProductProcessor processor = new MySQLProductProcessor(parsed, responses, 2,
+                handlers(updateMayFinish, CommandType.UPDATE_PRODUCT));
+        processor.start();
+        try {
+            parsed.put(request(1, CommandType.UPDATE_PRODUCT, new UpdateProduct(1, "A", 1.0, 1)));
+            parsed.put(request(2, CommandType.CLEAR_DB, null));
+            parsed.put(request(3, CommandType.GET_PRODUCT, new GetProduct(2)));
+
+            // Neither the barrier nor the read on another product may run before the update is done
+            assertNull(responses.poll(100, TimeUnit.MILLISECONDS));
+            updateMayFinish.countDown();
+            for (long packetId = 1; packetId <= 3; packetId++) {
+                assertEquals(packetId, responses.poll(1, TimeUnit.SECONDS).getPacketId());
+            }
+        } finally {
+            updateMayFinish.countDown();
+            processor.stop();
+        }
+    }
+
+    @Test
+    public void testSingleWorkerAnswersInRequestOrder() throws InterruptedException {
+        BlockingQueue<DataPacket<Object>> parsed = new ArrayBlockingQueue<>(64);
+        BlockingQueue<RequestData> responses = new ArrayBlockingQueue<>(64);
+        MySQLProductProcessor processor = new MySQLProductProcessor(parsed, responses, 1, handlers(new CountDownLatch(0)));
+        processor.start();
+        try {
+            for (int i = 0; i < 10; i++) {
+                parsed.put(request(4 * i, CommandType.UPDATE_PRODUCT, new UpdateProduct(i, "A", 1.0, 1)));
+                parsed.put(request(4 * i + 1, CommandType.GET_ALL_PRODUCTS, null));
+                parsed.put(request(4 * i + 2, CommandType.GET_PRODUCT, new GetProduct(i + 1)));
+                parsed.put(request(4 * i + 3, CommandType.CLEAR_DB, null));
+            }
+            for (long packetId = 0; packetId < 40; packetId++) {
+                assertEquals(packetId, responses.poll(1, TimeUnit.SECONDS).getPacketId());
+            }
+        } finally {
+            processor.stop();
+        }
+    }
+}
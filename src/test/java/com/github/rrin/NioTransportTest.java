@@ -0,0 +1,245 @@
+package com.github.rrin;
+
+import com.github.rrin.dto.product.CreateProduct;
+import com.github.rrin.implementation.tcp.NioConnection;
+import com.github.rrin.implementation.tcp.NioConnectionManager;
+import com.github.rrin.implementation.tcp.NioTcpReceiver;
+import com.github.rrin.util.CommandType;
+import com.github.rrin.util.OverflowPolicy;
+import com.github.rrin.util.data.BufferPool;
+import com.github.rrin.util.data.DataPacket;
+import com.github.rrin.util.data.FrameDecoder;
+import com.github.rrin.util.data.QueueSink;
+import com.github.rrin.util.data.RawData;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NioTransportTest {
+
+    private static final String SERVER_HOST = "127.0.0.1";
+    private static final int TCP_PORT = 5558;
+    private static final int BUFFER_SIZE = 16 * 1024;
+    // Far more than the socket buffers on both ends of a loopback connection can take
+    private static final int FRAMES = 4000;
+    private static final int RESPONSES = 1024;
+
+    // Counts the pooled buffers handed out and not yet given back
+    private static class CountingPool extends BufferPool {
+        final AtomicInteger outstanding = new AtomicInteger();
+
+        CountingPool() {
+            super(64, BUFFER_SIZE);
+        }
+
+        @Override
+        public ByteBuffer acquire() {
+            outstanding.incrementAndGet();
+            return super.acquire();
+        }
+
+        @Override
+        public void release(ByteBuffer buffer) {
+            if (buffer.isDirect() && buffer.capacity() == getBufferSize()) {
+                outstanding.decrementAndGet();
+            }
+            super.release(buffer);
+        }
+    }
+
+    // Stands in for a pipeline queue that is full until opened, takes and releases every request after that
+    private static class GateSink implements QueueSink<RawData> {
+        volatile boolean open;
+        final AtomicInteger offers = new AtomicInteger();
+        final AtomicInteger received = new AtomicInteger();
+
+        @Override
+        public boolean offer(RawData request) {
+            offers.incrementAndGet();
+            if (!open) {
+                return false;
+            }
+            received.incrementAndGet();
+            request.release();
+            return true;
+        }
+
+        @Override
+        public void put(RawData request) {
+            throw new AssertionError("The event loop must not block on the pipeline");
+        }
+
+        @Override
+        public int size() {
+            return 0;
+        }
+    }
+
+    @Test
+    public void testReadingPausesWhileThePipelineIsFull() throws Exception {
+        CountingPool pool = new CountingPool();
+        GateSink sink = new GateSink();
+        NioTcpReceiver receiver = new NioTcpReceiver(sink, TCP_PORT, new NioConnectionManager(), 1,
+                FrameDecoder.DEFAULT_MAX_FRAME_SIZE, pool);
+        receiver.start();
+        try (Socket client = connect()) {
+            byte[] frame = new DataPacket<>(DataPacket.MAGIC_BYTE, (byte) 1, 1, CommandType.CREATE_PRODUCT, 1,
+                    (Object) new CreateProduct("x".repeat(8000), 1.0, 1), 0).toByteArray();
+            Thread writer = new Thread(() -> {
+                try {
+                    OutputStream out = client.getOutputStream();
+                    for (int i = 0; i < FRAMES; i++) {
+                        out.write(frame);
+                    }
+                    out.flush();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }, "Writer");
+            writer.start();
+
+            // The loop stops reading, so the socket buffers fill and the client's writes block
+            writer.join(500);
+            assertTrue(writer.isAlive());
+            assertTrue(sink.offers.get() > 1, "The stalled request should be retried");
+            assertEquals(0, sink.received.get());
+
+            sink.open = true;
+            writer.join(10_000);
+            assertFalse(writer.isAlive());
+            await(() -> sink.received.get() == FRAMES);
+            assertEquals(0, pool.outstanding.get());
+        } finally {
+            receiver.stop();
+        }
+    }
+
+    @Test
+    public void testStalledRequestIsReleasedOnStop() throws Exception {
+        CountingPool pool = new CountingPool();
+        GateSink sink = new GateSink();
+        NioTcpReceiver receiver = new NioTcpReceiver(sink, TCP_PORT, new NioConnectionManager(), 1,
+                FrameDecoder.DEFAULT_MAX_FRAME_SIZE, pool);
+        receiver.start();
+        try (Socket client = connect()) {
+            client.getOutputStream().write(new DataPacket<>(DataPacket.MAGIC_BYTE, (byte) 1, 1, CommandType.CREATE_PRODUCT, 1,
+                    (Object) new CreateProduct("A", 1.0, 1), 0).toByteArray());
+            await(() -> sink.offers.get() > 0);
+            assertEquals(1, pool.outstanding.get());
+        } finally {
+            receiver.stop();
+        }
+        assertEquals(0, pool.outstanding.get());
+    }
+
+    @Test
+    public void testPartialWritesFinishOnceTheClientReads() throws Exception {
+        CountingPool pool = new CountingPool();
+        NioConnectionManager connections = new NioConnectionManager();
+        NioTcpReceiver receiver = new NioTcpReceiver(QueueSink.of(new ArrayBlockingQueue<>(1)), TCP_PORT, connections,
+                1, FrameDecoder.DEFAULT_MAX_FRAME_SIZE, pool, RESPONSES, OverflowPolicy.BLOCK, 64 * 1024, null);
+        receiver.start();
+        try (Socket client = connect()) {
+            NioConnection connection = registered(connections);
+            for (int i = 0; i < RESPONSES; i++) {
+                assertTrue(connection.send(response(pool, connection.getId(), (byte) i)));
+            }
+
+            // The socket took only part of it, the rest waits for OP_WRITE
+            Thread.sleep(200);
+            assertTrue(pool.outstanding.get() > 0);
+
+            InputStream in = client.getInputStream();
+            byte[] chunk = new byte[BUFFER_SIZE];
+            for (int i = 0; i < RESPONSES; i++) {
+                int read = 0;
+                while (read < BUFFER_SIZE) {
+                    int n = in.read(chunk, read, BUFFER_SIZE - read);
+                    assertTrue(n > 0);
+                    read += n;
+                }
+                assertEquals((byte) i, chunk[0]);
+                assertEquals((byte) i, chunk[BUFFER_SIZE - 1]);
+            }
+            await(() -> pool.outstanding.get() == 0);
+        } finally {
+            receiver.stop();
+        }
+    }
+
+    @Test
+    public void testDisconnectPolicyClosesAndReleasesEverything() throws Exception {
+        CountingPool pool = new CountingPool();
+        NioConnectionManager connections = new NioConnectionManager();
+        NioTcpReceiver receiver = new NioTcpReceiver(QueueSink.of(new ArrayBlockingQueue<>(1)), TCP_PORT, connections,
+                1, FrameDecoder.DEFAULT_MAX_FRAME_SIZE, pool, 4, OverflowPolicy.DISCONNECT, 64 * 1024, null);
+        receiver.start();
+        try (Socket client = connect()) {
+            NioConnection connection = registered(connections);
+            long id = connection.getId();
+            int accepted = 0;
+            for (int i = 0; i < RESPONSES && connection.send(response(pool, id, (byte) i)); i++) {
+                accepted++;
+            }
+
+            assertTrue(accepted < RESPONSES, "A client that never reads should overflow the outbound queue");
+            await(() -> !connections.isConnected(id));
+            await(() -> pool.outstanding.get() == 0);
+        } finally {
+            receiver.stop();
+        }
+    }
+
+    // Retries while the acceptor thread is still binding
+    private static Socket connect() throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (true) {
+            Socket client = new Socket();
+            // Small enough that the server's writes soon come up short
+            client.setReceiveBufferSize(4096);
+            try {
+                client.connect(new InetSocketAddress(SERVER_HOST, TCP_PORT));
+                return client;
+            } catch (IOException e) {
+                client.close();
+                if (System.nanoTime() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    // The first connection a fresh manager registers gets id 1
+    private static NioConnection registered(NioConnectionManager connections) throws InterruptedException {
+        await(() -> connections.get(1L) != null);
+        return connections.get(1L);
+    }
+
+    private static RawData response(BufferPool pool, long connectionId, byte fill) {
+        ByteBuffer buffer = pool.acquire();
+        while (buffer.hasRemaining()) {
+            buffer.put(fill);
+        }
+        return new RawData(buffer.flip(), connectionId, pool);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Timed out");
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.github.rrin;
+
+import com.github.rrin.implementation.PartitionedWorkers;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PartitionedWorkersTest {
+
+    private record Item(long connectionId, int sequence) {}
+
+    @Test
+    public void testItemsOfOneKeyKeepTheirOrder() throws InterruptedException {
+        int connections = 32;
+        int perConnection = 500;
+        Map<Long, List<Integer>> seen = new ConcurrentHashMap<>();
+        CountDownLatch done = new CountDownLatch(connections * perConnection);
+
+        PartitionedWorkers<Item> workers = new PartitionedWorkers<>("Test", 8, item -> {
+            seen.computeIfAbsent(item.connectionId(), id -> new ArrayList<>()).add(item.sequence());
+            done.countDown();
+        });
+        workers.start();
+
+        for (int sequence = 0; sequence < perConnection; sequence++) {
+            for (long connectionId = 0; connectionId < connections; connectionId++) {
+                workers.dispatch(new Item(connectionId, sequence), connectionId);
+            }
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        workers.stop();
+
+        assertEquals(connections, seen.size());
+        for (List<Integer> sequences : seen.values()) {
+            assertEquals(perConnection, sequences.size());
+            for (int i = 0; i < perConnection; i++) {
+                assertEquals(i, sequences.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testWorkerCountMustBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> new PartitionedWorkers<Item>("Test", 0, item -> {}));
+    }
+}
@@ -0,0 +1,118 @@
+package com.github.rrin;
+
+import com.github.rrin.util.CommandType;
+import com.github.rrin.util.metrics.HistogramSnapshot;
+import com.github.rrin.util.metrics.LogLinearHistogram;
+import com.github.rrin.util.metrics.PipelineMetrics;
+import com.github.rrin.util.metrics.PipelineStage;
+import com.github.rrin.util.metrics.ServerMetrics;
+import com.github.rrin.util.metrics.StageTimestamps;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PipelineMetricsTest {
+
+    @Test
+    public void testSmallValuesAreExact() {
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.getCount());
+        assertEquals(50, snapshot.getP50());
+        assertEquals(99, snapshot.getP99());
+        assertEquals(100, snapshot.getMax());
+        assertEquals(0, HistogramSnapshot.EMPTY.getP99());
+    }
+
+    @Test
+    public void testPercentilesWithinBucketPrecision() {
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        Random random = new Random(42);
+        long[] values = new long[100_000];
+        for (int i = 0; i < values.length; i++) {
+            // Spread over nine orders of magnitude, like latencies from nanoseconds to a second
+            values[i] = (long) Math.pow(10, random.nextDouble() * 9);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        HistogramSnapshot snapshot = histogram.snapshot();
+        for (double percentile : new double[]{50, 90, 99, 99.9}) {
+            long exact = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            long reported = snapshot.getValueAtPercentile(percentile);
+            assertTrue(reported >= exact, percentile + ": " + reported + " < " + exact);
+            assertTrue(reported <= exact * 1.04, percentile + ": " + reported + " too far above " + exact);
+        }
+    }
+
+    @Test
+    public void testConcurrentRecordsAreNotLost() throws InterruptedException {
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 100_000; i++) {
+                    histogram.record(i % 1000);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(400_000, histogram.snapshot().getCount());
+    }
+
+    @Test
+    public void testStagesAreBrokenDownByCommand() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        StageTimestamps timestamps = new StageTimestamps(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(5));
+        timestamps.decryptStarted();
+        timestamps.decrypted(CommandType.GET_PRODUCT);
+        timestamps.processStarted();
+        timestamps.processed();
+        timestamps.encryptStarted();
+        timestamps.encrypted();
+        metrics.recordSent(timestamps);
+
+        // Rejections never decode, so they have no command and are not recorded
+        metrics.recordSent(new StageTimestamps());
+
+        ServerMetrics snapshot = metrics.snapshot();
+        assertEquals(Set.of(CommandType.GET_PRODUCT), snapshot.getCommands());
+        assertEquals(1, snapshot.getLatency(PipelineStage.TOTAL, CommandType.GET_PRODUCT).getCount());
+        assertTrue(snapshot.getLatency(PipelineStage.TOTAL).getMax() >= TimeUnit.MILLISECONDS.toNanos(5));
+        assertTrue(snapshot.getLatency(PipelineStage.DECRYPT_QUEUE).getMax() >= TimeUnit.MILLISECONDS.toNanos(5));
+        assertEquals(0, snapshot.getLatency(PipelineStage.PROCESS, CommandType.CREATE_PRODUCT).getCount());
+    }
+
+    @Test
+    public void testQueueDepthSamples() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        BlockingQueue<Integer> queue = new ArrayBlockingQueue<>(16);
+        metrics.watchQueue("decrypter", queue);
+
+        metrics.sampleQueues();
+        for (int i = 0; i < 5; i++) {
+            queue.offer(i);
+        }
+        metrics.sampleQueues();
+        queue.poll();
+
+        ServerMetrics snapshot = metrics.snapshot();
+        assertEquals(Set.of("decrypter"), snapshot.getQueueNames());
+        assertEquals(2, snapshot.getQueueDepth("decrypter").getCount());
+        assertEquals(5, snapshot.getQueueDepth("decrypter").getMax());
+        assertEquals(4, snapshot.getCurrentQueueDepth("decrypter"));
+    }
+}
@@ -0,0 +1,102 @@
+package com.github.rrin;
+
+import com.github.rrin.dto.CommandResponse;
+import com.github.rrin.dto.product.GetProduct;
+import com.github.rrin.implementation.Decrypter;
+import com.github.rrin.implementation.DeadlineGuard;
+import com.github.rrin.implementation.MySQLProductProcessor;
+import com.github.rrin.interfaces.ICommandHandler;
+import com.github.rrin.util.CommandType;
+import com.github.rrin.util.data.DataPacket;
+import com.github.rrin.util.data.RawData;
+import com.github.rrin.util.data.RequestData;
+import com.github.rrin.util.metrics.PipelineMetrics;
+import com.github.rrin.util.metrics.PipelineStage;
+import com.github.rrin.util.metrics.StageTimestamps;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RequestDeadlineTest {
+
+    private static DataPacket<Object> request(long packetId, int deadlineMillis) {
+        return new DataPacket<>(DataPacket.MAGIC_BYTE, (byte) 1, packetId, CommandType.GET_PRODUCT, 1, new GetProduct(5), 0, 0,
+                deadlineMillis);
+    }
+
+    // Timestamps of a request that arrived the given number of milliseconds ago
+    private static StageTimestamps arrivedAgo(long millis) {
+        return new StageTimestamps(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    @Test
+    public void testDecrypterDropsFramesPastTheirDeadline() throws InterruptedException {
+        PipelineMetrics metrics = new PipelineMetrics();
+        BlockingQueue<RawData> raw = new ArrayBlockingQueue<>(8);
+        BlockingQueue<DataPacket<Object>> parsed = new ArrayBlockingQueue<>(8);
+        Decrypter decrypter = new Decrypter(raw, parsed, 1, new DeadlineGuard(metrics));
+        decrypter.start();
+        try {
+            raw.put(new RawData(ByteBuffer.wrap(request(1, 50).toByteArray()), 0L, null, arrivedAgo(100)));
+            raw.put(new RawData(ByteBuffer.wrap(request(2, 5000).toByteArray()), 0L, null, arrivedAgo(100)));
+            raw.put(new RawData(ByteBuffer.wrap(request(3, 0).toByteArray()), 0L, null, arrivedAgo(100)));
+
+            assertEquals(2, parsed.poll(1, TimeUnit.SECONDS).getPacketId());
+            assertEquals(3, parsed.poll(1, TimeUnit.SECONDS).getPacketId());
+            assertNull(parsed.poll(50, TimeUnit.MILLISECONDS));
+            assertEquals(1, metrics.snapshot().getExpired(PipelineStage.DECRYPT));
+        } finally {
+            decrypter.stop();
+        }
+    }
+
+    @Test
+    public void testProcessorSkipsTheHandlerForExpiredRequests() throws InterruptedException {
+        PipelineMetrics metrics = new PipelineMetrics();
+        AtomicInteger handled = new AtomicInteger();
+        ICommandHandler.Factory handlers = worker -> new ICommandHandler() {
+            @Override
+            public CommandResponse handle(CommandType command, Object data) {
+                handled.incrementAndGet();
+                return new CommandResponse(200, "Success", "ok");
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        BlockingQueue<DataPacket<Object>> parsed = new ArrayBlockingQueue<>(8);
+        BlockingQueue<RequestData> responses = new ArrayBlockingQueue<>(8);
+        MySQLProductProcessor processor = new MySQLProductProcessor(parsed, responses, 1, handlers, null, new DeadlineGuard(metrics));
+        processor.start();
+        try {
+            // Went stale while queued for the processor
+            DataPacket<Object> stale = request(1, 50);
+            StageTimestamps staleTimestamps = arrivedAgo(100);
+            staleTimestamps.expireAfter(stale.getDeadlineMillis());
+            stale.setTimestamps(staleTimestamps);
+
+            DataPacket<Object> fresh = request(2, 5000);
+            StageTimestamps freshTimestamps = arrivedAgo(100);
+            freshTimestamps.expireAfter(fresh.getDeadlineMillis());
+            fresh.setTimestamps(freshTimestamps);
+
+            parsed.put(stale);
+            parsed.put(fresh);
+
+            assertEquals(2, responses.poll(1, TimeUnit.SECONDS).getPacketId());
+            assertNull(responses.poll(50, TimeUnit.MILLISECONDS));
+            assertEquals(1, handled.get());
+            assertEquals(1, metrics.snapshot().getExpired(PipelineStage.PROCESS));
+            assertEquals(1, metrics.snapshot().getExpired());
+        } finally {
+            processor.stop();
+        }
+    }
+}
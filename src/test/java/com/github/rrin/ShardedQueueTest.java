@@ -0,0 +1,71 @@
+package com.github.rrin;
+
+import com.github.rrin.util.data.ShardedQueue;
+import com.github.rrin.util.data.StageQueue;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShardedQueueTest {
+
+    private record Item(long key, int sequence) {}
+
+    @Test
+    public void testSameKeyStaysOnOneShardInOrder() {
+        ShardedQueue<Item> queue = new ShardedQueue<>(4, Item::key, shard -> new StageQueue<>(64));
+        for (int i = 0; i < 10; i++) {
+            for (long key = 0; key < 8; key++) {
+                assertTrue(queue.offer(new Item(key, i)));
+            }
+        }
+        assertEquals(80, queue.size());
+
+        for (int shard = 0; shard < queue.shardCount(); shard++) {
+            int[] lastSequence = {-1, -1, -1, -1, -1, -1, -1, -1};
+            Item item;
+            while ((item = queue.shard(shard).poll()) != null) {
+                assertEquals(shard, Math.floorMod(item.key(), 4));
+                assertEquals(lastSequence[(int) item.key()] + 1, item.sequence());
+                lastSequence[(int) item.key()] = item.sequence();
+            }
+        }
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testNegativeKeysAndFullShard() {
+        ShardedQueue<Item> queue = new ShardedQueue<>(2, Item::key, shard -> new ArrayBlockingQueue<>(1));
+        assertTrue(queue.offer(new Item(-1, 0)));
+        assertEquals(1, queue.shard(1).size());
+
+        // Only the full shard refuses, the other one still has room
+        assertFalse(queue.offer(new Item(1, 1)));
+        assertTrue(queue.offer(new Item(2, 2)));
+        assertEquals(0, queue.remainingCapacity());
+    }
+
+    @Test
+    public void testPutAndSizeCoverAllShards() throws InterruptedException {
+        ShardedQueue<Item> queue = new ShardedQueue<>(3, Item::key, shard -> new StageQueue<>(8));
+        for (int i = 0; i < 6; i++) {
+            queue.put(new Item(i, i));
+        }
+        assertEquals(6, queue.size());
+
+        List<Item> drained = new ArrayList<>();
+        for (int shard = 0; shard < queue.shardCount(); shard++) {
+            assertEquals(2, queue.shard(shard).drainTo(drained));
+        }
+        assertEquals(6, drained.size());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testShardCountMustBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> new ShardedQueue<Item>(0, Item::key, shard -> new StageQueue<>(8)));
+    }
+}
@@ -0,0 +1,137 @@
+package com.github.rrin;
+
+import com.github.rrin.util.data.StageQueue;
+import com.github.rrin.util.data.WaitStrategy;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StageQueueTest {
+
+    private record Item(int producer, int sequence) {}
+
+    @Test
+    public void testCapacityRoundsUpToPowerOfTwo() {
+        assertEquals(2, new StageQueue<Integer>(1).capacity());
+        assertEquals(1024, new StageQueue<Integer>(1000).capacity());
+        assertEquals(1024, new StageQueue<Integer>(1024).capacity());
+        assertThrows(IllegalArgumentException.class, () -> new StageQueue<Integer>(0));
+    }
+
+    @Test
+    public void testSmallestQueueDoesNotOverwrite() {
+        StageQueue<Integer> queue = new StageQueue<>(1);
+        assertTrue(queue.offer(1));
+        assertTrue(queue.offer(2));
+        assertFalse(queue.offer(3));
+        assertEquals(1, queue.poll());
+        assertEquals(2, queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testFifoAndFullQueue() {
+        StageQueue<Integer> queue = new StageQueue<>(4, true, WaitStrategy.PARK);
+        // Wrap around the ring a few times
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 4; i++) {
+                assertTrue(queue.offer(i));
+            }
+            assertFalse(queue.offer(4));
+            assertEquals(4, queue.size());
+            assertEquals(0, queue.remainingCapacity());
+            assertEquals(0, queue.peek());
+
+            for (int i = 0; i < 4; i++) {
+                assertEquals(i, queue.poll());
+            }
+            assertNull(queue.poll());
+            assertTrue(queue.isEmpty());
+        }
+    }
+
+    @Test
+    public void testTimedOperationsGiveUp() throws InterruptedException {
+        StageQueue<Integer> queue = new StageQueue<>(2, false, WaitStrategy.PARK);
+        assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+        assertTrue(queue.offer(1, 10, TimeUnit.MILLISECONDS));
+        assertTrue(queue.offer(2, 10, TimeUnit.MILLISECONDS));
+        assertFalse(queue.offer(3, 10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testDrainTo() {
+        StageQueue<Integer> queue = new StageQueue<>(8);
+        for (int i = 0; i < 5; i++) {
+            queue.offer(i);
+        }
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(3, queue.drainTo(drained, 3));
+        assertEquals(2, queue.drainTo(drained));
+        assertEquals(List.of(0, 1, 2, 3, 4), drained);
+    }
+
+    @Test
+    public void testIteratorSeesQueuedElementsInOrder() {
+        StageQueue<Integer> queue = new StageQueue<>(4);
+        for (int i = 0; i < 6; i++) {
+            queue.offer(i);
+            // Wraps around the ring, head and tail no longer start at slot 0
+            if (i < 3) {
+                queue.poll();
+            }
+        }
+
+        assertEquals("[3, 4, 5]", queue.toString());
+        assertTrue(queue.contains(4));
+        assertFalse(queue.contains(2));
+        assertArrayEquals(new Object[]{3, 4, 5}, queue.toArray());
+        assertThrows(UnsupportedOperationException.class, () -> {
+            var iterator = queue.iterator();
+            iterator.next();
+            iterator.remove();
+        });
+        assertEquals(3, queue.size());
+    }
+
+    @Test
+    public void testProducersKeepTheirOrderUnderEveryWaitStrategy() throws InterruptedException {
+        for (WaitStrategy waitStrategy : WaitStrategy.values()) {
+            int producers = 4;
+            int perProducer = 2_000;
+            // A small ring so producers keep hitting the full queue
+            StageQueue<Item> queue = new StageQueue<>(64, false, waitStrategy);
+
+            List<Thread> threads = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                int producer = p;
+                Thread thread = new Thread(() -> {
+                    try {
+                        for (int i = 0; i < perProducer; i++) {
+                            queue.put(new Item(producer, i));
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+
+            int[] next = new int[producers];
+            for (int i = 0; i < producers * perProducer; i++) {
+                Item item = queue.poll(10, TimeUnit.SECONDS);
+                assertNotNull(item, waitStrategy + " lost an element");
+                assertEquals(next[item.producer()]++, item.sequence(), waitStrategy + " reordered a producer");
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertTrue(queue.isEmpty());
+        }
+    }
+}
@@ -7,6 +7,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -69,4 +70,30 @@ public class TcpCommunicationTest {
         assert(commandResponse.title().equals("Success"));
         assert(commandResponse.message().equals("Updated product (ID: 1): quantity=40 \n - ID: 1, Name: TestProduct, Value: 10.0, Quantity: 40\n"));
     }
+
+    @Test
+    void testTcpBatch() throws Exception {
+        DataPacket<CommandResponse> response = tcpClient.batch()
+                .createProduct("First", 10, 10)
+                .createProduct("Second", 20, 5)
+                .updateProduct(1, null, null, 40)
+                .send(TEST_TIMEOUT);
+
+        assertNotNull(response, "Response should not be null");
+        CommandResponse commandResponse = response.getBody().getData();
+        assertEquals(200, commandResponse.statusCode());
+        assertEquals(3, commandResponse.results().size());
+        assertEquals("Created product: Second (ID: 2)", commandResponse.results().get(1).message());
+
+        response = tcpClient.batch()
+                .atomic()
+                .createProduct("Third", 30, 1)
+                .updateProduct(999, null, null, 1)
+                .send(TEST_TIMEOUT);
+
+        commandResponse = response.getBody().getData();
+        assertEquals(409, commandResponse.statusCode());
+        assertEquals(404, commandResponse.results().get(1).statusCode());
+        assertEquals(404, tcpClient.getProduct(3, TEST_TIMEOUT).getBody().getData().statusCode());
+    }
 }
@@ -0,0 +1,110 @@
+package com.github.rrin;
+
+import com.github.rrin.dto.IsRunning;
+import com.github.rrin.implementation.tcp.TcpReceiver;
+import com.github.rrin.implementation.tcp.TcpSocketManager;
+import com.github.rrin.util.CommandType;
+import com.github.rrin.util.ReceiverMode;
+import com.github.rrin.util.data.BufferPool;
+import com.github.rrin.util.data.DataPacket;
+import com.github.rrin.util.data.FrameDecoder;
+import com.github.rrin.util.data.QueueSink;
+import com.github.rrin.util.data.RawData;
+import com.github.rrin.util.data.StageQueue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Holds thousands of idle connections on one receiver while short-lived ones stream frames through it.
+// Run with: mvn test -Dtest=TcpReceiverSoakTest -Dsoak=true (two file descriptors per idle connection, check ulimit -n)
+@EnabledIfSystemProperty(named = "soak", matches = "true")
+public class TcpReceiverSoakTest {
+
+    private static final String SERVER_HOST = "127.0.0.1";
+    private static final int TCP_PORT = 5557;
+    private static final int IDLE_CONNECTIONS = Integer.getInteger("soak.idle", 10_000);
+    private static final int ACTIVE_CONNECTIONS = Integer.getInteger("soak.active", 2_000);
+    private static final int FRAMES_PER_CONNECTION = 20;
+    private static final int MAX_PLATFORM_THREADS = 200;
+
+    @Test
+    public void testIdleConnectionsDoNotHoldPlatformThreads() throws Exception {
+        StageQueue<RawData> outputQueue = new StageQueue<>(4096);
+        TcpReceiver receiver = new TcpReceiver(QueueSink.of(outputQueue), TCP_PORT, new TcpSocketManager(),
+                FrameDecoder.DEFAULT_MAX_FRAME_SIZE, new BufferPool(), ReceiverMode.VIRTUAL_THREADS);
+
+        AtomicInteger received = new AtomicInteger();
+        Thread consumer = new Thread(() -> {
+            try {
+                while (true) {
+                    outputQueue.take().release();
+                    received.incrementAndGet();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "SoakConsumer");
+        consumer.start();
+        receiver.start();
+        Thread.sleep(500);
+
+        byte[] frame = new DataPacket<>(DataPacket.MAGIC_BYTE, (byte) 1, 1, CommandType.IS_RUNNING, 1, new IsRunning(), 0)
+                .toByteArray();
+        List<Socket> idle = new ArrayList<>(IDLE_CONNECTIONS);
+        try {
+            for (int i = 0; i < IDLE_CONNECTIONS; i++) {
+                idle.add(new Socket(SERVER_HOST, TCP_PORT));
+            }
+
+            try (ExecutorService clients = Executors.newFixedThreadPool(16)) {
+                for (int i = 0; i < ACTIVE_CONNECTIONS; i++) {
+                    clients.submit(() -> {
+                        try (Socket socket = new Socket(SERVER_HOST, TCP_PORT)) {
+                            OutputStream out = socket.getOutputStream();
+                            for (int f = 0; f < FRAMES_PER_CONNECTION; f++) {
+                                out.write(frame);
+                            }
+                            out.flush();
+                        }
+                        return null;
+                    });
+                }
+            }
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+            int expected = ACTIVE_CONNECTIONS * FRAMES_PER_CONNECTION;
+            while (received.get() < expected && System.nanoTime() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(expected, received.get(), "Every frame of the active connections should arrive");
+
+            int platformThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+            assertTrue(platformThreads < MAX_PLATFORM_THREADS,
+                    IDLE_CONNECTIONS + " idle connections should not hold platform threads, found " + platformThreads);
+            for (Socket socket : idle) {
+                assertFalse(socket.isClosed());
+            }
+        } finally {
+            for (Socket socket : idle) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+            receiver.stop();
+            consumer.interrupt();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.rrin;
+
+import com.github.rrin.implementation.tcp.TcpSocketManager;
+import com.github.rrin.util.OverflowPolicy;
+import com.github.rrin.util.data.RawData;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TcpSocketManagerTest {
+
+    // Far more than the socket buffers of a client that never reads can take
+    private static final int RESPONSES = 200;
+    private static final int RESPONSE_SIZE = 64 * 1024;
+
+    @Test
+    public void testDropPolicyKeepsTheStalledConnection() throws Exception {
+        try (ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+             Socket stalledClient = new Socket("127.0.0.1", server.socket().getLocalPort())) {
+            TcpSocketManager manager = new TcpSocketManager(4, OverflowPolicy.DROP);
+            Long id = manager.register(accept(server));
+
+            int accepted = sendAll(manager, id);
+
+            assertTrue(accepted < RESPONSES, "A client that never reads should overflow its queue");
+            assertEquals(RESPONSES - accepted, manager.getDroppedResponses());
+            assertTrue(manager.isConnected(id));
+            manager.closeAll();
+        }
+    }
+
+    @Test
+    public void testDisconnectPolicyClosesTheStalledConnection() throws Exception {
+        try (ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+             Socket stalledClient = new Socket("127.0.0.1", server.socket().getLocalPort())) {
+            TcpSocketManager manager = new TcpSocketManager(4, OverflowPolicy.DISCONNECT);
+            Long id = manager.register(accept(server));
+
+            sendAll(manager, id);
+
+            assertEquals(1, manager.getDroppedResponses(), "Responses after the disconnect have no connection to drop from");
+            assertFalse(manager.isConnected(id));
+            assertNull(manager.get(id));
+        }
+    }
+
+    @Test
+    public void testUnknownConnection() throws Exception {
+        TcpSocketManager manager = new TcpSocketManager();
+        assertFalse(manager.send(42L, new RawData(new byte[1], 42L)));
+        assertEquals(0, manager.getDroppedResponses());
+    }
+
+    private static Socket accept(ServerSocketChannel server) throws Exception {
+        SocketChannel channel = server.accept();
+        return channel.socket();
+    }
+
+    private static int sendAll(TcpSocketManager manager, Long id) throws InterruptedException {
+        int accepted = 0;
+        for (int i = 0; i < RESPONSES; i++) {
+            if (manager.send(id, new RawData(new byte[RESPONSE_SIZE], id))) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+}
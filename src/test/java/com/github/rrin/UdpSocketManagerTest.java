@@ -0,0 +1,125 @@
+package com.github.rrin;
+
+import com.github.rrin.implementation.udp.UdpSocketManager;
+import com.github.rrin.util.data.LongObjectMap;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UdpSocketManagerTest {
+
+    private static InetSocketAddress client(int port) {
+        return new InetSocketAddress("127.0.0.1", port);
+    }
+
+    @Test
+    public void testOneSessionPerAddress() {
+        UdpSocketManager sessions = new UdpSocketManager();
+        InetSocketAddress ipv6 = new InetSocketAddress("::2", 4000);
+
+        Long first = sessions.register(client(4000));
+        Long other = sessions.register(client(4001));
+        Long v6 = sessions.register(ipv6);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(first, sessions.register(client(4000)));
+            assertEquals(v6, sessions.register(ipv6));
+        }
+
+        assertNotEquals(first, other);
+        assertEquals(3, sessions.size());
+        assertEquals(client(4001), sessions.get(other));
+        assertEquals(ipv6, sessions.get(v6));
+        assertEquals(20, sessions.getHits());
+        assertEquals(3, sessions.getMisses());
+    }
+
+    @Test
+    public void testIdleSessionsExpire() throws InterruptedException {
+        UdpSocketManager sessions = new UdpSocketManager(30, 100);
+        Long idle = sessions.register(client(4000));
+        Long active = sessions.register(client(4001));
+
+        // Sweeps run from register, every half TTL
+        for (int i = 0; i < 10; i++) {
+            Thread.sleep(10);
+            sessions.register(client(4001));
+        }
+
+        assertNull(sessions.get(idle));
+        assertFalse(sessions.isConnected(idle));
+        assertEquals(client(4001), sessions.get(active));
+        assertTrue(sessions.getEvictions() >= 1);
+    }
+
+    @Test
+    public void testSizeIsBoundedByEvictingLeastRecent() {
+        UdpSocketManager sessions = new UdpSocketManager(60_000, 64);
+        Long kept = sessions.register(client(1));
+        for (int port = 2; port <= 1000; port++) {
+            sessions.register(client(port));
+            // Seen again all the time, so never among the least recent
+            sessions.register(client(1));
+            assertTrue(sessions.size() <= 64);
+        }
+
+        assertEquals(client(1), sessions.get(kept));
+        assertEquals(client(1000), sessions.get(sessions.register(client(1000))));
+        assertEquals(1000 - sessions.size(), sessions.getEvictions());
+    }
+
+    @Test
+    public void testConcurrentReceiversShareSessions() throws InterruptedException {
+        UdpSocketManager sessions = new UdpSocketManager();
+        int threads = 4;
+        int rounds = 50;
+        Thread[] receivers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            receivers[t] = new Thread(() -> {
+                for (int round = 0; round < rounds; round++) {
+                    for (int port = 1; port <= 500; port++) {
+                        assertEquals(client(port), sessions.get(sessions.register(client(port))));
+                    }
+                }
+            });
+            receivers[t].start();
+        }
+        for (Thread receiver : receivers) {
+            receiver.join();
+        }
+
+        assertEquals(500, sessions.size());
+        assertEquals(500, sessions.getMisses());
+        assertEquals((long) threads * rounds * 500 - 500, sessions.getHits());
+    }
+
+    @Test
+    public void testLongObjectMapMatchesHashMap() {
+        LongObjectMap<Long> map = new LongObjectMap<>();
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 200_000; i++) {
+            // A small key range keeps probe runs crowded with removals and re-inserts
+            long key = random.nextInt(2_000) - 1_000;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                assertEquals(expected.put(key, (long) i), map.put(key, (long) i));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (long key = -1_000; key < 1_000; key++) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+
+        assertEquals(expected.values().stream().filter(v -> v % 2 == 0).count(), map.removeIf(v -> v % 2 == 0));
+        expected.values().removeIf(v -> v % 2 == 0);
+        for (long key = -1_000; key < 1_000; key++) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.github.rrin;
+
+import com.github.rrin.dto.Batch;
+import com.github.rrin.dto.BatchEntry;
+import com.github.rrin.dto.CommandResponse;
+import com.github.rrin.dto.product.CreateProduct;
+import com.github.rrin.implementation.WarehouseCommandHandler;
+import com.github.rrin.implementation.db.WarehouseService;
+import com.github.rrin.interfaces.IDatabaseManager;
+import com.github.rrin.util.CommandType;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WarehouseCommandHandlerTest {
+
+    // Keeps product names in memory, with a pending list standing in for an open transaction
+    private static class FakeWarehouse extends WarehouseService {
+        final List<String> committed = new ArrayList<>();
+        List<String> pending;
+        int clears;
+
+        FakeWarehouse() {
+            super((IDatabaseManager) null);
+        }
+
+        @Override
+        public int createProduct(String name, double price, int quantity) {
+            if (name.isEmpty()) {
+                return -1;
+            }
+            (pending != null ? pending : committed).add(name);
+            return committed.size() + (pending == null ? 0 : pending.size());
+        }
+
+        @Override
+        public void clearDB() {
+            clears++;
+            committed.clear();
+        }
+
+        @Override
+        public void beginTransaction() {
+            pending = new ArrayList<>();
+        }
+
+        @Override
+        public void commitTransaction() {
+            committed.addAll(pending);
+            pending = null;
+        }
+
+        @Override
+        public void rollbackTransaction() {
+            pending = null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static BatchEntry create(String name) {
+        return new BatchEntry(CommandType.CREATE_PRODUCT, new CreateProduct(name, 1.0, 1));
+    }
+
+    @Test
+    public void testAtomicBatchCommitsEveryEntry() {
+        FakeWarehouse warehouse = new FakeWarehouse();
+        CommandResponse response = new WarehouseCommandHandler(warehouse)
+                .handle(CommandType.BATCH, new Batch(true, List.of(create("a"), create("b"))));
+
+        assertEquals(200, response.statusCode());
+        assertEquals(List.of("a", "b"), warehouse.committed);
+    }
+
+    @Test
+    public void testAtomicBatchRollsBackOnFailedEntry() {
+        FakeWarehouse warehouse = new FakeWarehouse();
+        CommandResponse response = new WarehouseCommandHandler(warehouse)
+                .handle(CommandType.BATCH, new Batch(true, List.of(create("a"), create(""), create("c"))));
+
+        assertEquals(409, response.statusCode());
+        assertEquals(2, response.results().size());
+        assertTrue(warehouse.committed.isEmpty());
+        assertNull(warehouse.pending);
+    }
+
+    @Test
+    public void testAtomicBatchRejectsClearDb() {
+        FakeWarehouse warehouse = new FakeWarehouse();
+        warehouse.committed.add("existing");
+        CommandResponse response = new WarehouseCommandHandler(warehouse)
+                .handle(CommandType.BATCH, new Batch(true, List.of(create("a"), new BatchEntry(CommandType.CLEAR_DB, null))));
+
+        assertEquals(409, response.statusCode());
+        assertEquals(400, response.results().get(1).statusCode());
+        assertEquals(0, warehouse.clears);
+        assertEquals(List.of("existing"), warehouse.committed);
+    }
+
+    @Test
+    public void testPlainBatchMayClearDb() {
+        FakeWarehouse warehouse = new FakeWarehouse();
+        CommandResponse response = new WarehouseCommandHandler(warehouse)
+                .handle(CommandType.BATCH, new Batch(false, List.of(create("a"), new BatchEntry(CommandType.CLEAR_DB, null), create("b"))));
+
+        assertEquals(200, response.statusCode());
+        assertEquals(1, warehouse.clears);
+        assertEquals(List.of("b"), warehouse.committed);
+    }
+}
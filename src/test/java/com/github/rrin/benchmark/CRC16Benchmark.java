@@ -0,0 +1,81 @@
+package com.github.rrin.benchmark;
+
+import com.github.rrin.util.CRC16;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.github.rrin.benchmark.CRC16Benchmark
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CRC16Benchmark {
+
+    @Param({"14", "64", "1024", "65536"})
+    public int size;
+
+    private byte[] bytes;
+    private ByteBuffer directBuffer;
+
+    @Setup
+    public void setUp() {
+        bytes = new byte[size];
+        new Random(42).nextBytes(bytes);
+        directBuffer = ByteBuffer.allocateDirect(size).put(bytes).flip();
+    }
+
+    @Benchmark
+    public short legacy() {
+        return legacySum(bytes);
+    }
+
+    @Benchmark
+    public short staticTable() {
+        return CRC16.sum(bytes, 0, bytes.length);
+    }
+
+    @Benchmark
+    public short sliceBy8() {
+        return CRC16.sumSliceBy8(bytes, 0, bytes.length);
+    }
+
+    @Benchmark
+    public short directBuffer() {
+        return CRC16.sum(directBuffer);
+    }
+
+    // The implementation before the table was made static: the table is rebuilt on every call
+    private static short legacySum(byte[] bytes) {
+        int[] table = new int[256];
+        for (int i = 0; i < 256; i++) {
+            int value = i;
+            for (int bit = 0; bit < 8; bit++) {
+                value = (value & 1) != 0 ? (value >>> 1) ^ 0xA001 : value >>> 1;
+            }
+            table[i] = value;
+        }
+
+        int crc = 0x0000;
+        for (byte b : bytes) {
+            crc = (crc >>> 8) ^ table[(crc ^ b) & 0xff];
+        }
+
+        return (short) crc;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(CRC16Benchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
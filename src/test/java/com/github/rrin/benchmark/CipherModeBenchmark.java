@@ -0,0 +1,69 @@
+package com.github.rrin.benchmark;
+
+import com.github.rrin.util.CipherMode;
+import com.github.rrin.util.DataEncryption;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.github.rrin.benchmark.CipherModeBenchmark
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CipherModeBenchmark {
+
+    @Param({"CBC", "GCM"})
+    public CipherMode mode;
+
+    @Param({"100", "1024", "65536"})
+    public int size;
+
+    private ByteBuffer plain;
+    private ByteBuffer encrypted;
+    private ByteBuffer encryptTarget;
+    private ByteBuffer decryptTarget;
+
+    @Setup
+    public void setUp() {
+        byte[] bytes = new byte[size];
+        new Random(42).nextBytes(bytes);
+
+        plain = ByteBuffer.allocateDirect(size).put(bytes).flip();
+        encryptTarget = ByteBuffer.allocateDirect(DataEncryption.encryptedSize(size, mode));
+        decryptTarget = ByteBuffer.allocateDirect(size + 16);
+
+        encrypted = ByteBuffer.allocateDirect(DataEncryption.encryptedSize(size, mode));
+        DataEncryption.encrypt(plain.duplicate(), encrypted, mode);
+        encrypted.flip();
+    }
+
+    @Benchmark
+    public ByteBuffer encrypt() {
+        encryptTarget.clear();
+        DataEncryption.encrypt(plain.duplicate(), encryptTarget, mode);
+        return encryptTarget;
+    }
+
+    @Benchmark
+    public ByteBuffer decrypt() {
+        decryptTarget.clear();
+        DataEncryption.decrypt(encrypted.duplicate(), decryptTarget, mode);
+        return decryptTarget;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(CipherModeBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,87 @@
+package com.github.rrin.benchmark;
+
+import com.github.rrin.dto.CommandResponse;
+import com.github.rrin.dto.Product;
+import com.github.rrin.util.CommandType;
+import com.github.rrin.util.SearchResult;
+import com.github.rrin.util.data.DataPacket;
+import com.github.rrin.util.data.PacketFlags;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.github.rrin.benchmark.CompressionBenchmark
+// The compression ratio of every trial is printed before its first iteration, the CPU cost is the score.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+
+    @Param({"GET_ALL_PRODUCTS", "SEARCH_PRODUCTS", "GET_GROUP_PRODUCTS"})
+    public CommandType command;
+
+    @Param({"10", "100", "1000"})
+    public int products;
+
+    @Param({"false", "true"})
+    public boolean compressed;
+
+    private CommandResponse response;
+    private byte[] frame;
+
+    @Setup
+    public void setUp() {
+        List<Product> catalog = new ArrayList<>();
+        for (int i = 1; i <= products; i++) {
+            catalog.add(new Product(i, "Product " + i, 10 + i * 0.25, i % 50));
+        }
+
+        // Same messages MySQLProductProcessor builds for these commands
+        String message = switch (command) {
+            case GET_ALL_PRODUCTS -> "Retrieved " + catalog.size() + " products" + "\n" + catalog;
+            case SEARCH_PRODUCTS -> {
+                SearchResult<Product> result = new SearchResult<>(catalog, catalog.size() * 3, 0, catalog.size());
+                yield String.format("Found %d products (page %d of %d)", result.getTotalCount(), 1, result.getTotalPages())
+                        + "\n" + result;
+            }
+            default -> "Retrieved " + catalog.size() + " products for group ID: 1" + "\n " + catalog;
+        };
+        response = new CommandResponse(200, "Success", message);
+        frame = encode().toByteArray();
+
+        int plainSize = new DataPacket<>(DataPacket.MAGIC_BYTE, (byte) 1, 1, CommandType.RESPONSE, 1, response, 0).getFrameSize();
+        System.out.printf("%n%s, %d products: %d -> %d bytes (ratio %.2f)%n",
+                command, products, plainSize, frame.length, (double) plainSize / frame.length);
+    }
+
+    private DataPacket<CommandResponse> encode() {
+        return new DataPacket<>(DataPacket.MAGIC_BYTE, (byte) 1, 1, CommandType.RESPONSE, 1, response, 0,
+                compressed ? PacketFlags.COMPRESSED : PacketFlags.NONE);
+    }
+
+    @Benchmark
+    public byte[] encodeResponse() {
+        return encode().toByteArray();
+    }
+
+    @Benchmark
+    public DataPacket<CommandResponse> decodeResponse() {
+        return DataPacket.fromByteArray(frame, CommandResponse.class, 0);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(CompressionBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
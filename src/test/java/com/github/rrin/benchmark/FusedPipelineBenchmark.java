@@ -0,0 +1,203 @@
+package com.github.rrin.benchmark;
+
+import com.github.rrin.dto.CommandResponse;
+import com.github.rrin.dto.product.GetProduct;
+import com.github.rrin.implementation.Decrypter;
+import com.github.rrin.implementation.Encrypter;
+import com.github.rrin.implementation.FusedPipeline;
+import com.github.rrin.implementation.MySQLProductProcessor;
+import com.github.rrin.interfaces.ICommandHandler;
+import com.github.rrin.interfaces.IProcessor;
+import com.github.rrin.interfaces.ISender;
+import com.github.rrin.util.CommandType;
+import com.github.rrin.util.PipelineMode;
+import com.github.rrin.util.data.BufferPool;
+import com.github.rrin.util.data.DataPacket;
+import com.github.rrin.util.data.QueueSink;
+import com.github.rrin.util.data.RawData;
+import com.github.rrin.util.data.RequestData;
+import com.github.rrin.util.data.ShardedQueue;
+import com.github.rrin.util.data.StageQueue;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.github.rrin.benchmark.FusedPipelineBenchmark
+// Request to response latency through the staged and the fused pipeline, without sockets or MySQL.
+// Each benchmark thread is one connection with one request in flight, the percentiles are in the SampleTime output.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FusedPipelineBenchmark {
+    private static final int MAX_CONNECTIONS = 64;
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final int WORKERS = 4;
+
+    @Param({"STAGED", "FUSED"})
+    public PipelineMode mode;
+
+    private final AtomicInteger nextConnection = new AtomicInteger();
+    private final BlockingQueue<RawData>[] mailboxes = newMailboxes();
+    private QueueSink<RawData> rawQueue;
+    private Decrypter decrypter;
+    private IProcessor processor;
+    private Encrypter encrypter;
+    private MailboxSender sender;
+
+    @State(Scope.Thread)
+    public static class Connection {
+        private long id;
+        private byte[] requestFrame;
+        private BlockingQueue<RawData> mailbox;
+
+        @Setup
+        public void setUp(FusedPipelineBenchmark pipeline) {
+            id = pipeline.nextConnection.getAndIncrement();
+            mailbox = pipeline.mailboxes[(int) id];
+            requestFrame = new DataPacket<>(DataPacket.MAGIC_BYTE, (byte) 1, id, CommandType.GET_PRODUCT, 1,
+                    new GetProduct((int) id), id).toByteArray();
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        BufferPool bufferPool = new BufferPool(QUEUE_CAPACITY, 8192);
+        BlockingQueue<RawData> encryptedQueue = new StageQueue<>(QUEUE_CAPACITY);
+        sender = new MailboxSender(encryptedQueue, mailboxes);
+        ICommandHandler.Factory handlers = worker -> new StubHandler();
+
+        if (mode == PipelineMode.FUSED) {
+            ShardedQueue<RawData> shards = new ShardedQueue<>(WORKERS, raw -> raw.connectionId,
+                    shard -> new StageQueue<>(QUEUE_CAPACITY));
+            rawQueue = shards;
+            processor = new FusedPipeline(shards, sender, bufferPool, false, handlers);
+        } else {
+            BlockingQueue<RawData> stageQueue = new StageQueue<>(QUEUE_CAPACITY);
+            rawQueue = QueueSink.of(stageQueue);
+            BlockingQueue<DataPacket<Object>> parsedQueue = new StageQueue<>(QUEUE_CAPACITY);
+            BlockingQueue<RequestData> responseQueue = new StageQueue<>(QUEUE_CAPACITY);
+            decrypter = new Decrypter(stageQueue, parsedQueue);
+            processor = new MySQLProductProcessor(parsedQueue, responseQueue, WORKERS, handlers);
+            encrypter = new Encrypter(responseQueue, encryptedQueue, bufferPool, false);
+            decrypter.start();
+            encrypter.start();
+            sender.start();
+        }
+        processor.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        processor.stop();
+        if (decrypter != null) {
+            decrypter.stop();
+            encrypter.stop();
+            sender.stop();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void lowConcurrency(Connection connection) throws InterruptedException {
+        roundTrip(connection);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public void highConcurrency(Connection connection) throws InterruptedException {
+        roundTrip(connection);
+    }
+
+    private void roundTrip(Connection connection) throws InterruptedException {
+        rawQueue.put(new RawData(connection.requestFrame, connection.id));
+        connection.mailbox.take().release();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static BlockingQueue<RawData>[] newMailboxes() {
+        BlockingQueue<RawData>[] mailboxes = new BlockingQueue[MAX_CONNECTIONS];
+        for (int i = 0; i < MAX_CONNECTIONS; i++) {
+            mailboxes[i] = new ArrayBlockingQueue<>(1);
+        }
+        return mailboxes;
+    }
+
+    // Answers every command at once, so only the pipeline itself is measured
+    private static class StubHandler implements ICommandHandler {
+        private final CommandResponse response = new CommandResponse(200, "Success", "Product found");
+
+        @Override
+        public CommandResponse handle(CommandType command, Object data) {
+            return response;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    // Stands in for the socket, a response goes to the mailbox of its connection
+    private static class MailboxSender implements ISender {
+        private final BlockingQueue<RawData> inputQueue;
+        private final BlockingQueue<RawData>[] mailboxes;
+        private final AtomicBoolean running = new AtomicBoolean(false);
+        private Thread senderThread;
+
+        MailboxSender(BlockingQueue<RawData> inputQueue, BlockingQueue<RawData>[] mailboxes) {
+            this.inputQueue = inputQueue;
+            this.mailboxes = mailboxes;
+        }
+
+        @Override
+        public void start() {
+            if (running.compareAndSet(false, true)) {
+                senderThread = new Thread(() -> {
+                    while (running.get()) {
+                        try {
+                            send(inputQueue.take());
+                        } catch (InterruptedException e) {
+                            break;
+                        }
+                    }
+                }, "MailboxSender");
+                senderThread.start();
+            }
+        }
+
+        @Override
+        public void stop() {
+            running.set(false);
+            if (senderThread != null) {
+                senderThread.interrupt();
+            }
+        }
+
+        @Override
+        public boolean isRunning() {
+            return running.get();
+        }
+
+        @Override
+        public void send(RawData response) throws InterruptedException {
+            mailboxes[response.connectionId.intValue()].put(response);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(FusedPipelineBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,114 @@
+package com.github.rrin.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.rrin.dto.CommandResponse;
+import com.github.rrin.util.CommandType;
+import com.github.rrin.util.data.BufferPool;
+import com.github.rrin.util.data.DataPacket;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.github.rrin.benchmark.PacketCodecBenchmark
+// Compare gc.alloc.rate.norm (bytes per operation) between the byte[] and the pooled ByteBuffer paths.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketCodecBenchmark {
+
+    @Param({"16", "512", "4096"})
+    public int messageLength;
+
+    private final BufferPool pool = new BufferPool(16, 16 * 1024);
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private DataPacket<CommandResponse> packet;
+    private byte[] frameBytes;
+    private ByteBuffer frameBuffer;
+    private byte[] payloadJson;
+
+    @Setup
+    public void setUp() throws Exception {
+        packet = new DataPacket<>(
+                DataPacket.MAGIC_BYTE,
+                (byte) 1,
+                42,
+                CommandType.RESPONSE,
+                1,
+                new CommandResponse(200, "Success", "x".repeat(messageLength)),
+                0
+        );
+        frameBytes = packet.toByteArray();
+        frameBuffer = ByteBuffer.allocateDirect(frameBytes.length).put(frameBytes).flip();
+        payloadJson = objectMapper.writeValueAsBytes(packet.getBody().getData());
+    }
+
+    @Benchmark
+    public byte[] encodeToByteArray() {
+        return packet.toByteArray();
+    }
+
+    @Benchmark
+    public int encodeIntoPooledBuffer() {
+        ByteBuffer buffer = pool.acquire(packet.getFrameSize());
+        packet.encodeInto(buffer);
+        int written = buffer.position();
+        pool.release(buffer);
+        return written;
+    }
+
+    @Benchmark
+    public DataPacket<CommandResponse> decodeFromByteArray() {
+        return DataPacket.fromByteArray(frameBytes, CommandResponse.class, 0);
+    }
+
+    @Benchmark
+    public DataPacket<CommandResponse> decodeFromDirectBuffer() {
+        DataPacket<CommandResponse> decoded = DataPacket.decode(frameBuffer, CommandResponse.class, 0);
+        frameBuffer.rewind();
+        return decoded;
+    }
+
+    // What a stage pays to route or reject a packet before decrypting it
+    @Benchmark
+    public CommandType decodeHeaderOnly() {
+        DataPacket<CommandResponse> decoded = DataPacket.decodeLazy(frameBuffer, CommandResponse.class, 0);
+        frameBuffer.rewind();
+        return decoded.getBody().getCommand();
+    }
+
+    // What the server does with a payload: the registry picks the record from the command type
+    @Benchmark
+    public Object decodeUntyped() {
+        return DataPacket.fromByteArray(frameBytes, Object.class, 0).getBody().getData();
+    }
+
+    // The payload handling before the registry: a map tree first, then a second pass into the record
+    @Benchmark
+    public CommandResponse mapTreeThenConvert() throws Exception {
+        Object tree = objectMapper.readValue(payloadJson, Object.class);
+        return objectMapper.convertValue(tree, CommandResponse.class);
+    }
+
+    @Benchmark
+    public CommandResponse readRecordDirectly() throws Exception {
+        return objectMapper.readValue(payloadJson, CommandResponse.class);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(PacketCodecBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
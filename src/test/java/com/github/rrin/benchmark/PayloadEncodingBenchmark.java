@@ -0,0 +1,68 @@
+package com.github.rrin.benchmark;
+
+import com.github.rrin.dto.product.GetProduct;
+import com.github.rrin.dto.product.UpdateProduct;
+import com.github.rrin.util.CommandType;
+import com.github.rrin.util.PayloadEncoding;
+import com.github.rrin.util.data.DataPacket;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+// Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.github.rrin.benchmark.PayloadEncodingBenchmark
+// Full request round trip (serialize, encrypt, CRC, decrypt, parse) for the two most frequent commands.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PayloadEncodingBenchmark {
+
+    @Param({"JSON", "BINARY"})
+    public PayloadEncoding encoding;
+
+    private byte[] getProductFrame;
+    private byte[] updateProductFrame;
+
+    @Setup
+    public void setUp() {
+        getProductFrame = request(CommandType.GET_PRODUCT, new GetProduct(1042)).toByteArray();
+        updateProductFrame = request(CommandType.UPDATE_PRODUCT, new UpdateProduct(1042, "Notebook A5", 3.75, 120)).toByteArray();
+    }
+
+    private DataPacket<Object> request(CommandType command, Object data) {
+        return new DataPacket<>(DataPacket.MAGIC_BYTE, (byte) 1, 42, command, 1, data, 0, encoding.getFlag());
+    }
+
+    @Benchmark
+    public byte[] encodeGetProduct() {
+        return request(CommandType.GET_PRODUCT, new GetProduct(1042)).toByteArray();
+    }
+
+    @Benchmark
+    public byte[] encodeUpdateProduct() {
+        return request(CommandType.UPDATE_PRODUCT, new UpdateProduct(1042, "Notebook A5", 3.75, 120)).toByteArray();
+    }
+
+    @Benchmark
+    public Object decodeGetProduct() {
+        return DataPacket.fromByteArray(getProductFrame, Object.class, 0).getBody().getData();
+    }
+
+    @Benchmark
+    public Object decodeUpdateProduct() {
+        return DataPacket.fromByteArray(updateProductFrame, Object.class, 0).getBody().getData();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(PayloadEncodingBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
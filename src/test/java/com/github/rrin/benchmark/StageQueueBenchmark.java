@@ -0,0 +1,94 @@
+package com.github.rrin.benchmark;
+
+import com.github.rrin.util.data.StageQueue;
+import com.github.rrin.util.data.WaitStrategy;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.github.rrin.benchmark.StageQueueBenchmark
+// Elements per second one consumer takes while the given number of producer threads keep the queue busy.
+// The single-producer ring is only measured with one producer, the case it is safe for.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StageQueueBenchmark {
+    private static final int CAPACITY = 1024;
+    private static final Object ELEMENT = new Object();
+
+    @Param({"1", "4", "16"})
+    public int producers;
+
+    @Param({"ArrayBlockingQueue", "SPSC_PARK", "MPSC_BUSY_SPIN", "MPSC_YIELD", "MPSC_PARK"})
+    public String queueType;
+
+    private BlockingQueue<Object> queue;
+    private final List<Thread> producerThreads = new ArrayList<>();
+    private volatile boolean running;
+
+    @Setup
+    public void setUp() {
+        queue = switch (queueType) {
+            case "ArrayBlockingQueue" -> new ArrayBlockingQueue<>(CAPACITY);
+            case "SPSC_PARK" -> new StageQueue<>(CAPACITY, true, WaitStrategy.PARK);
+            case "MPSC_BUSY_SPIN" -> new StageQueue<>(CAPACITY, false, WaitStrategy.BUSY_SPIN);
+            case "MPSC_YIELD" -> new StageQueue<>(CAPACITY, false, WaitStrategy.YIELD);
+            case "MPSC_PARK" -> new StageQueue<>(CAPACITY, false, WaitStrategy.PARK);
+            default -> throw new IllegalArgumentException("Unknown queue type: " + queueType);
+        };
+        int threads = queueType.startsWith("SPSC") ? 1 : producers;
+
+        running = true;
+        for (int i = 0; i < threads; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    while (running) {
+                        queue.put(ELEMENT);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "Producer-" + i);
+            thread.setDaemon(true);
+            producerThreads.add(thread);
+            thread.start();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        running = false;
+        for (Thread thread : producerThreads) {
+            thread.interrupt();
+        }
+        // Producers blocked on a full queue need room to notice they were stopped
+        while (!producerThreads.isEmpty()) {
+            queue.clear();
+            producerThreads.removeIf(thread -> !thread.isAlive());
+            Thread.sleep(1);
+        }
+    }
+
+    @Benchmark
+    public Object take() throws InterruptedException {
+        return queue.take();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(StageQueueBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,110 @@
+package com.github.rrin.benchmark;
+
+import com.github.rrin.dto.CommandResponse;
+import com.github.rrin.dto.product.UpdateProduct;
+import com.github.rrin.implementation.Decrypter;
+import com.github.rrin.implementation.Encrypter;
+import com.github.rrin.util.CommandType;
+import com.github.rrin.util.data.BufferPool;
+import com.github.rrin.util.data.DataPacket;
+import com.github.rrin.util.data.RawData;
+import com.github.rrin.util.data.RequestData;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.github.rrin.benchmark.StageScalingBenchmark
+// Packets per second through one Decrypter or Encrypter stage, traffic spread over 64 connections.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StageScalingBenchmark {
+    private static final int CONNECTIONS = 64;
+    private static final int PACKETS_PER_OP = 1024;
+
+    @Param({"1", "2", "4", "8", "16"})
+    public int workers;
+
+    @Param({"1024"})
+    public int messageLength;
+
+    private BlockingQueue<RawData> rawQueue;
+    private BlockingQueue<DataPacket<Object>> parsedQueue;
+    private BlockingQueue<RequestData> responseQueue;
+    private BlockingQueue<RawData> encryptedQueue;
+    private Decrypter decrypter;
+    private Encrypter encrypter;
+    private BufferPool bufferPool;
+
+    private byte[][] requestFrames;
+    private RequestData[] responses;
+
+    @Setup
+    public void setUp() {
+        rawQueue = new ArrayBlockingQueue<>(PACKETS_PER_OP);
+        parsedQueue = new ArrayBlockingQueue<>(PACKETS_PER_OP);
+        responseQueue = new ArrayBlockingQueue<>(PACKETS_PER_OP);
+        encryptedQueue = new ArrayBlockingQueue<>(PACKETS_PER_OP);
+        bufferPool = new BufferPool(PACKETS_PER_OP, 8192);
+
+        decrypter = new Decrypter(rawQueue, parsedQueue, workers);
+        encrypter = new Encrypter(responseQueue, encryptedQueue, bufferPool, false, workers);
+        decrypter.start();
+        encrypter.start();
+
+        String name = "n".repeat(messageLength);
+        requestFrames = new byte[PACKETS_PER_OP][];
+        responses = new RequestData[PACKETS_PER_OP];
+        for (int i = 0; i < PACKETS_PER_OP; i++) {
+            DataPacket<Object> request = new DataPacket<>(
+                    DataPacket.MAGIC_BYTE, (byte) 1, i, CommandType.UPDATE_PRODUCT, 1,
+                    new UpdateProduct(i, name, 1.5, 10), i % CONNECTIONS);
+            requestFrames[i] = request.toByteArray();
+            responses[i] = new RequestData((byte) 1, i, 1, new CommandResponse(200, "Success", name), i % CONNECTIONS);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        decrypter.stop();
+        encrypter.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PACKETS_PER_OP)
+    public void decrypt() throws InterruptedException {
+        for (int i = 0; i < PACKETS_PER_OP; i++) {
+            rawQueue.put(new RawData(requestFrames[i], (long) (i % CONNECTIONS)));
+        }
+        for (int i = 0; i < PACKETS_PER_OP; i++) {
+            parsedQueue.take();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PACKETS_PER_OP)
+    public void encrypt() throws InterruptedException {
+        for (int i = 0; i < PACKETS_PER_OP; i++) {
+            responseQueue.put(responses[i]);
+        }
+        for (int i = 0; i < PACKETS_PER_OP; i++) {
+            encryptedQueue.take().release();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(StageScalingBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,139 @@
+package com.github.rrin.benchmark;
+
+import com.github.rrin.dto.IsRunning;
+import com.github.rrin.implementation.udp.UdpReceiver;
+import com.github.rrin.implementation.udp.UdpSocketManager;
+import com.github.rrin.util.CommandType;
+import com.github.rrin.util.data.BufferPool;
+import com.github.rrin.util.data.DataPacket;
+import com.github.rrin.util.data.QueueSink;
+import com.github.rrin.util.data.RawData;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.github.rrin.benchmark.UdpFloodBenchmark
+// Local clients flood the UDP receiver with request-sized datagrams as fast as they can send them, from a different
+// source port each. The score is datagrams sent per second, the received counter is how many of those reached the
+// pipeline queue, and every iteration prints the loss rate. The rest was dropped by a full socket receive buffer.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class UdpFloodBenchmark {
+
+    @Param({"1", "4"})
+    public int channels;
+
+    private UdpReceiver receiver;
+    private BlockingQueue<RawData> queue;
+    private Thread drainer;
+    private InetSocketAddress target;
+    private ByteBuffer frame;
+    // Received datagrams no benchmark thread has counted yet
+    private final AtomicLong unreported = new AtomicLong();
+    private final LongAdder sent = new LongAdder();
+    private long sentBefore;
+    private long receivedBefore;
+
+    @State(Scope.Thread)
+    public static class Client {
+        DatagramChannel channel;
+        ByteBuffer frame;
+
+        @Setup
+        public void open(UdpFloodBenchmark benchmark) throws IOException {
+            channel = DatagramChannel.open().connect(benchmark.target);
+            frame = benchmark.frame.duplicate();
+        }
+
+        @TearDown
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Datagrams {
+        public long received;
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        List<DatagramChannel> serverChannels = UdpReceiver.openChannels(new InetSocketAddress("127.0.0.1", 0), channels);
+        target = (InetSocketAddress) serverChannels.get(0).getLocalAddress();
+        frame = ByteBuffer.wrap(new DataPacket<>(DataPacket.MAGIC_BYTE, (byte) 1, 1, CommandType.IS_RUNNING, 1, new IsRunning(), 0)
+                .toByteArray());
+
+        BufferPool bufferPool = new BufferPool();
+        queue = new ArrayBlockingQueue<>(4096);
+        receiver = new UdpReceiver(QueueSink.of(queue), new UdpSocketManager(), serverChannels, bufferPool, null);
+        receiver.start();
+
+        // Stands in for a decrypter that keeps up, the receivers are what is measured
+        drainer = new Thread(() -> {
+            try {
+                while (true) {
+                    queue.take().release();
+                    unreported.incrementAndGet();
+                }
+            } catch (InterruptedException ignored) {
+            }
+        }, "Drainer");
+        drainer.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        receiver.stop();
+        drainer.interrupt();
+    }
+
+    @Setup(Level.Iteration)
+    public void markIteration() {
+        sentBefore = sent.sum();
+        receivedBefore = receiver.getReceivedDatagrams();
+    }
+
+    @TearDown(Level.Iteration)
+    public void reportLoss() throws InterruptedException {
+        // Datagrams still in the socket buffers belong to this iteration
+        Thread.sleep(100);
+        long sentNow = sent.sum() - sentBefore;
+        long receivedNow = receiver.getReceivedDatagrams() - receivedBefore;
+        System.out.printf("%n  channels=%d sent=%d received=%d loss=%.2f%%%n", receiver.getChannelCount(), sentNow, receivedNow,
+                sentNow == 0 ? 0.0 : 100.0 * (sentNow - receivedNow) / sentNow);
+    }
+
+    @Benchmark
+    public void flood(Client client, Datagrams datagrams) throws IOException {
+        client.frame.rewind();
+        client.channel.write(client.frame);
+        sent.increment();
+        datagrams.received += unreported.getAndSet(0);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(UdpFloodBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,119 @@
+package com.github.rrin.benchmark;
+
+import com.github.rrin.implementation.tcp.TcpSocketManager;
+import com.github.rrin.implementation.tcp.WriteStats;
+import com.github.rrin.util.OverflowPolicy;
+import com.github.rrin.util.data.RawData;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.github.rrin.benchmark.WriteCoalescingBenchmark
+// A pipelined client gets bursts of small responses on one connection. writeBatchBytes=1 writes every response on its own,
+// the writeCalls and responses counters give the syscalls per response next to the throughput.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WriteCoalescingBenchmark {
+    private static final int BURST = 64;
+
+    @Param({"1", "65536"})
+    public int writeBatchBytes;
+
+    @Param({"64", "1024"})
+    public int responseSize;
+
+    private ServerSocketChannel server;
+    private Socket client;
+    private Thread reader;
+    private TcpSocketManager manager;
+    private Long connectionId;
+    private final AtomicLong bytesRead = new AtomicLong();
+    private long bytesSent;
+    private byte[] response;
+    private PrintStream out;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Syscalls {
+        public long writeCalls;
+        public long responses;
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        // Keep the per-response log line out of the measurement
+        out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        server = ServerSocketChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+        client = new Socket("127.0.0.1", server.socket().getLocalPort());
+        manager = new TcpSocketManager(BURST * 2, OverflowPolicy.BLOCK, writeBatchBytes, 0);
+        Socket accepted = server.accept().socket();
+        accepted.setTcpNoDelay(true);
+        connectionId = manager.register(accepted);
+        response = new byte[responseSize];
+
+        reader = new Thread(() -> {
+            byte[] buffer = new byte[64 * 1024];
+            try {
+                InputStream in = client.getInputStream();
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    bytesRead.addAndGet(n);
+                }
+            } catch (IOException ignored) {
+            }
+        }, "PipelinedClient");
+        reader.start();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        manager.closeAll();
+        client.close();
+        server.close();
+        System.setOut(out);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void burst(Syscalls syscalls) throws InterruptedException {
+        WriteStats stats = manager.getWriteStats();
+        long writeCalls = stats.getWriteCalls();
+        long responses = stats.getResponses();
+
+        for (int i = 0; i < BURST; i++) {
+            manager.send(connectionId, new RawData(response, connectionId));
+        }
+        bytesSent += (long) BURST * responseSize;
+        while (bytesRead.get() < bytesSent) {
+            Thread.yield();
+        }
+
+        syscalls.writeCalls += stats.getWriteCalls() - writeCalls;
+        syscalls.responses += stats.getResponses() - responses;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(WriteCoalescingBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}